@@ -0,0 +1,140 @@
+package com.purplehillsbooks.json;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * <p>The getter methods of a class, for JSONObject(Object bean), along with
+ * the key that each value goes under.  Finding the getters takes reflection,
+ * string comparisons and case conversion, so it is done only the first time
+ * a class is converted, and kept with the class from then on.  After that,
+ * converting a bean is a loop calling a method handle for each getter.</p>
+ *
+ * <p>The getters are kept with a ClassValue, which lets a class and the
+ * getters be unloaded together, so that keeping them does not hold on to
+ * classes from class loaders that are discarded.</p>
+ */
+final class BeanAccessors {
+
+    private static final ClassValue<BeanAccessors> forClass = new ClassValue<BeanAccessors>() {
+        @Override
+        protected BeanAccessors computeValue(Class<?> type) {
+            return new BeanAccessors(type);
+        }
+    };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final String[]       keys;
+    private final MethodHandle[] getters;
+
+
+    /**
+     * @return the getters for the class, found the first time it is asked for
+     */
+    static BeanAccessors of(Class<?> klass) {
+        return forClass.get(klass);
+    }
+
+
+    /**
+     * Finds the getters the same way JSONObject always has.  A method that
+     * can not be called from here is left out, just as calling it by
+     * reflection would have failed every time.
+     */
+    private BeanAccessors(Class<?> klass) {
+        // If klass is a System class then set includeSuperClass to false.
+        boolean includeSuperClass = klass.getClassLoader() != null;
+
+        Method[] methods = includeSuperClass
+                ? klass.getMethods()
+                : klass.getDeclaredMethods();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<String> keyList = new ArrayList<String>();
+        List<MethodHandle> getterList = new ArrayList<MethodHandle>();
+        for (Method method : methods) {
+            try {
+                String key = keyFor(method);
+                if (key != null) {
+                    MethodHandle getter = lookup.unreflect(method).asType(GETTER_TYPE);
+                    keyList.add(key);
+                    getterList.add(getter);
+                }
+            }
+            catch (Exception ignore) {
+            }
+        }
+        this.keys = keyList.toArray(new String[keyList.size()]);
+        this.getters = getterList.toArray(new MethodHandle[getterList.size()]);
+    }
+
+
+    /**
+     * @return the key for a public getter method, or null if it is not one
+     */
+    private static String keyFor(Method method) {
+        if (!Modifier.isPublic(method.getModifiers())) {
+            return null;
+        }
+        String name = method.getName();
+        String key = "";
+        if (name.startsWith("get")) {
+            if ("getClass".equals(name) ||
+                    "getDeclaringClass".equals(name)) {
+                key = "";
+            } else {
+                key = name.substring(3);
+            }
+        } else if (name.startsWith("is")) {
+            key = name.substring(2);
+        }
+        if (key.length() == 0 ||
+                !Character.isUpperCase(key.charAt(0)) ||
+                method.getParameterTypes().length != 0) {
+            return null;
+        }
+        if (key.length() == 1) {
+            key = key.toLowerCase();
+        } else if (!Character.isUpperCase(key.charAt(1))) {
+            key = key.substring(0, 1).toLowerCase() +
+                key.substring(1);
+        }
+        return key;
+    }
+
+
+    int size() {
+        return this.keys.length;
+    }
+
+
+    String key(int i) {
+        return this.keys[i];
+    }
+
+
+    /**
+     * Call a getter on a bean.  An exception thrown by the getter is
+     * passed on as it is.
+     */
+    Object get(Object bean, int i) throws Exception {
+        try {
+            return this.getters[i].invokeExact(bean);
+        }
+        catch (Exception e) {
+            throw e;
+        }
+        catch (Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new SimpleException("Getter for (%s) failed", t, this.keys[i]);
+        }
+    }
+}
@@ -0,0 +1,701 @@
+package com.purplehillsbooks.json;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>The map that holds the members of a JSONObject.  Most objects in a typical
+ * tree have only a handful of members, and for those a HashMap is mostly
+ * overhead: the map, its table, and an entry object for every member.  This
+ * map keeps up to MAX_COMPACT members in a single array of alternating keys
+ * and values, searched in order, which for so few keys is as fast as hashing.
+ * When it grows past that it moves everything into a HashMap and simply
+ * delegates from then on.</p>
+ *
+ * <p>The members are kept in the order that a HashMap of the default size
+ * would iterate them: by hash bucket, and in the order added within a
+ * bucket.  Code that walks keySet() sees exactly the same order as before,
+ * and nothing changes when the map is upgraded.  A map made for insertion
+ * order keeps the members in the order added instead, and upgrades to a
+ * LinkedHashMap.  Keys read by the parser are usually the same String
+ * objects from the symbol table, so most comparisons succeed on identity
+ * alone.</p>
+ *
+ * <p>The map also holds the keys in sorted order once they have been asked
+ * for, since writing sorts the keys of every object each time.  Any change
+ * to the set of keys, through the map or any of its views, drops them.</p>
+ *
+ * <p>A frozen map shares the storage of the map it was made from, which is
+ * then dropped, and refuses every change.  Its sorted keys are worked out
+ * when it is made, so that reading it never writes anything, and any number
+ * of threads can read it at once.</p>
+ */
+class CompactMap implements Map<String, Object> {
+
+    /**
+     * The most members held in the compact form.
+     */
+    static final int MAX_COMPACT = 8;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * Keys at even positions and their values at the following odd positions.
+     * Keys are never null, so the first null key marks the end of the members.
+     * There is no separate count, which keeps a small map as small as possible.
+     */
+    private Object[]                slots = EMPTY;
+    private HashMap<String, Object> big;
+
+    /**
+     * The keys in sorted order, kept until the set of keys changes.
+     */
+    private String[]                sorted;
+
+
+    CompactMap() {
+    }
+
+
+    /**
+     * Take over the members of another map, which must not be used after.
+     */
+    private CompactMap(CompactMap from) {
+        this.slots = from.slots;
+        this.big = from.big;
+        this.sorted = from.sortedKeys();
+    }
+
+
+    /**
+     * @param insertionOrder true for a map that iterates in the order the keys
+     *        were first added, the way a LinkedHashMap does
+     */
+    static CompactMap create(boolean insertionOrder) {
+        return insertionOrder ? new InsertionOrdered() : new CompactMap();
+    }
+
+
+    /**
+     * A map that keeps the order the keys were added in.  This is a subclass
+     * rather than a flag so that it costs nothing in every other map.
+     */
+    private static final class InsertionOrdered extends CompactMap {
+        @Override
+        boolean keepsInsertionOrder() {
+            return true;
+        }
+    }
+
+
+    boolean keepsInsertionOrder() {
+        return false;
+    }
+
+
+    /**
+     * @return a map that holds the same members and can not be changed.
+     *         This map must not be used after.
+     */
+    CompactMap frozen() {
+        return new Frozen(this);
+    }
+
+
+    boolean isFrozen() {
+        return false;
+    }
+
+
+    /**
+     * Called before every change, a frozen map throws instead.
+     */
+    void checkWritable() {
+    }
+
+
+    /**
+     * @return the kept output of a frozen map, or null if it has none
+     */
+    OutputCache outputCache() {
+        return null;
+    }
+
+
+    /**
+     * Start keeping the output of a frozen map.
+     * @return false if the map is not frozen
+     */
+    boolean keepOutput() {
+        return false;
+    }
+
+
+    /**
+     * @return the structural hash kept with a frozen map, or null
+     */
+    byte[] keptHash() {
+        return null;
+    }
+
+
+    /**
+     * Keep the structural hash, if this map is frozen and so can not change.
+     */
+    void keepHash(byte[] hash) {
+    }
+
+
+    /**
+     * A map that can not be changed.  The views are wrapped so that no
+     * change can get through them either, including through an entry.
+     */
+    private static final class Frozen extends CompactMap {
+        private final boolean insertionOrder;
+        private volatile OutputCache outputCache;
+        private volatile byte[] hash;
+
+        Frozen(CompactMap from) {
+            super(from);
+            this.insertionOrder = from.keepsInsertionOrder();
+        }
+
+        @Override
+        boolean keepsInsertionOrder() {
+            return this.insertionOrder;
+        }
+
+        @Override
+        CompactMap frozen() {
+            return this;
+        }
+
+        @Override
+        boolean isFrozen() {
+            return true;
+        }
+
+        @Override
+        OutputCache outputCache() {
+            return this.outputCache;
+        }
+
+        @Override
+        boolean keepOutput() {
+            if (this.outputCache == null) {
+                this.outputCache = new OutputCache();
+            }
+            return true;
+        }
+
+        @Override
+        byte[] keptHash() {
+            return this.hash;
+        }
+
+        @Override
+        void keepHash(byte[] hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        void checkWritable() {
+            throw new SimpleException("This JSONObject is frozen and can not be changed, use mutableCopy to get one that can be.");
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(super.keySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            return Collections.unmodifiableCollection(super.values());
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            final Set<Map.Entry<String, Object>> inner = super.entrySet();
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    final Iterator<Map.Entry<String, Object>> it = inner.iterator();
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            return new AbstractMap.SimpleImmutableEntry<String, Object>(it.next());
+                        }
+                    };
+                }
+                @Override
+                public int size() {
+                    return inner.size();
+                }
+            };
+        }
+    }
+
+
+    /**
+     * @return the keys in sorted order.  The array is shared, and must not
+     *         be changed by the caller.
+     */
+    String[] sortedKeys() {
+        String[] keys = this.sorted;
+        if (keys == null) {
+            keys = this.keySet().toArray(new String[this.size()]);
+            Arrays.sort(keys);
+            this.sorted = keys;
+        }
+        return keys;
+    }
+
+
+    /**
+     * The bucket a key would be in, in a HashMap of the default capacity.
+     */
+    private static int bucket(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & 15;
+    }
+
+
+    /**
+     * @return the position just after the last member in the slots
+     */
+    private int end() {
+        Object[] s = this.slots;
+        int i = 0;
+        while (i < s.length && s[i] != null) {
+            i += 2;
+        }
+        return i;
+    }
+
+
+    private int indexOf(Object key) {
+        Object[] s = this.slots;
+        int end = this.end();
+        for (int i = 0; i < end; i += 2) {
+            if (s[i] == key) {
+                return i;
+            }
+        }
+        if (key != null) {
+            for (int i = 0; i < end; i += 2) {
+                if (key.equals(s[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+
+    @Override
+    public int size() {
+        return this.big != null ? this.big.size() : this.end() / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (this.big != null) {
+            return this.big.containsKey(key);
+        }
+        return this.indexOf(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (this.big != null) {
+            return this.big.containsValue(value);
+        }
+        int end = this.end();
+        for (int i = 1; i < end; i += 2) {
+            Object v = this.slots[i];
+            if (v == null ? value == null : v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (this.big != null) {
+            return this.big.get(key);
+        }
+        int i = this.indexOf(key);
+        return i < 0 ? null : this.slots[i + 1];
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        this.checkWritable();
+        if (this.big != null) {
+            int before = this.big.size();
+            Object old = this.big.put(key, value);
+            if (this.big.size() != before) {
+                this.sorted = null;
+            }
+            return old;
+        }
+        int i = this.indexOf(key);
+        if (i >= 0) {
+            Object old = this.slots[i + 1];
+            this.slots[i + 1] = value;
+            return old;
+        }
+        this.sorted = null;
+        int end = this.end();
+        if (end == MAX_COMPACT * 2) {
+            HashMap<String, Object> hm = this.keepsInsertionOrder()
+                    ? new LinkedHashMap<String, Object>()
+                    : new HashMap<String, Object>();
+            for (i = 0; i < end; i += 2) {
+                hm.put((String) this.slots[i], this.slots[i + 1]);
+            }
+            hm.put(key, value);
+            this.big = hm;
+            this.slots = EMPTY;
+            return null;
+        }
+        if (end == this.slots.length) {
+            //grow one member at a time while small, since most objects stop at
+            //a few members and every unused pair of slots costs 8 bytes
+            Object[] grown = new Object[end == 0 ? 4 : end < 8 ? end + 2 : end + 4];
+            System.arraycopy(this.slots, 0, grown, 0, end);
+            this.slots = grown;
+        }
+        int pos = end;
+        if (!this.keepsInsertionOrder()) {
+            int bucket = bucket(key);
+            while (pos > 0 && bucket(this.slots[pos - 2]) > bucket) {
+                pos -= 2;
+            }
+        }
+        System.arraycopy(this.slots, pos, this.slots, pos + 2, end - pos);
+        this.slots[pos] = key;
+        this.slots[pos + 1] = value;
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        this.checkWritable();
+        if (this.big != null) {
+            int before = this.big.size();
+            Object old = this.big.remove(key);
+            if (this.big.size() != before) {
+                this.sorted = null;
+            }
+            return old;
+        }
+        int i = this.indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Object old = this.slots[i + 1];
+        this.removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        this.checkWritable();
+        this.sorted = null;
+        int end = this.end();
+        System.arraycopy(this.slots, i + 2, this.slots, i, end - i - 2);
+        this.slots[end - 2] = null;
+        this.slots[end - 1] = null;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> m) {
+        for (Map.Entry<? extends String, ? extends Object> ent : m.entrySet()) {
+            this.put(ent.getKey(), ent.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        this.checkWritable();
+        this.sorted = null;
+        this.big = null;
+        this.slots = EMPTY;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                if (CompactMap.this.big != null) {
+                    return new BigIterator<String>(CompactMap.this.big.keySet().iterator());
+                }
+                return new CompactIterator<String>() {
+                    @Override
+                    String item(int i) {
+                        return (String) CompactMap.this.slots[i];
+                    }
+                };
+            }
+            @Override
+            public int size() {
+                return CompactMap.this.size();
+            }
+            @Override
+            public boolean contains(Object o) {
+                return CompactMap.this.containsKey(o);
+            }
+            @Override
+            public boolean remove(Object o) {
+                if (!CompactMap.this.containsKey(o)) {
+                    return false;
+                }
+                CompactMap.this.remove(o);
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return new AbstractCollection<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                if (CompactMap.this.big != null) {
+                    return new BigIterator<Object>(CompactMap.this.big.values().iterator());
+                }
+                return new CompactIterator<Object>() {
+                    @Override
+                    Object item(int i) {
+                        return CompactMap.this.slots[i + 1];
+                    }
+                };
+            }
+            @Override
+            public int size() {
+                return CompactMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                if (CompactMap.this.big != null) {
+                    return new BigIterator<Map.Entry<String, Object>>(CompactMap.this.big.entrySet().iterator());
+                }
+                return new CompactIterator<Map.Entry<String, Object>>() {
+                    @Override
+                    Map.Entry<String, Object> item(int i) {
+                        return new Entry(i);
+                    }
+                };
+            }
+            @Override
+            public int size() {
+                return CompactMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Map)) {
+            return false;
+        }
+        Map<?, ?> other = (Map<?, ?>) o;
+        if (other.size() != this.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Object> ent : this.entrySet()) {
+            Object v = ent.getValue();
+            if (v == null) {
+                if (other.get(ent.getKey()) != null || !other.containsKey(ent.getKey())) {
+                    return false;
+                }
+            }
+            else if (!v.equals(other.get(ent.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (Map.Entry<String, Object> ent : this.entrySet()) {
+            h += ent.hashCode();
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> ent : this.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(ent.getKey()).append('=').append(ent.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+
+    /**
+     * Walks the compact slots, supporting remove, and failing if the map
+     * is changed some other way in the middle.
+     */
+    private abstract class CompactIterator<T> implements Iterator<T> {
+        private int next;
+        private int last = -1;
+        private int expectedEnd = CompactMap.this.end();
+        private final Object[] expectedSlots = CompactMap.this.slots;
+
+        abstract T item(int i);
+
+        @Override
+        public boolean hasNext() {
+            return this.next < this.expectedEnd && CompactMap.this.big == null;
+        }
+
+        @Override
+        public T next() {
+            this.check();
+            if (this.next >= this.expectedEnd) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next;
+            this.next += 2;
+            return this.item(this.last);
+        }
+
+        @Override
+        public void remove() {
+            if (this.last < 0) {
+                throw new IllegalStateException();
+            }
+            this.check();
+            CompactMap.this.removeAt(this.last);
+            this.next = this.last;
+            this.last = -1;
+            this.expectedEnd -= 2;
+        }
+
+        private void check() {
+            if (CompactMap.this.end() != this.expectedEnd
+                    || CompactMap.this.slots != this.expectedSlots
+                    || CompactMap.this.big != null) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+
+    /**
+     * Walks the HashMap once the map has grown, noting any removal so that
+     * the sorted keys are recalculated.
+     */
+    private class BigIterator<T> implements Iterator<T> {
+        private final Iterator<T> inner;
+
+        BigIterator(Iterator<T> inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.inner.hasNext();
+        }
+
+        @Override
+        public T next() {
+            return this.inner.next();
+        }
+
+        @Override
+        public void remove() {
+            this.inner.remove();
+            CompactMap.this.sorted = null;
+        }
+    }
+
+
+    /**
+     * A member of the compact form, writing through to the slots.
+     */
+    private class Entry implements Map.Entry<String, Object> {
+        private final int index;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return (String) CompactMap.this.slots[this.index];
+        }
+
+        @Override
+        public Object getValue() {
+            return CompactMap.this.slots[this.index + 1];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object old = CompactMap.this.slots[this.index + 1];
+            CompactMap.this.slots[this.index + 1] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object k = this.getKey();
+            Object v = this.getValue();
+            return k.equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object v = this.getValue();
+            return this.getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return this.getKey() + "=" + this.getValue();
+        }
+    }
+}
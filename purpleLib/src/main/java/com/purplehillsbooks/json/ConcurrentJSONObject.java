@@ -0,0 +1,362 @@
+package com.purplehillsbooks.json;
+
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * <p>A JSONObject that can be shared between threads without any locking.
+ * The members are held in a ConcurrentHashMap, so reading a member never
+ * blocks and never sees a half made change, and any number of threads can
+ * put and remove members at the same time.</p>
+ *
+ * <pre>
+ * ConcurrentJSONObject stats = new ConcurrentJSONObject();
+ * ...
+ * //on any request thread
+ * stats.increment("requests");
+ * stats.add("bytesSent", length);
+ * stats.requireJSONObject("byUser").increment(userKey);
+ * </pre>
+ *
+ * <p>A single put, remove, or get is always safe, but a sequence of them is
+ * not atomic: another thread may change the member in between.  For a change
+ * that depends on the current value, use compute, computeIfAbsent, merge,
+ * putIfAbsent, replace, or the number operations increment and add, each of
+ * which happens atomically.  putOnce, requireJSONObject and requireJSONArray
+ * are also atomic here, and an object created by requireJSONObject is another
+ * ConcurrentJSONObject.  Other objects and arrays within this one are as
+ * thread safe as they ever are, that is, not at all, unless they are frozen.</p>
+ *
+ * <p>Writing works the same as for any JSONObject.  The members are copied
+ * at the start of writing each object, so the output is always well formed
+ * even while other threads are changing it.  Keys are not held in sorted
+ * order, so sorting them is done each time.  Freezing makes an ordinary
+ * frozen object and must not be done while other threads are changing it.</p>
+ */
+public class ConcurrentJSONObject extends JSONObject {
+
+    private final ConcurrentHashMap<String, Object> members;
+
+
+    /**
+     * Construct an empty ConcurrentJSONObject.
+     */
+    public ConcurrentJSONObject() {
+        this(new ConcurrentHashMap<String, Object>());
+    }
+
+
+    /**
+     * Construct a ConcurrentJSONObject holding the same members as another
+     * object.  Only the top level is copied, the objects and arrays within
+     * it are the same ones.
+     */
+    public ConcurrentJSONObject(JSONObject source) {
+        this(new ConcurrentHashMap<String, Object>(Math.max(16, source.length() * 2)));
+        for (String key : source.keySet()) {
+            Object value = source.opt(key);
+            if (value != null) {
+                this.members.put(key, value);
+            }
+        }
+    }
+
+
+    private ConcurrentJSONObject(ConcurrentHashMap<String, Object> members) {
+        super(new Members(members));
+        this.members = members;
+    }
+
+
+    /**
+     * Put a value only if there is no member with that key.
+     * @return the value already there, or null if the value was put
+     */
+    public Object putIfAbsent(String key, Object value) {
+        this.checkWritable(key);
+        return this.members.putIfAbsent(key, valid(key, value));
+    }
+
+
+    /**
+     * Replace the value of a member, only if it currently has the expected value.
+     * @return true if the value was replaced
+     */
+    public boolean replace(String key, Object expected, Object value) {
+        this.checkWritable(key);
+        return expected != null && this.members.replace(key, expected, valid(key, value));
+    }
+
+
+    /**
+     * Remove a member, only if it currently has the expected value.
+     * @return true if the member was removed
+     */
+    public boolean remove(String key, Object expected) {
+        this.checkWritable(key);
+        return expected != null && this.members.remove(key, expected);
+    }
+
+
+    /**
+     * Atomically set a member to the result of a function of the key and the
+     * current value, which is null if there is none.  If the function returns
+     * null the member is removed.  The function may be called while other
+     * changes to this object wait, so it should be short, and must not change
+     * this object.
+     * @return the new value, or null if there is none
+     */
+    public Object compute(String key, BiFunction<String, Object, Object> function) {
+        this.checkWritable(key);
+        return this.members.compute(key, (k, old) -> validOrNull(function.apply(k, old)));
+    }
+
+
+    /**
+     * If there is no member with the key, atomically put the result of a
+     * function of the key, unless it is null.
+     * @return the value now associated with the key
+     */
+    public Object computeIfAbsent(String key, Function<String, Object> function) {
+        this.checkWritable(key);
+        return this.members.computeIfAbsent(key, k -> validOrNull(function.apply(k)));
+    }
+
+
+    /**
+     * If there is no member with the key, put the value, otherwise atomically
+     * set the member to the result of a function of the current value and the
+     * value given.  If the function returns null the member is removed.
+     * @return the new value, or null if there is none
+     */
+    public Object merge(String key, Object value, BiFunction<Object, Object, Object> function) {
+        this.checkWritable(key);
+        return this.members.merge(key, valid(key, value), (old, given) -> validOrNull(function.apply(old, given)));
+    }
+
+
+    /**
+     * Atomically add an amount to a numeric member.  If there is no such
+     * member, it is created with the amount.  An Integer stays an Integer
+     * unless the result does not fit, in which case it becomes a Long.
+     * Long, Double and Float members keep their type.
+     * @return the new value
+     * @throws SimpleException if the member is not an Integer, Long,
+     *         Double or Float.
+     */
+    public Number add(String key, long amount) {
+        this.checkWritable(key);
+        return (Number) this.members.compute(key, (k, old) -> {
+            if (old == null || old instanceof Integer) {
+                long sum = (old == null ? 0 : ((Integer) old).longValue()) + amount;
+                if (sum == (int) sum) {
+                    return Integer.valueOf((int) sum);
+                }
+                return Long.valueOf(sum);
+            }
+            if (old instanceof Long) {
+                return Long.valueOf(((Long) old).longValue() + amount);
+            }
+            if (old instanceof Double) {
+                return Double.valueOf(((Double) old).doubleValue() + amount);
+            }
+            if (old instanceof Float) {
+                return Float.valueOf(((Float) old).floatValue() + amount);
+            }
+            throw new SimpleException("Unable to increment [%s].", k);
+        });
+    }
+
+
+    /**
+     * Atomically add one to a numeric member, see add.
+     */
+    @Override
+    public JSONObject increment(String key) {
+        this.add(key, 1);
+        return this;
+    }
+
+
+    @Override
+    public JSONObject putOnce(String key, Object value) {
+        if (key == null) {
+            throw new SimpleException("When placing a value in a JSONObject, the key value must not be null.");
+        }
+        if (value != null && this.putIfAbsent(key, value) != null) {
+            throw new SimpleException("PutOnce rejected because there is a duplicate key (%s)", key);
+        }
+        return this;
+    }
+
+
+    /**
+     * Get the JSONObject value associated with a key, atomically creating an
+     * empty ConcurrentJSONObject if it does not exist yet.
+     */
+    @Override
+    public JSONObject requireJSONObject(String key) {
+        Object object = this.computeIfAbsent(key, k -> new ConcurrentJSONObject());
+        if (object instanceof JSONObject) {
+            return (JSONObject) object;
+        }
+        throw new SimpleException("JSONObject[%s] is not a JSONObject.", key);
+    }
+
+
+    /**
+     * Get the JSONArray value associated with a key, atomically creating an
+     * empty one if it does not exist yet.
+     */
+    @Override
+    public JSONArray requireJSONArray(String key) {
+        Object object = this.computeIfAbsent(key, k -> new JSONArray());
+        if (object instanceof JSONArray) {
+            return (JSONArray) object;
+        }
+        throw new SimpleException("JSONObject[%s] is not a JSONArray.", key);
+    }
+
+
+    /**
+     * Writes a copy of the members taken at the start, so that the number
+     * of members can not change in the middle.
+     */
+    @Override
+    public Writer write(Writer writer, int indentFactor, int indent, boolean sortKeys) {
+        return this.mutableCopy().write(writer, indentFactor, indent, sortKeys);
+    }
+
+
+    private void checkWritable(String key) {
+        if (key == null) {
+            throw new SimpleException("When placing a value in a JSONObject, the key value must not be null.");
+        }
+        if (this.isFrozen()) {
+            throw new SimpleException("This JSONObject is frozen and can not be changed, use mutableCopy to get one that can be.");
+        }
+    }
+
+
+    private static Object valid(String key, Object value) {
+        if (value == null) {
+            throw new SimpleException("The value for key (%s) must not be null.", key);
+        }
+        JSONObject.testValidity(value);
+        return value;
+    }
+
+
+    private static Object validOrNull(Object value) {
+        JSONObject.testValidity(value);
+        return value;
+    }
+
+
+    /**
+     * Presents the concurrent map as the members of the JSONObject.  None of
+     * the compact storage is used.
+     */
+    private static final class Members extends CompactMap {
+        private final ConcurrentHashMap<String, Object> inner;
+
+        Members(ConcurrentHashMap<String, Object> inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        String[] sortedKeys() {
+            String[] keys = this.inner.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            return keys;
+        }
+
+        @Override
+        CompactMap frozen() {
+            CompactMap copy = new CompactMap();
+            copy.putAll(this.inner);
+            return copy.frozen();
+        }
+
+        @Override
+        public int size() {
+            return this.inner.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return this.inner.isEmpty();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key != null && this.inner.containsKey(key);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return value != null && this.inner.containsValue(value);
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key == null ? null : this.inner.get(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return this.inner.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return key == null ? null : this.inner.remove(key);
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends Object> m) {
+            this.inner.putAll(m);
+        }
+
+        @Override
+        public void clear() {
+            this.inner.clear();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return this.inner.keySet();
+        }
+
+        @Override
+        public Collection<Object> values() {
+            return this.inner.values();
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return this.inner.entrySet();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this.inner.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.inner.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.inner.toString();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.purplehillsbooks.json;
+
+import java.math.BigInteger;
+
+/**
+ * <p>Writes a double as the shortest decimal that reads back as exactly the
+ * same double, and of those the one closest to its true value.  This is the
+ * Schubfach method of Raffaello Giulietti, which is what Double.toString
+ * does from Java 19 on.  Before that, Double.toString sometimes gives more
+ * digits than needed, and it always makes a new String, which JSON output
+ * then had to trim the trailing zeros from, making more Strings.  Here the
+ * chars are put straight into an array, so writing a double makes no objects
+ * at all.</p>
+ *
+ * <p>The text is the same form as Double.toString with the trailing ".0" of a
+ * whole number left off, which is what JSON output has always written: plain
+ * digits from 0.001 up to 10,000,000, and otherwise scientific notation like
+ * 1.0E10 or 1.25E-7.</p>
+ *
+ * <p>The method needs the powers of ten to 126 bits, which are worked out
+ * once when this class is first used.</p>
+ */
+final class DoubleFormat {
+
+    /**
+     * The most chars a double can take, a little more than the
+     * 24 of "-1.2345678901234567E-308".
+     */
+    static final int MAX_CHARS = 32;
+
+    private static final int  P = 53;
+    private static final int  Q_MIN = -1074;
+    private static final long C_MIN = 1L << (P - 1);
+    private static final long T_MASK = C_MIN - 1;
+    private static final int  BQ_MASK = 0x7FF;
+    private static final int  C_TINY = 3;
+    private static final int  K_MIN = -324;
+    private static final int  K_MAX = 292;
+    private static final long MASK_63 = 0x7FFFFFFFFFFFFFFFL;
+
+    /**
+     * For each k from K_MIN, the high and low 63 bits of g, where 10 to the
+     * power -k is beta times 2 to the power r, with 2^125 <= beta < 2^126,
+     * and g is floor(beta) + 1.
+     */
+    private static final long[] G = powersOfTen();
+
+
+    private DoubleFormat() {
+    }
+
+
+    /**
+     * @return the text of a finite double
+     */
+    static String toString(double d) {
+        char[] buf = new char[MAX_CHARS];
+        return new String(buf, 0, format(d, buf, 0));
+    }
+
+
+    /**
+     * Lay out a decimal that is not a double in the same way that a double is
+     * written, with all of its digits.
+     *
+     * @param digits the digits, with no leading or trailing zeros
+     * @param point  where the decimal point goes, counted from the first digit
+     * @return the text of the decimal
+     */
+    static String toString(boolean negative, String digits, int point) {
+        int len = digits.length();
+        StringBuilder sb = new StringBuilder(len + 16);
+        if (negative) {
+            sb.append('-');
+        }
+        if (0 < point && point <= 7) {
+            if (point >= len) {
+                sb.append(digits);
+                for (int z = len; z < point; z++) {
+                    sb.append('0');
+                }
+            }
+            else {
+                sb.append(digits, 0, point).append('.').append(digits, point, len);
+            }
+            return sb.toString();
+        }
+        if (-3 < point && point <= 0) {
+            sb.append("0.");
+            for (int z = point; z < 0; z++) {
+                sb.append('0');
+            }
+            return sb.append(digits).toString();
+        }
+        sb.append(digits.charAt(0)).append('.');
+        if (len == 1) {
+            sb.append('0');
+        }
+        else {
+            sb.append(digits, 1, len);
+        }
+        return sb.append('E').append(point - 1).toString();
+    }
+
+
+    /**
+     * Put the text of a finite double into the array at pos, which must
+     * have room for MAX_CHARS.
+     *
+     * @return the position after the last char written
+     */
+    static int format(double d, char[] buf, int pos) {
+        long bits = Double.doubleToRawLongBits(d);
+        long t = bits & T_MASK;
+        int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+        if (bq == BQ_MASK) {
+            throw new SimpleException("JSON does not allow non-finite numbers.");
+        }
+        if (bits < 0) {
+            buf[pos++] = '-';
+        }
+        if (bq != 0) {
+            int mq = -Q_MIN + 1 - bq;
+            long c = C_MIN | t;
+            //a whole number below 2^53 needs nothing more than its digits
+            if (0 < mq && mq < P) {
+                long f = c >> mq;
+                if (f << mq == c) {
+                    return toChars(f, 0, buf, pos);
+                }
+            }
+            return toDecimal(-mq, c, 0, buf, pos);
+        }
+        if (t != 0) {
+            //subnormal
+            return t < C_TINY
+                    ? toDecimal(Q_MIN, 10 * t, -1, buf, pos)
+                    : toDecimal(Q_MIN, t, 0, buf, pos);
+        }
+        buf[pos++] = '0';
+        return pos;
+    }
+
+
+    /**
+     * Find the decimal for c times 2 to the power q, then times 10 to the
+     * power dk, and write it.
+     */
+    private static int toDecimal(int q, long c, int dk, char[] buf, int pos) {
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        }
+        else {
+            //the gap below a power of two is half the gap above
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        int i = (k - K_MIN) << 1;
+        long g1 = G[i];
+        long g0 = G[i + 1];
+
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            //try one digit less first
+            long sp10 = 10 * multiplyHigh(s, 115292150460684698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return toChars(upin ? sp10 : tp10, k + dk, buf, pos);
+            }
+        }
+
+        long sp = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (sp << 2) + out <= vbr;
+        if (uin != win) {
+            return toChars(uin ? s : sp, k + dk, buf, pos);
+        }
+        long cmp = vb - ((s + sp) << 1);
+        return toChars(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : sp, k + dk, buf, pos);
+    }
+
+
+    /**
+     * Write f times 10 to the power e, where f is positive.
+     */
+    private static int toChars(long f, int e, char[] buf, int pos) {
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        int len = 1;
+        for (long p = 10; len < 19 && p <= f; p *= 10) {
+            len++;
+        }
+        //the decimal point goes after the first 'point' digits
+        int point = len + e;
+        if (0 < point && point <= 7) {
+            if (e >= 0) {
+                writeDigits(f, len, buf, pos);
+                pos += len;
+                for (int z = 0; z < e; z++) {
+                    buf[pos++] = '0';
+                }
+                return pos;
+            }
+            writeDigits(f, len, buf, pos + 1);
+            System.arraycopy(buf, pos + 1, buf, pos, point);
+            buf[pos + point] = '.';
+            return pos + len + 1;
+        }
+        if (-3 < point && point <= 0) {
+            buf[pos++] = '0';
+            buf[pos++] = '.';
+            for (int z = point; z < 0; z++) {
+                buf[pos++] = '0';
+            }
+            writeDigits(f, len, buf, pos);
+            return pos + len;
+        }
+        writeDigits(f, len, buf, pos + 1);
+        buf[pos] = buf[pos + 1];
+        buf[pos + 1] = '.';
+        pos += 2;
+        if (len == 1) {
+            buf[pos++] = '0';
+        }
+        else {
+            pos += len - 1;
+        }
+        buf[pos++] = 'E';
+        int exp = point - 1;
+        if (exp < 0) {
+            buf[pos++] = '-';
+            exp = -exp;
+        }
+        if (exp >= 100) {
+            buf[pos++] = (char) ('0' + exp / 100);
+            exp %= 100;
+            buf[pos++] = (char) ('0' + exp / 10);
+        }
+        else if (exp >= 10) {
+            buf[pos++] = (char) ('0' + exp / 10);
+        }
+        buf[pos++] = (char) ('0' + exp % 10);
+        return pos;
+    }
+
+
+    private static void writeDigits(long f, int len, char[] buf, int pos) {
+        int i = pos + len;
+        while (f > Integer.MAX_VALUE) {
+            long q = f / 10;
+            buf[--i] = (char) ('0' + (int) (f - q * 10));
+            f = q;
+        }
+        int n = (int) f;
+        while (i > pos) {
+            int q = n / 10;
+            buf[--i] = (char) ('0' + (n - q * 10));
+            n = q;
+        }
+    }
+
+
+    /**
+     * The high bits of g times cp, shifted down by 127, with the lowest bit
+     * set if any of the bits shifted out were set.
+     */
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | ((z & MASK_63) + MASK_63) >>> 63;
+    }
+
+
+    /**
+     * The high 64 bits of the 128 bit product, as Math.multiplyHigh does
+     * from Java 9 on.
+     */
+    private static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFFFFFFL;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+
+    /**
+     * @return floor(e * log10(2))
+     */
+    private static int flog10pow2(int e) {
+        return (int) (e * 661971961083L >> 41);
+    }
+
+
+    /**
+     * @return floor(log10(3/4 * 2^e))
+     */
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661971961083L + -274743187321L >> 41);
+    }
+
+
+    /**
+     * @return floor(e * log2(10))
+     */
+    private static int flog2pow10(int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+
+
+    private static long[] powersOfTen() {
+        long[] g = new long[(K_MAX - K_MIN + 1) * 2];
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int e = -k;
+            int r = flog2pow10(e) - 125;
+            BigInteger pow = BigInteger.TEN.pow(Math.abs(e));
+            BigInteger beta;
+            if (e < 0) {
+                //r is well below zero here
+                beta = BigInteger.ONE.shiftLeft(-r).divide(pow);
+            }
+            else if (r < 0) {
+                beta = pow.shiftLeft(-r);
+            }
+            else {
+                beta = pow.shiftRight(r);
+            }
+            BigInteger gk = beta.add(BigInteger.ONE);
+            int i = (k - K_MIN) << 1;
+            g[i] = gk.shiftRight(63).longValue();
+            g[i + 1] = gk.longValue() & MASK_63;
+        }
+        return g;
+    }
+}
@@ -24,15 +24,18 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -90,16 +93,29 @@ public class JSONArray {
 
 
     /**
-     * The arrayList where the JSONArray's properties are kept.
+     * The list where the JSONArray's elements are kept.  Arrays of numbers
+     * are held without boxing, see ValueList.  Replaced by a frozen list
+     * when the array is frozen.
      */
-    private final ArrayList<Object> myArrayList;
+    private ValueList myArrayList;
+
+    /**
+     * The indexes made by index, kept up to date as elements change.
+     * Null until the first one is made.
+     */
+    private JSONArrayIndex[] indexes;
 
 
     /**
      * Construct an empty JSONArray.
      */
     public JSONArray() {
-        this.myArrayList = new ArrayList<Object>();
+        this.myArrayList = new ValueList();
+    }
+
+
+    private JSONArray(ValueList list) {
+        this.myArrayList = list;
     }
 
     /**
@@ -108,8 +124,13 @@ public class JSONArray {
      */
     public static JSONArray readFromFile(File inFile) throws Exception {
         FileInputStream fis = new FileInputStream(inFile);
-        JSONTokener jt = new JSONTokener(fis);
-        return new JSONArray(jt);
+        try {
+            JSONTokener jt = new UTF8JSONTokener(fis);
+            return new JSONArray(jt);
+        }
+        finally {
+            fis.close();
+        }
     }
     public void writeToFile(File outFile) throws Exception {
         File folder = outFile.getParentFile();
@@ -118,9 +139,12 @@ public class JSONArray {
             tempFile.delete();
         }
         FileOutputStream fos = new FileOutputStream(tempFile);
-        OutputStreamWriter osw = new OutputStreamWriter(fos, "UTF-8");
-        this.write(osw,2,0);
-        osw.close();
+        try {
+            this.write(fos,2,0);
+        }
+        finally {
+            fos.close();
+        }
         if (outFile.exists()) {
             outFile.delete();
         }
@@ -182,7 +206,7 @@ public class JSONArray {
      * @param collection     A Collection.
      */
     public JSONArray(Collection<Object> collection) {
-        this.myArrayList = new ArrayList<Object>();
+        this.myArrayList = new ValueList();
         if (collection != null) {
             Iterator<Object> iter = collection.iterator();
             while (iter.hasNext()) {
@@ -193,11 +217,24 @@ public class JSONArray {
 
 
     /**
-     * Construct a JSONArray from an array
+     * Construct a JSONArray from an array.  An int, long or double array
+     * is copied straight into the unboxed form.
      * @throws SimpleException If not an array.
      */
     public JSONArray(Object array) {
-        this();
+        if (array instanceof int[]) {
+            this.myArrayList = new ValueList((int[]) array);
+            return;
+        }
+        if (array instanceof long[]) {
+            this.myArrayList = new ValueList((long[]) array);
+            return;
+        }
+        if (array instanceof double[]) {
+            this.myArrayList = new ValueList((double[]) array);
+            return;
+        }
+        this.myArrayList = new ValueList();
         if (array.getClass().isArray()) {
             int length = Array.getLength(array);
             for (int i = 0; i < length; i += 1) {
@@ -264,6 +301,9 @@ public class JSONArray {
      *  be converted to a number.
      */
     public double getDouble(int index) {
+        if (index >= 0 && index < this.myArrayList.size() && this.myArrayList.isPrimitive()) {
+            return this.myArrayList.doubleAt(index);
+        }
         Object object = this.get(index);
         try {
             return object instanceof Number
@@ -283,6 +323,9 @@ public class JSONArray {
      * @throws   SimpleException If the key is not found or if the value is not a number.
      */
     public int getInt(int index) {
+        if (index >= 0 && index < this.myArrayList.size() && this.myArrayList.isPrimitive()) {
+            return this.myArrayList.intAt(index);
+        }
         Object object = this.get(index);
         try {
             return object instanceof Number
@@ -354,6 +397,9 @@ public class JSONArray {
      *  be converted to a number.
      */
     public long getLong(int index) {
+        if (index >= 0 && index < this.myArrayList.size() && this.myArrayList.isPrimitive()) {
+            return this.myArrayList.longAt(index);
+        }
         Object object = this.get(index);
         try {
             return object instanceof Number
@@ -365,6 +411,61 @@ public class JSONArray {
     }
 
 
+    /**
+     * Get all the elements as doubles, in one call.  An array of numbers is
+     * held without boxing, and is copied straight out.  Otherwise each element
+     * is converted the same way as getDouble.
+     *
+     * @throws SimpleException If any element is not a number.
+     */
+    public double[] toDoubleArray() {
+        double[] res = this.myArrayList.primitiveDoubles();
+        if (res == null) {
+            res = new double[this.length()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = this.getDouble(i);
+            }
+        }
+        return res;
+    }
+
+
+    /**
+     * Get all the elements as longs, in one call.  Otherwise the same as
+     * toDoubleArray, with each element converted the same way as getLong.
+     *
+     * @throws SimpleException If any element is not a number.
+     */
+    public long[] toLongArray() {
+        long[] res = this.myArrayList.primitiveLongs();
+        if (res == null) {
+            res = new long[this.length()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = this.getLong(i);
+            }
+        }
+        return res;
+    }
+
+
+    /**
+     * Get all the elements as ints, in one call.  Otherwise the same as
+     * toDoubleArray, with each element converted the same way as getInt.
+     *
+     * @throws SimpleException If any element is not a number.
+     */
+    public int[] toIntArray() {
+        int[] res = this.myArrayList.primitiveInts();
+        if (res == null) {
+            res = new int[this.length()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = this.getInt(i);
+            }
+        }
+        return res;
+    }
+
+
     /**
      * Get the string associated with an index.
      * @param index The index must be between 0 and length() - 1.
@@ -702,6 +803,12 @@ public class JSONArray {
      */
     public JSONArray put(Object value) {
         this.myArrayList.add(value);
+        if (this.indexes != null) {
+            int pos = this.myArrayList.size() - 1;
+            for (JSONArrayIndex index : this.indexes) {
+                index.added(pos, value);
+            }
+        }
         return this;
     }
 
@@ -813,7 +920,12 @@ public class JSONArray {
         }
         JSONObject.testValidity(value);
         if (index < this.length()) {
-            this.myArrayList.set(index, value);
+            Object old = this.myArrayList.set(index, value);
+            if (this.indexes != null) {
+                for (JSONArrayIndex ix : this.indexes) {
+                    ix.replaced(index, old, value);
+                }
+            }
         } else {
             while (index != this.length()) {
                 this.put(JSONObject.NULL);
@@ -833,6 +945,7 @@ public class JSONArray {
     public Object remove(int index) {
         Object o = this.opt(index);
         this.myArrayList.remove(index);
+        this.invalidateIndexes();
         return o;
     }
 
@@ -1008,10 +1121,13 @@ public class JSONArray {
      * @throws SimpleException
      */
     public String toString(int indentFactor) {
-        StringWriter sw = new StringWriter();
-        synchronized (sw.getBuffer()) {
-            write(sw, indentFactor, 0);
-            return sw.toString();
+        JSONOutput out = JSONOutput.forString();
+        try {
+            write(out, indentFactor, 0);
+            return out.toString();
+        }
+        finally {
+            out.release();
         }
     }
 
@@ -1050,38 +1166,420 @@ public class JSONArray {
      * @throws SimpleException
      */
     public Writer write(Writer writer, int indentFactor, int indent) {
+        return this.write(writer, indentFactor, indent, true);
+    }
+
+    /**
+     * Write the contents of the JSONArray as JSON text to a writer, choosing
+     * whether the members of objects within it have their keys sorted,
+     * see JSONObject.write(Writer, int, int, boolean).  Like that method,
+     * the text is buffered and the writer is not flushed.
+     */
+    public Writer write(Writer writer, int indentFactor, int indent, boolean sortKeys) {
+        if (!(writer instanceof JSONOutput)) {
+            JSONOutput out = JSONOutput.over(writer);
+            try {
+                this.write(out, indentFactor, indent, sortKeys);
+                out.flushBuffer();
+            } catch (IOException e) {
+                throw new SimpleException("Difficulty writing the JSON object at indent %d", e, indent);
+            } finally {
+                out.release();
+            }
+            return writer;
+        }
+        JSONOutput out = (JSONOutput) writer;
         try {
-            boolean commanate = false;
-            int length = this.length();
-            writer.write('[');
-
-            if (length == 1) {
-                JSONObject.writeValue(writer, this.myArrayList.get(0),
-                        indentFactor, indent);
-            } else if (length != 0) {
-                final int newindent = indent + indentFactor;
-
-                for (int i = 0; i < length; i += 1) {
-                    if (commanate) {
-                        writer.write(',');
-                    }
-                    if (indentFactor > 0) {
-                        writer.write('\n');
-                    }
-                    JSONObject.indent(writer, newindent);
-                    JSONObject.writeValue(writer, this.myArrayList.get(i),
-                            indentFactor, newindent);
-                    commanate = true;
+            OutputCache cache = this.myArrayList.outputCache();
+            byte[] bytes = null;
+            if (cache != null && out.isUtf8() && !out.isCanonical()) {
+                bytes = this.cachedBytes(cache, indentFactor, indent, sortKeys);
+            }
+            if (bytes != null) {
+                out.writeBytes(bytes);
+            }
+            else {
+                this.writeElements(out, indentFactor, indent, sortKeys);
+            }
+            return writer;
+        } catch (IOException e) {
+           throw new SimpleException("Difficulty writing the JSON object at indent %d", e, indent);
+        }
+    }
+
+    /**
+     * The bytes this frozen array writes in a form, written once and then kept.
+     * @return the bytes, or null if the form is too short to be worth keeping
+     */
+    private byte[] cachedBytes(OutputCache cache, int indentFactor, int indent, boolean sortKeys) throws IOException {
+        byte[] bytes = cache.get(indentFactor, indent, sortKeys);
+        if (bytes == OutputCache.TOO_SMALL) {
+            return null;
+        }
+        if (bytes == null) {
+            ByteArrayOutputStream captured = new ByteArrayOutputStream();
+            JSONOutput capture = JSONOutput.over(captured);
+            try {
+                this.writeElements(capture, indentFactor, indent, sortKeys);
+                capture.flushBuffer();
+            } finally {
+                capture.release();
+            }
+            bytes = captured.toByteArray();
+            cache.put(indentFactor, indent, sortKeys, bytes);
+        }
+        return bytes;
+    }
+
+    private void writeElements(JSONOutput out, int indentFactor, int indent, boolean sortKeys) throws IOException {
+        boolean commanate = false;
+        int length = this.length();
+        out.write('[');
+
+        if (length == 1) {
+            JSONObject.writeValue(out, this.myArrayList.get(0),
+                    indentFactor, indent, sortKeys);
+        } else if (length != 0) {
+            final int newindent = indent + indentFactor;
+
+            for (int i = 0; i < length; i += 1) {
+                if (commanate) {
+                    out.write(',');
                 }
                 if (indentFactor > 0) {
-                    writer.write('\n');
+                    out.write('\n');
                 }
-                JSONObject.indent(writer, indent);
+                JSONObject.indent(out, newindent);
+                JSONObject.writeValue(out, this.myArrayList.get(i),
+                        indentFactor, newindent, sortKeys);
+                commanate = true;
             }
-            writer.write(']');
-            return writer;
+            if (indentFactor > 0) {
+                out.write('\n');
+            }
+            JSONObject.indent(out, indent);
+        }
+        out.write(']');
+    }
+
+
+
+    /**
+     * Write the contents of the JSONArray as JSON text to a stream, encoded as
+     * UTF-8.  The characters are encoded as they are written, into a buffer
+     * that is handed to the stream in large blocks, so this is faster than
+     * writing to an OutputStreamWriter, and there is no need to wrap the
+     * stream in a BufferedOutputStream.  The bytes are the same as writing
+     * to an OutputStreamWriter for UTF-8 would produce.  The stream is not
+     * flushed or closed.
+     *
+     * @param sortKeys true to write keys in sorted order at every level,
+     *        false to write them in the order held
+     * @return The stream that was passed in
+     * @throws SimpleException if the stream fails
+     */
+    public OutputStream write(OutputStream os, int indentFactor, int indent, boolean sortKeys) {
+        JSONOutput out = JSONOutput.over(os);
+        try {
+            this.write(out, indentFactor, indent, sortKeys);
+            out.flushBuffer();
         } catch (IOException e) {
-           throw new SimpleException("Difficulty writing the JSON object at indent %d", e, indent);
+            throw new SimpleException("Difficulty writing the JSON object at indent %d", e, indent);
+        } finally {
+            out.release();
+        }
+        return os;
+    }
+
+    /**
+     * Write the contents of the JSONArray as UTF-8 encoded JSON text to a
+     * stream, with keys in sorted order, see write(OutputStream, int, int, boolean).
+     */
+    public OutputStream write(OutputStream os, int indentFactor, int indent) {
+        return this.write(os, indentFactor, indent, true);
+    }
+
+    /**
+     * Write the contents of the JSONArray as UTF-8 encoded JSON text into a
+     * byte buffer, starting at its position, which is left after the last
+     * byte written.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room,
+     *         in which case some of the text will have been put into it
+     */
+    public ByteBuffer write(ByteBuffer dest, int indentFactor) {
+        JSONOutput out = JSONOutput.over(dest);
+        try {
+            this.write(out, indentFactor, 0, true);
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Difficulty writing the JSON object at indent %d", e, 0);
+        } finally {
+            out.release();
+        }
+        return dest;
+    }
+
+    /**
+     * Write the canonical form of this array to a stream, encoded as UTF-8,
+     * see JSONObject.writeCanonical.
+     * @return The stream that was passed in
+     * @throws SimpleException if the stream fails
+     */
+    public OutputStream writeCanonical(OutputStream os) {
+        JSONOutput out = JSONOutput.over(os).canonical();
+        try {
+            this.write(out, 0, 0, true);
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Unable to write the canonical form of a JSONArray", e);
+        } finally {
+            out.release();
+        }
+        return os;
+    }
+
+    /**
+     * @return the canonical form of this array, see JSONObject.writeCanonical
+     */
+    public String toCanonicalString() {
+        JSONOutput out = JSONOutput.forString().canonical();
+        try {
+            this.write(out, 0, 0, true);
+            return out.toString();
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Compute a digest of the canonical form of this array without holding
+     * the text, see JSONObject.digest.
+     * @param algorithm the name of any MessageDigest algorithm, like "SHA-256"
+     * @return the digest
+     * @throws SimpleException if the algorithm is not available
+     */
+    public byte[] digest(String algorithm) {
+        MessageDigest md = JSONObject.newDigest(algorithm);
+        JSONOutput out = JSONOutput.over(md).canonical();
+        try {
+            this.write(out, 0, 0, true);
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Unable to compute a %s digest of a JSONArray", e, algorithm);
+        } finally {
+            out.release();
+        }
+        return md.digest();
+    }
+
+    /**
+     * A SHA-256 hash of the content of this array, as 64 hex digits, which
+     * is kept once made if the array is frozen.  See JSONObject.contentHash.
+     * @return the hash as lowercase hex
+     */
+    public String contentHash() {
+        return JSONObject.hex(this.structuralHash());
+    }
+
+    byte[] structuralHash() {
+        byte[] hash = this.myArrayList.keptHash();
+        if (hash != null) {
+            return hash;
+        }
+        int length = this.myArrayList.size();
+        Object[] values = this.myArrayList.toArray();
+        byte[][] childHashes = new byte[length][];
+        if (!this.myArrayList.isPrimitive()) {
+            for (int i = 0; i < length; i++) {
+                childHashes[i] = JSONObject.hashOf(values[i]);
+            }
+        }
+        MessageDigest md = JSONObject.newDigest("SHA-256");
+        JSONOutput out = JSONOutput.over(md).canonical();
+        try {
+            out.write('[');
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                JSONObject.writeHashedValue(out, values[i], childHashes[i]);
+            }
+            out.write(']');
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Unable to hash a JSONArray", e);
+        } finally {
+            out.release();
+        }
+        hash = md.digest();
+        this.myArrayList.keepHash(hash);
+        return hash;
+    }
+
+    /**
+     * Make this array, and every object and array within it, unchangeable.
+     * See JSONObject.freeze for how frozen trees are shared and changed.
+     * @return this array, now frozen
+     */
+    public JSONArray freeze() {
+        if (this.myArrayList.isFrozen()) {
+            return this;
+        }
+        if (!this.myArrayList.isPrimitive()) {
+            for (int i = 0; i < this.myArrayList.size(); i++) {
+                JSONObject.freezeValue(this.myArrayList.get(i));
+            }
+        }
+        this.myArrayList = this.myArrayList.frozen();
+        return this;
+    }
+
+
+    /**
+     * @return true if this array has been frozen and can not be changed
+     */
+    public boolean isFrozen() {
+        return this.myArrayList.isFrozen();
+    }
+
+
+    /**
+     * Freeze this array, and keep the UTF-8 bytes that it, and every object
+     * and array within it, writes to an OutputStream or ByteBuffer, so that
+     * writing it again is a copy of those bytes.  See JSONObject.cacheOutput.
+     *
+     * @return this array, now frozen
+     */
+    public JSONArray cacheOutput() {
+        this.freeze();
+        if (this.myArrayList.outputCache() == null) {
+            if (!this.myArrayList.isPrimitive()) {
+                for (int i = 0; i < this.myArrayList.size(); i++) {
+                    JSONObject.cacheValueOutput(this.myArrayList.get(i));
+                }
+            }
+            this.myArrayList.keepOutput();
+        }
+        return this;
+    }
+
+
+    /**
+     * Make a new array, that can be changed, holding the same elements as this
+     * one.  Only this array is copied: the objects and arrays within it are
+     * the same ones, and if this array was frozen they are still frozen.  Use
+     * editJSONObject and editJSONArray to change them.
+     */
+    public JSONArray mutableCopy() {
+        return new JSONArray(this.myArrayList.copy());
+    }
+
+
+    /**
+     * Get the JSONObject at an index so that it can be changed.  If it is
+     * frozen, it is replaced in this array by a mutableCopy of it, and that
+     * is returned.  The original is not changed.
+     *
+     * @throws SimpleException if there is no JSONObject at the index,
+     *         or if this array is frozen
+     */
+    public JSONObject editJSONObject(int index) {
+        JSONObject child = this.getJSONObject(index);
+        if (child.isFrozen()) {
+            child = child.mutableCopy();
+            this.put(index, child);
+        }
+        return child;
+    }
+
+
+    /**
+     * Get the JSONArray at an index so that it can be changed.  If it is
+     * frozen, it is replaced in this array by a mutableCopy of it, and that
+     * is returned.  The original is not changed.
+     *
+     * @throws SimpleException if there is no JSONArray at the index,
+     *         or if this array is frozen
+     */
+    public JSONArray editJSONArray(int index) {
+        JSONArray child = this.getJSONArray(index);
+        if (child.isFrozen()) {
+            child = child.mutableCopy();
+            this.put(index, child);
+        }
+        return child;
+    }
+
+
+    /**
+     * <p>Get an index of the JSONObjects in this array by the value of one of
+     * their members, so that they can be found without scanning the array.
+     * The index is made the first time this is called for a member, and from
+     * then on it is kept up to date through put and remove on this array, so
+     * call this again whenever it is needed rather than keeping it.</p>
+     *
+     * <pre>
+     * JSONObject user = users.index("id").find(userId);
+     * </pre>
+     *
+     * <p>An index on a frozen array never changes, so it can be used by many
+     * threads at once, as long as it is made before the array is shared.
+     * See JSONArrayIndex for the details.</p>
+     */
+    public JSONArrayIndex index(String field) {
+        if (field == null) {
+            throw new SimpleException("An index of a JSONArray needs the name of a member to index by.");
+        }
+        if (this.indexes != null) {
+            for (JSONArrayIndex index : this.indexes) {
+                if (index.getField().equals(field)) {
+                    return index;
+                }
+            }
+        }
+        JSONArrayIndex index = new JSONArrayIndex(this, field);
+        if (this.indexes == null) {
+            this.indexes = new JSONArrayIndex[] {index};
+        }
+        else {
+            JSONArrayIndex[] grown = Arrays.copyOf(this.indexes, this.indexes.length + 1);
+            grown[this.indexes.length] = index;
+            this.indexes = grown;
+        }
+        return index;
+    }
+
+
+    /**
+     * Stop maintaining the index for a member, if there is one.
+     */
+    public void dropIndex(String field) {
+        if (this.indexes == null) {
+            return;
+        }
+        for (int i = 0; i < this.indexes.length; i++) {
+            if (this.indexes[i].getField().equals(field)) {
+                if (this.indexes.length == 1) {
+                    this.indexes = null;
+                }
+                else {
+                    JSONArrayIndex[] shrunk = new JSONArrayIndex[this.indexes.length - 1];
+                    System.arraycopy(this.indexes, 0, shrunk, 0, i);
+                    System.arraycopy(this.indexes, i + 1, shrunk, i, shrunk.length - i);
+                    this.indexes = shrunk;
+                }
+                return;
+            }
+        }
+    }
+
+
+    private void invalidateIndexes() {
+        if (this.indexes != null) {
+            for (JSONArrayIndex index : this.indexes) {
+                index.invalidate();
+            }
         }
     }
 
@@ -1096,6 +1594,7 @@ public class JSONArray {
      */
     public void sortMembers(Comparator<Object> comp) {
         Collections.sort(myArrayList, comp);
+        this.invalidateIndexes();
     }
 
     /**
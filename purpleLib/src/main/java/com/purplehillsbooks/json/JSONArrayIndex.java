@@ -0,0 +1,283 @@
+package com.purplehillsbooks.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>An index of the JSONObjects in a JSONArray by the value of one of their
+ * members, usually an id, so that an element can be found without scanning
+ * the array.  Get one from JSONArray.index, which makes it the first time and
+ * then keeps it up to date as elements are put into and removed from the
+ * array.</p>
+ *
+ * <pre>
+ * JSONArrayIndex byId = users.index("id");
+ * JSONObject user = byId.find(userId);
+ * </pre>
+ *
+ * <p>The key of an element is the value of the member as a string, so a
+ * member holding the number 5 is found with "5".  Elements that are not
+ * objects, or that have no such member, or where it is an object or array,
+ * are not in the index.  When more than one element has the same key, all
+ * of them are found, in the order they are in the array.</p>
+ *
+ * <p>Appending and replacing elements updates the index directly.  Removing
+ * or sorting elements moves the positions of others, so the index is then
+ * made again from scratch the next time it is used.  Changing the key member
+ * of an element that is already in the array is not seen by the index: an
+ * element found that way is detected and the index remade, but an element
+ * that should now be found by the new value will not be until reindex is
+ * called, or the element is put into the array again.</p>
+ */
+public class JSONArrayIndex {
+
+    private final JSONArray array;
+    private final String    field;
+
+    /**
+     * The positions of the elements with each key, in ascending order.  The
+     * first entry of each array is the number of positions, which follow it,
+     * and the rest is room to grow, so that adding a position past the last
+     * one does not copy the array.  Null when it has to be made again.
+     */
+    private HashMap<String, int[]> positions;
+
+
+    JSONArrayIndex(JSONArray array, String field) {
+        this.array = array;
+        this.field = field;
+        this.rebuild();
+    }
+
+
+    /**
+     * @return the name of the member that the elements are indexed by
+     */
+    public String getField() {
+        return this.field;
+    }
+
+
+    /**
+     * @return the first element with the key value, or null if there is none
+     */
+    public JSONObject find(String value) {
+        int pos = this.indexOf(value);
+        return pos < 0 ? null : (JSONObject) this.array.opt(pos);
+    }
+
+
+    /**
+     * @return the last element with the key value, or null if there is none
+     */
+    public JSONObject findLast(String value) {
+        int pos = this.lastIndexOf(value);
+        return pos < 0 ? null : (JSONObject) this.array.opt(pos);
+    }
+
+
+    /**
+     * @return all the elements with the key value, in the order of the array
+     */
+    public List<JSONObject> findAll(String value) {
+        int[] at = this.lookup(value);
+        if (at == null) {
+            return Collections.emptyList();
+        }
+        int n = at[0];
+        List<JSONObject> res = new ArrayList<JSONObject>(n);
+        for (int i = 1; i <= n; i++) {
+            res.add((JSONObject) this.array.opt(at[i]));
+        }
+        return res;
+    }
+
+
+    /**
+     * @return the position of the first element with the key value, or -1
+     */
+    public int indexOf(String value) {
+        int[] at = this.lookup(value);
+        return at == null ? -1 : at[1];
+    }
+
+
+    /**
+     * @return the position of the last element with the key value, or -1
+     */
+    public int lastIndexOf(String value) {
+        int[] at = this.lookup(value);
+        return at == null ? -1 : at[at[0]];
+    }
+
+
+    /**
+     * @return true if any element has the key value
+     */
+    public boolean contains(String value) {
+        return this.lookup(value) != null;
+    }
+
+
+    /**
+     * @return all the key values, in no particular order.  The set can
+     *         not be changed, and is only valid until the array is changed.
+     */
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(this.positions().keySet());
+    }
+
+
+    /**
+     * Make the index again from the elements of the array.  Needed only when
+     * the key member of an element in the array has been changed in place.
+     */
+    public void reindex() {
+        this.positions = null;
+    }
+
+
+    /**
+     * The positions for a key, checking that the elements still have that
+     * key, and remaking the index if any of them have been changed in place.
+     */
+    private int[] lookup(String value) {
+        if (value == null) {
+            return null;
+        }
+        int[] at = this.positions().get(value);
+        if (at != null) {
+            for (int i = 1; i <= at[0]; i++) {
+                if (!value.equals(keyOf(this.array.opt(at[i]), this.field))) {
+                    this.rebuild();
+                    return this.positions.get(value);
+                }
+            }
+        }
+        return at;
+    }
+
+
+    private HashMap<String, int[]> positions() {
+        if (this.positions == null) {
+            this.rebuild();
+        }
+        return this.positions;
+    }
+
+
+    private void rebuild() {
+        HashMap<String, int[]> map = new HashMap<String, int[]>(Math.max(16, this.array.length() * 4 / 3 + 1));
+        int last = this.array.length();
+        for (int i = 0; i < last; i++) {
+            String key = keyOf(this.array.opt(i), this.field);
+            if (key != null) {
+                addPosition(map, key, i);
+            }
+        }
+        this.positions = map;
+    }
+
+
+    /**
+     * Called by the array after an element is appended.
+     */
+    void added(int pos, Object element) {
+        if (this.positions != null) {
+            String key = keyOf(element, this.field);
+            if (key != null) {
+                addPosition(this.positions, key, pos);
+            }
+        }
+    }
+
+
+    /**
+     * Called by the array after the element at a position is replaced.
+     */
+    void replaced(int pos, Object oldElement, Object element) {
+        if (this.positions == null) {
+            return;
+        }
+        String oldKey = keyOf(oldElement, this.field);
+        if (oldKey != null && !removePosition(this.positions, oldKey, pos)) {
+            //the old element was changed after it was indexed
+            this.positions = null;
+            return;
+        }
+        String key = keyOf(element, this.field);
+        if (key != null) {
+            addPosition(this.positions, key, pos);
+        }
+    }
+
+
+    /**
+     * Called by the array after elements are removed or moved.
+     */
+    void invalidate() {
+        this.positions = null;
+    }
+
+
+    static String keyOf(Object element, String field) {
+        if (element instanceof JSONObject) {
+            Object value = ((JSONObject) element).opt(field);
+            if (value instanceof String) {
+                return (String) value;
+            }
+            if (value instanceof Number || value instanceof Boolean) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+
+
+    private static void addPosition(HashMap<String, int[]> map, String key, int pos) {
+        int[] at = map.get(key);
+        if (at == null) {
+            map.put(key, new int[] {1, pos});
+            return;
+        }
+        int n = at[0];
+        if (n + 1 == at.length) {
+            at = Arrays.copyOf(at, n + 1 + Math.max(n, 2));
+            map.put(key, at);
+        }
+        //only a replaced element can go before the last one
+        int i = n + 1;
+        while (i > 1 && at[i - 1] > pos) {
+            at[i] = at[i - 1];
+            i--;
+        }
+        at[i] = pos;
+        at[0] = n + 1;
+    }
+
+
+    private static boolean removePosition(HashMap<String, int[]> map, String key, int pos) {
+        int[] at = map.get(key);
+        if (at == null) {
+            return false;
+        }
+        int n = at[0];
+        for (int i = 1; i <= n; i++) {
+            if (at[i] == pos) {
+                if (n == 1) {
+                    map.remove(key);
+                }
+                else {
+                    System.arraycopy(at, i + 1, at, i, n - i);
+                    at[0] = n - 1;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
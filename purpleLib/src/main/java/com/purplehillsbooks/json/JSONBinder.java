@@ -0,0 +1,802 @@
+package com.purplehillsbooks.json;
+
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Fills in plain Java objects from JSON, the reverse of JSONObject(Object bean).
+ * Each member of a JSON object is set into the Java object through a setter
+ * method (setName for "name") or a public field of the same name.  On a JVM
+ * that has records, a record is made with its canonical constructor, each
+ * component taken from the member of the same name.</p>
+ *
+ * <pre>
+ * Customer cust = JSONBinder.bind(jo, Customer.class);
+ * List&lt;Order&gt; orders = JSONBinder.bindList(jo.getJSONArray("orders"), Order.class);
+ *
+ * //or straight from the input, without building a JSONObject tree at all
+ * Customer cust = JSONBinder.bind(new UTF8JSONTokener(inputStream), Customer.class);
+ * </pre>
+ *
+ * <p>Values are converted to the declared type of the setter, field or
+ * component: String, the primitives and their wrappers, BigDecimal,
+ * BigInteger, enums by name, JSONObject and JSONArray as they are, arrays,
+ * Lists, Sets and Collections of any of these (using the declared element
+ * type), Maps with String keys, and other classes that are bound in turn.
+ * A number in a string is accepted for a numeric member.  Members that have
+ * nowhere to go are ignored, and setters and fields for missing members are
+ * left alone.  A null is never set into a primitive.</p>
+ *
+ * <p>Finding the setters, fields and constructors of a class takes reflection,
+ * so it is done once for each class, the first time it is bound, and kept
+ * with the class from then on.  The class needs a constructor without any
+ * parameters, which does not have to be public.  Setters and fields are
+ * called through method handles, with the same access as code in this
+ * package.</p>
+ */
+public class JSONBinder {
+
+    private static final ClassValue<Codec> codecs = new ClassValue<Codec>() {
+        @Override
+        protected Codec computeValue(Class<?> type) {
+            return new Codec(type);
+        }
+    };
+
+
+    /**
+     * Make an object of the specified class from the members of a JSONObject.
+     * @throws SimpleException if a value can not be converted to the type it is bound to
+     */
+    public static <T> T bind(JSONObject source, Class<T> type) {
+        return type.cast(convert(source, type));
+    }
+
+
+    /**
+     * Make a list of objects of the specified class from the elements of a JSONArray.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> bindList(JSONArray source, Class<T> type) {
+        List<T> res = new ArrayList<T>(source.length());
+        for (int i = 0; i < source.length(); i++) {
+            try {
+                res.add((T) convert(source.opt(i), type));
+            }
+            catch (Exception e) {
+                throw new SimpleException("Unable to bind element %d of array", e, i);
+            }
+        }
+        return res;
+    }
+
+
+    /**
+     * Make an object of the specified class by reading the next JSON object
+     * from the tokener.  No JSONObject is made for the object, nor for any
+     * object or array within it that is bound to a class, a collection or an
+     * array.  Members that are not bound are skipped without being built.
+     */
+    public static <T> T bind(JSONTokener x, Class<T> type) {
+        return type.cast(read(x, type));
+    }
+
+
+    /**
+     * Make an object of the specified class by reading a stream of UTF-8
+     * encoded JSON, without building a JSONObject tree.  The stream is not closed.
+     */
+    public static <T> T bind(InputStream is, Class<T> type) {
+        return bind(new UTF8JSONTokener(is), type);
+    }
+
+
+    /**
+     * Make a list of objects of the specified class by reading the next JSON
+     * array from the tokener, without building a JSONArray.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> bindList(JSONTokener x, Class<T> type) {
+        return (List<T>) readCollection(x, new ArrayList<Object>(), type);
+    }
+
+
+    /**
+     * Convert a value from a JSON tree to the type specified.
+     * @return the converted value, or null for a null or missing value
+     */
+    static Object convert(Object value, Type type) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            return null;
+        }
+        Class<?> raw = rawClass(type);
+        if (raw == Object.class || raw.isInstance(value) && !(value instanceof Collection) && !(value instanceof Map)) {
+            return value;
+        }
+        if (value instanceof JSONObject) {
+            JSONObject jo = (JSONObject) value;
+            if (Map.class.isAssignableFrom(raw)) {
+                Map<String, Object> map = newMap(raw);
+                Type valueType = typeArgument(type, 1);
+                for (String key : jo.keySet()) {
+                    map.put(key, convert(jo.opt(key), valueType));
+                }
+                return map;
+            }
+            if (isBindable(raw)) {
+                return codecs.get(raw).fromTree(jo);
+            }
+        }
+        else if (value instanceof JSONArray) {
+            JSONArray ja = (JSONArray) value;
+            if (raw.isArray()) {
+                Type componentType = componentType(type);
+                Object array = Array.newInstance(raw.getComponentType(), ja.length());
+                for (int i = 0; i < ja.length(); i++) {
+                    Object element = convert(ja.opt(i), componentType);
+                    if (element != null) {
+                        Array.set(array, i, element);
+                    }
+                }
+                return array;
+            }
+            if (Collection.class.isAssignableFrom(raw)) {
+                Collection<Object> coll = newCollection(raw);
+                Type elementType = typeArgument(type, 0);
+                for (int i = 0; i < ja.length(); i++) {
+                    coll.add(convert(ja.opt(i), elementType));
+                }
+                return coll;
+            }
+        }
+        else {
+            Object res = convertScalar(value, raw);
+            if (res != null) {
+                return res;
+            }
+        }
+        throw new SimpleException("Unable to bind a %s to a %s", value.getClass().getSimpleName(), raw.getName());
+    }
+
+
+    /**
+     * Read the next value from the tokener as the type specified.
+     * @return the value, or null for a JSON null
+     */
+    static Object read(JSONTokener x, Type type) {
+        Class<?> raw = rawClass(type);
+        char c = x.nextClean();
+        x.back();
+        if (c == '{') {
+            if (Map.class.isAssignableFrom(raw)) {
+                return readMap(x, newMap(raw), typeArgument(type, 1));
+            }
+            if (isBindable(raw)) {
+                return codecs.get(raw).fromStream(x);
+            }
+        }
+        else if (c == '[') {
+            if (raw.isArray()) {
+                Type componentType = componentType(type);
+                List<Object> elements = readCollection(x, new ArrayList<Object>(), componentType);
+                Object array = Array.newInstance(raw.getComponentType(), elements.size());
+                for (int i = 0; i < elements.size(); i++) {
+                    Object element = elements.get(i);
+                    if (element != null) {
+                        Array.set(array, i, element);
+                    }
+                }
+                return array;
+            }
+            if (Collection.class.isAssignableFrom(raw)) {
+                return readCollection(x, newCollection(raw), typeArgument(type, 0));
+            }
+        }
+        return convert(x.nextValue(), type);
+    }
+
+
+    private static <C extends Collection<Object>> C readCollection(JSONTokener x, C coll, Type elementType) {
+        if (x.nextClean() != '[') {
+            throw x.syntaxError("A JSONArray text must start with '['");
+        }
+        if (x.nextClean() == ']') {
+            return coll;
+        }
+        x.back();
+        for (;;) {
+            if (x.nextClean() == ',') {
+                x.back();
+                coll.add(null);
+            }
+            else {
+                x.back();
+                coll.add(read(x, elementType));
+            }
+            switch (x.nextClean()) {
+            case ';':
+            case ',':
+                if (x.nextClean() == ']') {
+                    return coll;
+                }
+                x.back();
+                break;
+            case ']':
+                return coll;
+            default:
+                throw x.syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+
+
+    private static Map<String, Object> readMap(JSONTokener x, Map<String, Object> map, Type valueType) {
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        for (;;) {
+            String key = nextMemberKey(x);
+            if (key == null) {
+                return map;
+            }
+            map.put(key, read(x, valueType));
+            if (!nextMember(x)) {
+                return map;
+            }
+        }
+    }
+
+
+    /**
+     * Read the key of the next member and the ':' after it.
+     * @return the key, or null at the end of the object
+     */
+    static String nextMemberKey(JSONTokener x) {
+        char c = x.nextClean();
+        switch (c) {
+        case 0:
+            throw x.syntaxError("A JSONObject text must end with '}'");
+        case '}':
+            return null;
+        default:
+            x.back();
+        }
+        String key = x.nextKey();
+        c = x.nextClean();
+        if (c == '=') {
+            if (x.next() != '>') {
+                x.back();
+            }
+        } else if (c != ':') {
+            throw x.syntaxError("Expected a ':' after a key");
+        }
+        return key;
+    }
+
+
+    /**
+     * Read the separator after a member.
+     * @return true if there is another member, false at the end of the object
+     */
+    static boolean nextMember(JSONTokener x) {
+        switch (x.nextClean()) {
+        case ';':
+        case ',':
+            if (x.nextClean() == '}') {
+                return false;
+            }
+            x.back();
+            return true;
+        case '}':
+            return false;
+        default:
+            throw x.syntaxError("Expected a ',' or '}'");
+        }
+    }
+
+
+    /**
+     * Convert a string, number or boolean.
+     * @return the value as the type, or null if it can not be converted
+     */
+    private static Object convertScalar(Object value, Class<?> raw) {
+        if (raw == String.class) {
+            return value.toString();
+        }
+        if (raw == boolean.class || raw == Boolean.class) {
+            if (value instanceof Boolean) {
+                return value;
+            }
+            if ("true".equalsIgnoreCase(value.toString())) {
+                return Boolean.TRUE;
+            }
+            if ("false".equalsIgnoreCase(value.toString())) {
+                return Boolean.FALSE;
+            }
+            return null;
+        }
+        if (raw.isEnum()) {
+            for (Object constant : raw.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equals(value.toString())) {
+                    return constant;
+                }
+            }
+            throw new SimpleException("There is no %s named (%s)", raw.getName(), value.toString());
+        }
+        if (raw == char.class || raw == Character.class) {
+            String s = value.toString();
+            return s.length() == 1 ? Character.valueOf(s.charAt(0)) : null;
+        }
+        Number n;
+        if (value instanceof Number) {
+            n = (Number) value;
+        }
+        else if (value instanceof String) {
+            try {
+                n = new BigDecimal(((String) value).trim());
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        else {
+            return null;
+        }
+        if (raw == int.class || raw == Integer.class) {
+            return Integer.valueOf((int) wholeValue(n, Integer.MIN_VALUE, Integer.MAX_VALUE, raw));
+        }
+        if (raw == long.class || raw == Long.class) {
+            return Long.valueOf(wholeValue(n, Long.MIN_VALUE, Long.MAX_VALUE, raw));
+        }
+        if (raw == double.class || raw == Double.class) {
+            double d = n.doubleValue();
+            if (Double.isInfinite(d)) {
+                throw new SimpleException("The number %s is too large for a %s", n.toString(), raw.getName());
+            }
+            return Double.valueOf(d);
+        }
+        if (raw == float.class || raw == Float.class) {
+            float f = n.floatValue();
+            if (Float.isInfinite(f)) {
+                throw new SimpleException("The number %s is too large for a %s", n.toString(), raw.getName());
+            }
+            return Float.valueOf(f);
+        }
+        if (raw == short.class || raw == Short.class) {
+            return Short.valueOf((short) wholeValue(n, Short.MIN_VALUE, Short.MAX_VALUE, raw));
+        }
+        if (raw == byte.class || raw == Byte.class) {
+            return Byte.valueOf((byte) wholeValue(n, Byte.MIN_VALUE, Byte.MAX_VALUE, raw));
+        }
+        if (raw == BigDecimal.class) {
+            return n instanceof BigDecimal ? n : new BigDecimal(n.toString());
+        }
+        if (raw == BigInteger.class) {
+            return n instanceof BigInteger ? n : new BigDecimal(n.toString()).toBigInteger();
+        }
+        if (raw == Number.class) {
+            return n;
+        }
+        return null;
+    }
+
+
+    /**
+     * The whole part of a number, as a cast would give it, but a number that
+     * does not fit between min and max is an error instead of being silently
+     * cut down to the low bits.  The max is always one less than -min.
+     */
+    private static long wholeValue(Number n, long min, long max, Class<?> raw) {
+        if (n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte) {
+            long v = n.longValue();
+            if (min <= v && v <= max) {
+                return v;
+            }
+        }
+        else if (n instanceof Double || n instanceof Float) {
+            double d = n.doubleValue();
+            double whole = d < 0 ? Math.ceil(d) : Math.floor(d);
+            //-min as a double is exactly max + 1, even for a long
+            if (whole >= min && whole < -(double) min) {
+                return (long) whole;
+            }
+        }
+        else {
+            BigDecimal bd = n instanceof BigDecimal ? (BigDecimal) n : new BigDecimal(n.toString());
+            BigInteger whole = bd.toBigInteger();
+            if (whole.bitLength() < 64) {
+                long v = whole.longValue();
+                if (min <= v && v <= max) {
+                    return v;
+                }
+            }
+        }
+        throw new SimpleException("The number %s is out of range for a %s", n.toString(), raw.getName());
+    }
+
+
+    /**
+     * @return true for a class that is bound member by member
+     */
+    private static boolean isBindable(Class<?> raw) {
+        return !raw.isPrimitive() && !raw.isArray() && !raw.isEnum() && !raw.isInterface()
+                && !Modifier.isAbstract(raw.getModifiers())
+                && !Collection.class.isAssignableFrom(raw) && !Map.class.isAssignableFrom(raw)
+                && raw != String.class && !Number.class.isAssignableFrom(raw) && raw != Boolean.class
+                && raw != Character.class && raw != JSONObject.class && raw != JSONArray.class;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> newCollection(Class<?> raw) {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            if (raw.isAssignableFrom(ArrayList.class)) {
+                return new ArrayList<Object>();
+            }
+            if (raw.isAssignableFrom(LinkedHashSet.class)) {
+                return new LinkedHashSet<Object>();
+            }
+            throw new SimpleException("Unable to make a collection of type %s", raw.getName());
+        }
+        try {
+            return (Collection<Object>) raw.getDeclaredConstructor().newInstance();
+        }
+        catch (Exception e) {
+            throw new SimpleException("Unable to make a collection of type %s", e, raw.getName());
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> newMap(Class<?> raw) {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())) {
+            if (raw.isAssignableFrom(LinkedHashMap.class)) {
+                return new LinkedHashMap<String, Object>();
+            }
+            throw new SimpleException("Unable to make a map of type %s", raw.getName());
+        }
+        try {
+            return (Map<String, Object>) raw.getDeclaredConstructor().newInstance();
+        }
+        catch (Exception e) {
+            throw new SimpleException("Unable to make a map of type %s", e, raw.getName());
+        }
+    }
+
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        if (type instanceof WildcardType) {
+            return rawClass(((WildcardType) type).getUpperBounds()[0]);
+        }
+        return Object.class;
+    }
+
+
+    private static Type typeArgument(Type type, int i) {
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            if (i < args.length) {
+                return args[i];
+            }
+        }
+        return Object.class;
+    }
+
+
+    private static Type componentType(Type type) {
+        if (type instanceof GenericArrayType) {
+            return ((GenericArrayType) type).getGenericComponentType();
+        }
+        return rawClass(type).getComponentType();
+    }
+
+
+    /**
+     * Somewhere that one member can be put: a setter, a field, or a
+     * component of a record.
+     */
+    private static final class Property {
+        final String       name;
+        final Type         type;
+        final boolean      primitive;
+
+        /**
+         * Takes (Object target, Object value), or null for a record component.
+         */
+        final MethodHandle setter;
+
+        /**
+         * The position of a record component, and the value it has when missing.
+         */
+        final int          component;
+        final Object       missing;
+
+        Property(String name, Type type, MethodHandle setter, int component) {
+            this.name = name;
+            this.type = type;
+            Class<?> raw = rawClass(type);
+            this.primitive = raw.isPrimitive();
+            this.setter = setter;
+            this.component = component;
+            this.missing = this.primitive ? Array.get(Array.newInstance(raw, 1), 0) : null;
+        }
+    }
+
+
+    /**
+     * How to make and fill in one class, worked out once.
+     */
+    private static final class Codec {
+        private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final Class<?> type;
+        private final HashMap<String, Property> properties = new HashMap<String, Property>();
+
+        /**
+         * Takes () for a class, or (Object[]) with the components of a record.
+         */
+        private MethodHandle maker;
+        private Property[]   components;
+        private String       problem;
+
+        Codec(Class<?> type) {
+            this.type = type;
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                if (!this.findRecord(lookup)) {
+                    this.findClass(lookup);
+                }
+            }
+            catch (Exception e) {
+                this.problem = e.toString();
+            }
+        }
+
+
+        /**
+         * Records are found by reflection, so that this runs on JVMs without them.
+         * @return true if the class is a record
+         */
+        private boolean findRecord(MethodHandles.Lookup lookup) throws Exception {
+            Method isRecord;
+            try {
+                isRecord = Class.class.getMethod("isRecord");
+            }
+            catch (NoSuchMethodException e) {
+                return false;
+            }
+            if (!((Boolean) isRecord.invoke(this.type)).booleanValue()) {
+                return false;
+            }
+            Object[] recordComponents = (Object[]) Class.class.getMethod("getRecordComponents").invoke(this.type);
+            Class<?>[] paramTypes = new Class<?>[recordComponents.length];
+            this.components = new Property[recordComponents.length];
+            for (int i = 0; i < recordComponents.length; i++) {
+                Object rc = recordComponents[i];
+                String name = (String) rc.getClass().getMethod("getName").invoke(rc);
+                paramTypes[i] = (Class<?>) rc.getClass().getMethod("getType").invoke(rc);
+                Type genericType = (Type) rc.getClass().getMethod("getGenericType").invoke(rc);
+                Property p = new Property(name, genericType, null, i);
+                this.components[i] = p;
+                this.properties.put(name, p);
+            }
+            Constructor<?> canonical = this.type.getDeclaredConstructor(paramTypes);
+            canonical.setAccessible(true);
+            this.maker = lookup.unreflectConstructor(canonical)
+                    .asType(MethodType.genericMethodType(paramTypes.length))
+                    .asSpreader(Object[].class, paramTypes.length);
+            return true;
+        }
+
+
+        private void findClass(MethodHandles.Lookup lookup) throws Exception {
+            for (Field field : this.type.getFields()) {
+                int mod = field.getModifiers();
+                if (Modifier.isStatic(mod) || Modifier.isFinal(mod)) {
+                    continue;
+                }
+                MethodHandle setter = setterFor(lookup, field);
+                this.properties.put(field.getName(), new Property(field.getName(), field.getGenericType(), setter, -1));
+            }
+            //setters take the place of fields with the same name
+            HashMap<String, Property> fromSetters = new HashMap<String, Property>();
+            for (Method method : this.type.getMethods()) {
+                String key = setterKey(method);
+                if (key == null || fromSetters.containsKey(key)) {
+                    continue;
+                }
+                MethodHandle setter = setterFor(lookup, method);
+                fromSetters.put(key, new Property(key, method.getGenericParameterTypes()[0], setter, -1));
+            }
+            this.properties.putAll(fromSetters);
+            Constructor<?> cons = this.type.getDeclaredConstructor();
+            if (!Modifier.isPublic(cons.getModifiers()) || !Modifier.isPublic(this.type.getModifiers())) {
+                cons.setAccessible(true);
+            }
+            this.maker = lookup.unreflectConstructor(cons).asType(MethodType.methodType(Object.class));
+        }
+
+
+        /**
+         * The public members of a class that is not public can not be used
+         * from here until they are made accessible, just like its constructor.
+         * If that is not allowed either, the class can not be bound at all,
+         * rather than being bound with some of its members quietly left out.
+         */
+        private static MethodHandle setterFor(MethodHandles.Lookup lookup, Field field) throws IllegalAccessException {
+            try {
+                return lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            }
+            catch (IllegalAccessException e) {
+                field.setAccessible(true);
+                return lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            }
+        }
+
+        private static MethodHandle setterFor(MethodHandles.Lookup lookup, Method method) throws IllegalAccessException {
+            try {
+                return lookup.unreflect(method).asType(SETTER_TYPE);
+            }
+            catch (IllegalAccessException e) {
+                method.setAccessible(true);
+                return lookup.unreflect(method).asType(SETTER_TYPE);
+            }
+        }
+
+
+        /**
+         * @return the key for a public setter, following the same rules as
+         *         getters for JSONObject(Object bean), or null if not a setter
+         */
+        private static String setterKey(Method method) {
+            int mod = method.getModifiers();
+            String name = method.getName();
+            if (!Modifier.isPublic(mod) || Modifier.isStatic(mod) || name.length() < 4
+                    || !name.startsWith("set") || method.getParameterTypes().length != 1) {
+                return null;
+            }
+            String key = name.substring(3);
+            if (!Character.isUpperCase(key.charAt(0))) {
+                return null;
+            }
+            if (key.length() == 1) {
+                return key.toLowerCase();
+            }
+            if (!Character.isUpperCase(key.charAt(1))) {
+                return key.substring(0, 1).toLowerCase() + key.substring(1);
+            }
+            return key;
+        }
+
+
+        private Object start() {
+            if (this.maker == null) {
+                throw new SimpleException("Unable to bind JSON to class %s: %s", this.type.getName(), this.problem);
+            }
+            if (this.components != null) {
+                Object[] args = new Object[this.components.length];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = this.components[i].missing;
+                }
+                return args;
+            }
+            try {
+                return (Object) this.maker.invokeExact();
+            }
+            catch (Throwable t) {
+                throw new SimpleException("Unable to construct an object of class %s", t, this.type.getName());
+            }
+        }
+
+
+        private void set(Object target, Property p, Object value) {
+            if (value == null && p.primitive) {
+                return;
+            }
+            if (p.setter == null) {
+                ((Object[]) target)[p.component] = value;
+                return;
+            }
+            try {
+                p.setter.invokeExact(target, value);
+            }
+            catch (Throwable t) {
+                throw new SimpleException("Unable to set (%s) on an object of class %s", t, p.name, this.type.getName());
+            }
+        }
+
+
+        private Object finish(Object target) {
+            if (this.components == null) {
+                return target;
+            }
+            try {
+                return (Object) this.maker.invokeExact((Object[]) target);
+            }
+            catch (Throwable t) {
+                throw new SimpleException("Unable to construct a record of class %s", t, this.type.getName());
+            }
+        }
+
+
+        Object fromTree(JSONObject jo) {
+            Object target = this.start();
+            for (String key : jo.keySet()) {
+                Property p = this.properties.get(key);
+                if (p != null) {
+                    Object value;
+                    try {
+                        value = convert(jo.opt(key), p.type);
+                    }
+                    catch (Exception e) {
+                        throw new SimpleException("Unable to bind member (%s) of class %s", e, key, this.type.getName());
+                    }
+                    this.set(target, p, value);
+                }
+            }
+            return this.finish(target);
+        }
+
+
+        Object fromStream(JSONTokener x) {
+            if (x.nextClean() != '{') {
+                throw x.syntaxError("A JSONObject text must begin with '{'");
+            }
+            Object target = this.start();
+            for (;;) {
+                String key = nextMemberKey(x);
+                if (key == null) {
+                    break;
+                }
+                Property p = this.properties.get(key);
+                if (p == null) {
+                    x.skipValue();
+                }
+                else {
+                    Object value;
+                    try {
+                        value = read(x, p.type);
+                    }
+                    catch (Exception e) {
+                        throw new SimpleException("Unable to bind member (%s) of class %s", e, key, this.type.getName());
+                    }
+                    this.set(target, p, value);
+                }
+                if (!nextMember(x)) {
+                    break;
+                }
+            }
+            return this.finish(target);
+        }
+    }
+}
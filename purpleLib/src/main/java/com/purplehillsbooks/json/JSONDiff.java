@@ -467,20 +467,26 @@ public class JSONDiff {
     /**
      * Given two java arrays, and a dataKey, this will compare two arrays of JSONObjects
      * by finding the objects with the same data key value, and comparing them.
+     * Each array is indexed by the data key for the comparison only.  The
+     * index is not attached to the array, so the caller's arrays do not go on
+     * maintaining it afterwards, and frozen or shared arrays are not touched.
+     * When more than one object has the same key value, the last one is used.
      */
     private void compareArrayByKey(List<List<String>> table, String baseKey, String dataKey, JSONArray ja1, JSONArray ja2) throws Exception {
 
-        ArrayList<String> keyValues = new ArrayList<String>();
-        HashMap<String, JSONObject> map1 = new HashMap<String, JSONObject>();
-        HashMap<String, JSONObject> map2 = new HashMap<String, JSONObject>();
-
-        addKeyValues(keyValues, map1, ja1, dataKey);
-        addKeyValues(keyValues, map2, ja2, dataKey);
+        JSONArrayIndex index1 = new JSONArrayIndex(ja1, dataKey);
+        JSONArrayIndex index2 = new JSONArrayIndex(ja2, dataKey);
+        ArrayList<String> keyValues = new ArrayList<String>(index1.keys());
+        for (String keyVal : index2.keys()) {
+            if (!index1.contains(keyVal)) {
+                keyValues.add(keyVal);
+            }
+        }
         Collections.sort(keyValues);
 
         for (String comVal : keyValues) {
-            JSONObject res1 = map1.get(comVal);
-            JSONObject res2 = map2.get(comVal);
+            JSONObject res1 = index1.findLast(comVal);
+            JSONObject res2 = index2.findLast(comVal);
             if (res1==null) {
                 addRecursive(table, baseKey + comVal + "].", new JSONObject(), res2);
             }
@@ -492,19 +498,4 @@ public class JSONDiff {
             }
         }
     }
-    private void addKeyValues(List<String> keyValues, HashMap<String, JSONObject> map, JSONArray array, String dataKey) throws Exception {
-        for (int i=0; i<array.length(); i++) {
-            Object val = array.get(i);
-            if (val instanceof JSONObject) {
-                JSONObject obj1 = (JSONObject)val;
-                if (obj1.has(dataKey)) {
-                    String keyVal = obj1.getString(dataKey);
-                    if (!keyValues.contains(keyVal)) {
-                        keyValues.add(keyVal);
-                    }
-                    map.put(keyVal, obj1);
-                }
-            }
-        }
-    }
 }
@@ -24,25 +24,29 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -164,9 +168,11 @@ import java.util.Set;
 public class JSONObject {
 
     /**
-     * The map where the JSONObject's properties are kept.
+     * The map where the JSONObject's properties are kept.  Small objects
+     * are held in a compact form, see CompactMap.  Replaced by a frozen
+     * map when the object is frozen.
      */
-    private final Map<String, Object> map;
+    private CompactMap map;
 
 
     /**
@@ -182,7 +188,25 @@ public class JSONObject {
      * Construct an empty JSONObject.
      */
     public JSONObject() {
-        this.map = new HashMap<String,Object>();
+        this.map = new CompactMap();
+    }
+
+
+    /**
+     * Construct an empty JSONObject that holds its members in the map given.
+     */
+    JSONObject(CompactMap map) {
+        this.map = map;
+    }
+
+
+    /**
+     * Construct an empty JSONObject that keeps its members in the order they
+     * were first put, instead of an arbitrary order.  This order is what
+     * keySet returns, and what is written when keys are not sorted.
+     */
+    public static JSONObject newInsertionOrdered() {
+        return new JSONObject(CompactMap.create(true));
     }
 
 
@@ -196,7 +220,7 @@ public class JSONObject {
         }
         try {
             FileInputStream fis = new FileInputStream(inFile);
-            JSONTokener jt = new JSONTokener(fis);
+            JSONTokener jt = new UTF8JSONTokener(fis);
             JSONObject jo = new JSONObject(jt);
             fis.close();
             return jo;
@@ -207,6 +231,40 @@ public class JSONObject {
     }
     
     
+    /**
+     * Same as readFromFile, but when mapped is true, a large file is memory
+     * mapped and parsed straight from the mapped pages instead of being read
+     * through a stream.  Small files are read as a stream either way.
+     * This is fastest for large files that are read over and over, because
+     * the pages stay in the file system cache and no read calls are made.
+     * The mapped bytes are still copied, a block at a time, into a window of
+     * UTF8JSONTokener.DEFAULT_BUFFER_SIZE bytes for scanning.  Note that on Windows a file can not be replaced while
+     * a mapping of it is still in memory, and the mapping is only released
+     * when it is garbage collected, so do not use this for files that are
+     * updated with writeToFile on that platform.
+     */
+    public static JSONObject readFromFile(File inFile, boolean mapped) {
+        if (!mapped) {
+            return readFromFile(inFile);
+        }
+        if (!inFile.exists()) {
+            throw new SimpleException("File for JSON objects does not exist: %s", inFile.getAbsolutePath());
+        }
+        try {
+            FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+            try {
+                return new JSONObject(UTF8JSONTokener.forChannel(channel));
+            }
+            finally {
+                channel.close();
+            }
+        }
+        catch (Exception e) {
+            throw new SimpleException("Unable to read JSON objects from file: %s", e, inFile.getAbsolutePath());
+        }
+    }
+
+
     /**
      * Accept a Reader object, and parse the JSON Object from it.
      */
@@ -265,12 +323,11 @@ public class JSONObject {
                 }
             }
             FileOutputStream fos = new FileOutputStream(tempFile);
-            OutputStreamWriter osw = new OutputStreamWriter(fos, "UTF-8");
             try {
-                this.write(osw,2,0);
+                this.write(fos,2,0);
             }
             finally {
-                osw.close();
+                fos.close();
             }
 
             Path sourcePath      = Paths.get(tempFile.toString());
@@ -357,7 +414,7 @@ public class JSONObject {
      * <p>
      * For a UTF-8 encoded stream, use:
      * </p><p>
-     * <code> new JSONObject( new JSONTokener( inputStream ) );</code>
+     * <code> new JSONObject( new UTF8JSONTokener( inputStream ) );</code>
      * </p><p>
      * For a character based reader, including inputStreams of other encodings
      * wrapped in the appropriate InputStreamReader, use:
@@ -370,7 +427,7 @@ public class JSONObject {
      *  or a duplicated key.
      */
     public JSONObject(JSONTokener x) {
-        this();
+        this(CompactMap.create(x.getKeepKeyOrder()));
         char c;
         String key;
 
@@ -386,7 +443,7 @@ public class JSONObject {
                 return;
             default:
                 x.back();
-                key = x.nextValue().toString();
+                key = x.nextKey();
             }
 
 // The key is followed by ':'. We will also tolerate '=' or '=>'.
@@ -526,7 +583,8 @@ public class JSONObject {
 
     /**
      * Produce a string from a double. The string "null" will be returned if
-     * the number is not finite.
+     * the number is not finite.  Otherwise it is the shortest decimal that
+     * reads back as exactly the same double.
      * @param  d A double.
      * @return A String.
      */
@@ -534,20 +592,7 @@ public class JSONObject {
         if (Double.isInfinite(d) || Double.isNaN(d)) {
             return "null";
         }
-
-// Shave off trailing zeros and decimal point, if possible.
-
-        String string = Double.toString(d);
-        if (string.indexOf('.') > 0 && string.indexOf('e') < 0 &&
-                string.indexOf('E') < 0) {
-            while (string.endsWith("0")) {
-                string = string.substring(0, string.length() - 1);
-            }
-            if (string.endsWith(".")) {
-                string = string.substring(0, string.length() - 1);
-            }
-        }
-        return string;
+        return DoubleFormat.toString(d);
     }
 
 
@@ -855,12 +900,7 @@ public class JSONObject {
      * @return Return a list of keys of the JSONObject in sorted order
      */
     public List<String> sortedKeySet() {
-        List<String> keyList = new ArrayList<String>();
-        for (String key : keySet()) {
-            keyList.add(key);
-        }
-        Collections.sort(keyList);
-        return keyList;
+        return new ArrayList<String>(Arrays.asList(this.map.sortedKeys()));
     }
 
     /**
@@ -925,6 +965,11 @@ public class JSONObject {
         if (number == null) {
             throw new SimpleException("Cannot convert a null value to a number.");
         }
+        if (number instanceof Double) {
+            //the shortest text that reads back as the same double,
+            //with no trailing zeros to shave off
+            return DoubleFormat.toString(number.doubleValue());
+        }
         testValidity(number);
 
 // Shave off trailing zeros and decimal point, if possible.
@@ -943,6 +988,68 @@ public class JSONObject {
     }
 
 
+    /**
+     * Whole numbers smaller than this are written as plain digits in the
+     * canonical form, whether they are held as a long, a double or a
+     * BigDecimal.  Above 2^53 not every one of them is a double, but those
+     * that are get the same digits as a long of the same value.
+     */
+    private static final long WHOLE_LIMIT = 1000000000000000000L;
+
+    /**
+     * Produce the canonical text of a number, which depends only on its
+     * value and not on its type: 5, 5L, 5.0 and new BigDecimal("5.00") are
+     * all "5".  A whole number below 10^18 is plain digits.  Any other
+     * number that is exactly a double is written as that double is, see
+     * doubleToString.  Any other BigDecimal or BigInteger is written with all
+     * of its digits but no trailing zeros, laid out the same way as a double:
+     * plain from 0.001 up to 10^7, otherwise like 1.0E-7 or 1.25E30, with no
+     * '+' in the exponent.  So text with no more than 15 significant digits
+     * has the same canonical form whether it was parsed as doubles or with
+     * setUseBigNumbers.  A Float is the double of exactly the same value, so
+     * 0.1f is not the same as 0.1.
+     * @throws SimpleException If the number is not finite.
+     */
+    static String canonicalNumber(Number number) {
+        testValidity(number);
+        if (number instanceof Integer || number instanceof Long
+                || number instanceof Short || number instanceof Byte) {
+            long v = number.longValue();
+            if (v > -WHOLE_LIMIT && v < WHOLE_LIMIT) {
+                return Long.toString(v);
+            }
+            return canonicalBig(BigDecimal.valueOf(v));
+        }
+        if (number instanceof BigInteger) {
+            return canonicalBig(new BigDecimal((BigInteger) number));
+        }
+        if (number instanceof BigDecimal) {
+            return canonicalBig((BigDecimal) number);
+        }
+        double d = number.doubleValue();
+        if (d == Math.rint(d) && Math.abs(d) < WHOLE_LIMIT) {
+            return Long.toString((long) d);
+        }
+        return DoubleFormat.toString(d);
+    }
+
+    private static String canonicalBig(BigDecimal value) {
+        if (value.signum() == 0) {
+            return "0";
+        }
+        BigDecimal trimmed = value.stripTrailingZeros();
+        if (trimmed.scale() <= 0 && trimmed.abs().compareTo(BigDecimal.valueOf(WHOLE_LIMIT)) < 0) {
+            return Long.toString(trimmed.longValueExact());
+        }
+        double d = trimmed.doubleValue();
+        if (!Double.isInfinite(d) && new BigDecimal(d).compareTo(trimmed) == 0) {
+            return DoubleFormat.toString(d);
+        }
+        String digits = trimmed.unscaledValue().abs().toString();
+        return DoubleFormat.toString(trimmed.signum() < 0, digits, digits.length() - trimmed.scale());
+    }
+
+
     /**
      * Get an optional value associated with a key.
      * Returns a null if you pass in a null, or if there is no value
@@ -1142,46 +1249,13 @@ public class JSONObject {
 
 
     private void populateMap(Object bean) {
-        Class<? extends Object> klass = bean.getClass();
-
-// If klass is a System class then set includeSuperClass to false.
-
-        boolean includeSuperClass = klass.getClassLoader() != null;
-
-        Method[] methods = includeSuperClass
-                ? klass.getMethods()
-                : klass.getDeclaredMethods();
-        for (int i = 0; i < methods.length; i += 1) {
+        BeanAccessors accessors = BeanAccessors.of(bean.getClass());
+        int last = accessors.size();
+        for (int i = 0; i < last; i++) {
             try {
-                Method method = methods[i];
-                if (Modifier.isPublic(method.getModifiers())) {
-                    String name = method.getName();
-                    String key = "";
-                    if (name.startsWith("get")) {
-                        if ("getClass".equals(name) ||
-                                "getDeclaringClass".equals(name)) {
-                            key = "";
-                        } else {
-                            key = name.substring(3);
-                        }
-                    } else if (name.startsWith("is")) {
-                        key = name.substring(2);
-                    }
-                    if (key.length() > 0 &&
-                            Character.isUpperCase(key.charAt(0)) &&
-                            method.getParameterTypes().length == 0) {
-                        if (key.length() == 1) {
-                            key = key.toLowerCase();
-                        } else if (!Character.isUpperCase(key.charAt(1))) {
-                            key = key.substring(0, 1).toLowerCase() +
-                                key.substring(1);
-                        }
-
-                        Object result = method.invoke(bean, (Object[])null);
-                        if (result != null) {
-                            this.map.put(key, wrap(result));
-                        }
-                    }
+                Object result = accessors.get(bean, i);
+                if (result != null) {
+                    this.map.put(accessors.key(i), wrap(result));
                 }
             } catch (Exception ignore) {
             }
@@ -1351,16 +1425,13 @@ public class JSONObject {
      * @return  That value correctly encoded for insertion in a JSON text.
      */
     public static String quote(String string) {
-        StringWriter sw = new StringWriter();
-        synchronized (sw.getBuffer()) {
-            try {
-                return quote(string, sw).toString();
-            } catch (IOException ignored) {
-                // will never happen - we are writing to a string writer
-                return "An IOException occurred while writing to a StringWriter which should never happen,"
-                        + " but it did, so something in class JSONObject is very messed up";
-            }
+        JSONOutput out = JSONOutput.forString(string == null ? 2 : string.length() + 16);
+        try {
+            out.writeQuoted(string);
+        } catch (IOException ignored) {
+            // will never happen - there is no destination to fail
         }
+        return out.toString();
     }
 
     /**
@@ -1371,63 +1442,24 @@ public class JSONObject {
     * before each double quote, and before each backslash.
     * It also converts newlines, returns, tabs, linefeed, and
     * backspace characters to their properly encoded symbolic equivalent.
+    * <p>
+    * The characters that need no escape are copied to the writer in runs,
+    * not one at a time.
+    * </p>
     */
     public static Writer quote(String string, Writer w) throws IOException {
-        if (string == null || string.length() == 0) {
-            w.write("\"\"");
+        if (w instanceof JSONOutput) {
+            ((JSONOutput) w).writeQuoted(string);
             return w;
         }
-
-        char b;
-        char c = 0;
-        String hhhh;
-        int i;
-        int len = string.length();
-
-        w.write('"');
-        for (i = 0; i < len; i += 1) {
-            b = c;
-            c = string.charAt(i);
-            switch (c) {
-            case '\\':
-            case '"':
-                w.write('\\');
-                w.write(c);
-                break;
-            case '/':
-                if (b == '<') {
-                    w.write('\\');
-                }
-                w.write(c);
-                break;
-            case '\b':
-                w.write("\\b");
-                break;
-            case '\t':
-                w.write("\\t");
-                break;
-            case '\n':
-                w.write("\\n");
-                break;
-            case '\f':
-                w.write("\\f");
-                break;
-            case '\r':
-                w.write("\\r");
-                break;
-            default:
-                if (c < ' ' || (c >= '\u0080' && c < '\u00a0')
-                        || (c >= '\u2000' && c < '\u2100')) {
-                    w.write("\\u");
-                    hhhh = Integer.toHexString(c);
-                    w.write("0000", 0, 4 - hhhh.length());
-                    w.write(hhhh);
-                } else {
-                    w.write(c);
-                }
-            }
+        JSONOutput out = JSONOutput.over(w);
+        try {
+            out.writeQuoted(string);
+            out.flushBuffer();
+        }
+        finally {
+            out.release();
         }
-        w.write('"');
         return w;
     }
 
@@ -1605,17 +1637,19 @@ public class JSONObject {
      *  with <code>}</code>&nbsp;<small>(right brace)</small>.
      */
     public String toString(int indentFactor) {
+        JSONOutput out = JSONOutput.forString();
         try {
-            StringWriter w = new StringWriter();
-            synchronized (w.getBuffer()) {
-                return this.write(w, indentFactor, 0).toString();
-            }
+            this.write(out, indentFactor, 0);
+            return out.toString();
         }
         catch (Exception e) {
             //there is no conceivable exception that can come out of this, but throw something
             //just in case.   Want the signature to not have exception in it.
             throw new SimpleException("Failure to serialize JSONObject.", e);
         }
+        finally {
+            out.release();
+        }
     }
 
     /**
@@ -1742,25 +1776,39 @@ public class JSONObject {
     }
 
 
-    static final Writer writeValue(Writer writer, Object value,
-            int indentFactor, int indent) throws IOException {
-        if (value == null || value.equals(null)) {
-            writer.write("null");
+    static final Writer writeValue(JSONOutput writer, Object value,
+            int indentFactor, int indent, boolean sortKeys) throws IOException {
+        if (value instanceof String) {
+            //by far the most common value, so checked before anything else
+            writer.writeQuoted((String) value);
+        } else if (value instanceof Double) {
+            //written straight into the buffer, without making strings
+            if (writer.isCanonical()) {
+                writer.write(canonicalNumber((Double) value));
+            } else {
+                writer.writeDouble(((Double) value).doubleValue());
+            }
+        } else if (value == null || value.equals(null)) {
+            writer.writeNull();
         } else if (value instanceof JSONObject) {
-            ((JSONObject) value).write(writer, indentFactor, indent);
+            ((JSONObject) value).write(writer, indentFactor, indent, sortKeys);
         } else if (value instanceof JSONArray) {
-            ((JSONArray) value).write(writer, indentFactor, indent);
+            ((JSONArray) value).write(writer, indentFactor, indent, sortKeys);
         } else if (value instanceof Map) {
-            new JSONObject(value).write(writer, indentFactor, indent);
+            new JSONObject(value).write(writer, indentFactor, indent, sortKeys);
         } else if (value instanceof Collection<?>) {
             new JSONArray(value).write(writer, indentFactor,
-                    indent);
+                    indent, sortKeys);
         } else if (value.getClass().isArray()) {
-            new JSONArray(value).write(writer, indentFactor, indent);
+            new JSONArray(value).write(writer, indentFactor, indent, sortKeys);
         } else if (value instanceof Number) {
-            writer.write(numberToString((Number) value));
+            if (writer.isCanonical()) {
+                writer.write(canonicalNumber((Number) value));
+            } else {
+                writer.write(numberToString((Number) value));
+            }
         } else if (value instanceof Boolean) {
-            writer.write(value.toString());
+            writer.writeBoolean(((Boolean) value).booleanValue());
         } else if (value instanceof JSONString) {
             Object o;
             try {
@@ -1768,9 +1816,13 @@ public class JSONObject {
             } catch (Exception e) {
                 throw new SimpleException("Error while converting a JSONString to a string", e);
             }
-            writer.write(o != null ? o.toString() : quote(value.toString()));
+            if (o != null) {
+                writer.write(o.toString());
+            } else {
+                writer.writeQuoted(value.toString());
+            }
         } else {
-            quote(value.toString(), writer);
+            writer.writeQuoted(value.toString());
         }
         return writer;
     }
@@ -1804,57 +1856,367 @@ public class JSONObject {
      * @return The writer that was passed in
      */
     public Writer write(Writer writer, int indentFactor, int indent) {
+        return this.write(writer, indentFactor, indent, true);
+    }
+
+    /**
+     * Write the contents of the JSONObject as JSON text to a writer, choosing
+     * whether the keys are sorted.  Sorting makes the same tree always produce
+     * the same text, which is what you want for files that are compared or
+     * kept under version control.  The sorted order is remembered by each
+     * object until its keys change, so writing the same tree again does not
+     * sort again.
+     * <p>
+     * Without sorting, the members of each object are written in the order
+     * they are held, which skips the sorting entirely.  For ordinary objects
+     * this order is arbitrary, and fine for sending data to a program.  For
+     * objects from newInsertionOrdered, or parsed with setKeepKeyOrder, it is
+     * the order the members were added or read.
+     * </p>
+     * <p>
+     * The text is gathered in a buffer and handed to the writer in large
+     * blocks, so there is no need to wrap the writer in a BufferedWriter.
+     * The writer is not flushed.
+     * </p>
+     *
+     * @param sortKeys true to write keys in sorted order at every level,
+     *        false to write them in the order held
+     * @return The writer.
+     * @throws SimpleException
+     */
+    public Writer write(Writer writer, int indentFactor, int indent, boolean sortKeys) {
         if (indent > 100) {
             //it is useful to abort attempts to iterate a looped JSON tree
             //rather than run forever and getting a stack overflow.
             throw new SimpleException("Too many levels of indent.  This JSON tree is probably linked in a loop, which causes an infinite recursion.  Aborting output.");
         }
+        if (!(writer instanceof JSONOutput)) {
+            JSONOutput out = JSONOutput.over(writer);
+            try {
+                this.write(out, indentFactor, indent, sortKeys);
+                out.flushBuffer();
+            } catch (IOException exception) {
+                throw new SimpleException("Unable to write JSONObject at indent level: %d", exception, indent);
+            } finally {
+                out.release();
+            }
+            return writer;
+        }
+        JSONOutput out = (JSONOutput) writer;
         try {
-            boolean commanate = false;
-            final int length = this.length();
-            List<String> keys = this.sortedKeySet();
-            writer.write('{');
-
-            if (length == 1) {
-                String key = keys.get(0);
-                writer.write(quote(key));
-                writer.write(':');
-                if (indentFactor > 0) {
-                    writer.write(' ');
-                }
-                writeValue(writer, this.map.get(key), indentFactor, indent);
+            OutputCache cache = this.map.outputCache();
+            byte[] bytes = null;
+            if (cache != null && out.isUtf8() && !out.isCanonical()) {
+                bytes = this.cachedBytes(cache, indentFactor, indent, sortKeys);
             }
-            else if (length > 1) {
-                final int newindent = indent + indentFactor;
-                for (String key : keys) {
-                    if (commanate) {
-                        writer.write(',');
-                    }
-                    if (indentFactor > 0) {
-                        writer.write('\n');
-                    }
-                    indent(writer, newindent);
-                    writer.write(quote(key));
-                    writer.write(':');
-                    if (indentFactor > 0) {
-                        writer.write(' ');
-                    }
-                    writeValue(writer, this.map.get(key), indentFactor,
-                            newindent);
-                    commanate = true;
-                }
-                if (indentFactor > 0) {
-                    writer.write('\n');
-                }
-                indent(writer, indent);
+            if (bytes != null) {
+                out.writeBytes(bytes);
+            }
+            else {
+                this.writeMembers(out, indentFactor, indent, sortKeys);
             }
-            writer.write('}');
             return writer;
         } catch (IOException exception) {
             throw new SimpleException("Unable to write JSONObject at indent level: %d", exception, indent);
         }
      }
 
+    /**
+     * The bytes this frozen object writes in a form, written once and then kept.
+     * @return the bytes, or null if the form is too short to be worth keeping
+     */
+    private byte[] cachedBytes(OutputCache cache, int indentFactor, int indent, boolean sortKeys) throws IOException {
+        byte[] bytes = cache.get(indentFactor, indent, sortKeys);
+        if (bytes == OutputCache.TOO_SMALL) {
+            return null;
+        }
+        if (bytes == null) {
+            ByteArrayOutputStream captured = new ByteArrayOutputStream();
+            JSONOutput capture = JSONOutput.over(captured);
+            try {
+                this.writeMembers(capture, indentFactor, indent, sortKeys);
+                capture.flushBuffer();
+            } finally {
+                capture.release();
+            }
+            bytes = captured.toByteArray();
+            cache.put(indentFactor, indent, sortKeys, bytes);
+        }
+        return bytes;
+    }
+
+    private void writeMembers(JSONOutput out, int indentFactor, int indent, boolean sortKeys) throws IOException {
+        boolean commanate = false;
+        final int length = this.length();
+        Iterable<String> keys = sortKeys ? Arrays.asList(this.map.sortedKeys()) : this.map.keySet();
+        out.write('{');
+
+        if (length == 1) {
+            String key = keys.iterator().next();
+            out.writeQuoted(key);
+            out.write(':');
+            if (indentFactor > 0) {
+                out.write(' ');
+            }
+            writeValue(out, this.opt(key), indentFactor, indent, sortKeys);
+        }
+        else if (length > 1) {
+            final int newindent = indent + indentFactor;
+            for (String key : keys) {
+                if (commanate) {
+                    out.write(',');
+                }
+                if (indentFactor > 0) {
+                    out.write('\n');
+                }
+                indent(out, newindent);
+                out.writeQuoted(key);
+                out.write(':');
+                if (indentFactor > 0) {
+                    out.write(' ');
+                }
+                writeValue(out, this.opt(key), indentFactor,
+                        newindent, sortKeys);
+                commanate = true;
+            }
+            if (indentFactor > 0) {
+                out.write('\n');
+            }
+            indent(out, indent);
+        }
+        out.write('}');
+    }
+
+    /**
+     * Write the contents of the JSONObject as JSON text to a stream, encoded as
+     * UTF-8.  The characters are encoded as they are written, into a buffer
+     * that is handed to the stream in large blocks, so this is faster than
+     * writing to an OutputStreamWriter, and there is no need to wrap the
+     * stream in a BufferedOutputStream.  The bytes are the same as writing
+     * to an OutputStreamWriter for UTF-8 would produce.  The stream is not
+     * flushed or closed.
+     *
+     * @param sortKeys true to write keys in sorted order at every level,
+     *        false to write them in the order held
+     * @return The stream that was passed in
+     * @throws SimpleException if the stream fails
+     */
+    public OutputStream write(OutputStream os, int indentFactor, int indent, boolean sortKeys) {
+        JSONOutput out = JSONOutput.over(os);
+        try {
+            this.write(out, indentFactor, indent, sortKeys);
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Unable to write JSONObject at indent level: %d", e, indent);
+        } finally {
+            out.release();
+        }
+        return os;
+    }
+
+    /**
+     * Write the contents of the JSONObject as UTF-8 encoded JSON text to a
+     * stream, with keys in sorted order, see write(OutputStream, int, int, boolean).
+     */
+    public OutputStream write(OutputStream os, int indentFactor, int indent) {
+        return this.write(os, indentFactor, indent, true);
+    }
+
+    /**
+     * Write the contents of the JSONObject as UTF-8 encoded JSON text into a
+     * byte buffer, starting at its position, which is left after the last
+     * byte written.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer runs out of room,
+     *         in which case some of the text will have been put into it
+     */
+    public ByteBuffer write(ByteBuffer dest, int indentFactor) {
+        JSONOutput out = JSONOutput.over(dest);
+        try {
+            this.write(out, indentFactor, 0, true);
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Unable to write JSONObject at indent level: %d", e, 0);
+        } finally {
+            out.release();
+        }
+        return dest;
+    }
+
+    /**
+     * <p>Write the canonical form of this object to a stream, encoded as
+     * UTF-8.  Two objects with the same content always have the same
+     * canonical form, no matter what order their members were put in or
+     * what types their numbers are.  This is for hashing, comparing and
+     * signing, rather than for reading.</p>
+     *
+     * <p>Keys are sorted at every level, there is no whitespace at all,
+     * strings are escaped exactly as usual, and numbers are written by
+     * value, so that 5, 5L and 5.0 are all 5, see canonicalNumber.  A
+     * JSONString value is written as it gives it.</p>
+     *
+     * @return The stream that was passed in
+     * @throws SimpleException if the stream fails
+     */
+    public OutputStream writeCanonical(OutputStream os) {
+        JSONOutput out = JSONOutput.over(os).canonical();
+        try {
+            this.write(out, 0, 0, true);
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Unable to write the canonical form of a JSONObject", e);
+        } finally {
+            out.release();
+        }
+        return os;
+    }
+
+    /**
+     * @return the canonical form of this object, see writeCanonical
+     */
+    public String toCanonicalString() {
+        JSONOutput out = JSONOutput.forString().canonical();
+        try {
+            this.write(out, 0, 0, true);
+            return out.toString();
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Compute a digest of the canonical form of this object, see
+     * writeCanonical.  The text is fed to the digest in blocks as it is
+     * made, and never held as a whole, so this costs no more memory for a
+     * huge tree than for a small one.
+     * @param algorithm the name of any MessageDigest algorithm, like "SHA-256"
+     * @return the digest
+     * @throws SimpleException if the algorithm is not available
+     */
+    public byte[] digest(String algorithm) {
+        MessageDigest md = newDigest(algorithm);
+        JSONOutput out = JSONOutput.over(md).canonical();
+        try {
+            this.write(out, 0, 0, true);
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Unable to compute a %s digest of a JSONObject", e, algorithm);
+        } finally {
+            out.release();
+        }
+        return md.digest();
+    }
+
+    /**
+     * <p>A SHA-256 hash of the content of this object, as 64 hex digits.
+     * Two objects with the same content, in the sense of writeCanonical,
+     * have the same hash, and any change to the content changes it, so it
+     * serves as an ETag or to tell whether two trees are the same.</p>
+     *
+     * <p>The hash is structural: it covers the members of this object with
+     * each object and array within it replaced by its own hash.  A frozen
+     * object or array keeps its hash once it is made, so asking again costs
+     * nothing.  After a frozen tree is changed through mutableCopy and
+     * editJSONObject, only the objects and arrays that were copied are
+     * hashed again, and everything that was not touched uses the hash it
+     * has.  For an object that is not frozen, the whole tree is hashed every
+     * time.  This is not the same value as digest("SHA-256"), which is a
+     * hash of the whole canonical text.</p>
+     *
+     * @return the hash as lowercase hex
+     */
+    public String contentHash() {
+        return hex(this.structuralHash());
+    }
+
+    byte[] structuralHash() {
+        byte[] hash = this.map.keptHash();
+        if (hash != null) {
+            return hash;
+        }
+        String[] keys = this.map.sortedKeys();
+        Object[] values = new Object[keys.length];
+        byte[][] childHashes = new byte[keys.length][];
+        //the children are hashed first, so only one buffer is in use at a time
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = this.opt(keys[i]);
+            childHashes[i] = hashOf(values[i]);
+        }
+        MessageDigest md = newDigest("SHA-256");
+        JSONOutput out = JSONOutput.over(md).canonical();
+        try {
+            out.write('{');
+            for (int i = 0; i < keys.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.writeQuoted(keys[i]);
+                out.write(':');
+                writeHashedValue(out, values[i], childHashes[i]);
+            }
+            out.write('}');
+            out.flushBuffer();
+        } catch (IOException e) {
+            throw new SimpleException("Unable to hash a JSONObject", e);
+        } finally {
+            out.release();
+        }
+        hash = md.digest();
+        this.map.keepHash(hash);
+        return hash;
+    }
+
+    /**
+     * @return the structural hash of an object or array value, or null
+     *         for any other kind of value
+     */
+    static byte[] hashOf(Object value) {
+        if (value instanceof JSONObject) {
+            return ((JSONObject) value).structuralHash();
+        }
+        if (value instanceof JSONArray) {
+            return ((JSONArray) value).structuralHash();
+        }
+        if (value instanceof Map) {
+            return new JSONObject(value).structuralHash();
+        }
+        if (value instanceof Collection<?> || value != null && value.getClass().isArray()) {
+            return new JSONArray(value).structuralHash();
+        }
+        return null;
+    }
+
+    /**
+     * Write a value for a structural hash: an object or array as a '#' and
+     * its hash, which can not be mistaken for any other value, and anything
+     * else in its canonical form.
+     */
+    static void writeHashedValue(JSONOutput out, Object value, byte[] childHash) throws IOException {
+        if (childHash != null) {
+            out.write('#');
+            out.writeHex(childHash);
+        } else {
+            writeValue(out, value, 0, 0, true);
+        }
+    }
+
+    static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SimpleException("The digest algorithm (%s) is not available", e, algorithm);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = JSONOutput.HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = JSONOutput.HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
     /**
      * JSONObject.NULL is equivalent to the value that JavaScript calls null,
      * whilst Java's null is equivalent to the value that JavaScript calls
@@ -1890,6 +2252,156 @@ public class JSONObject {
         }
     }
 
+    /**
+     * <p>Make this object, and every object and array within it, unchangeable.
+     * Any attempt to change a frozen object or array throws an exception.  A
+     * frozen tree can be handed to any number of readers, on any number of
+     * threads, without making a copy for each one, since none of them can
+     * change it.  Freezing walks the tree once, but the walk stops at any part
+     * that is already frozen, so freezing a frozen tree costs nothing.</p>
+     *
+     * <p>To change a frozen tree, make a mutableCopy and then use editJSONObject
+     * and editJSONArray to get down to the part to be changed.  Only the objects
+     * and arrays along that path are copied, everything else is shared with the
+     * frozen tree, which is not affected in any way.</p>
+     * <pre>
+     * JSONObject next = config.mutableCopy();
+     * next.editJSONObject("server").put("port", 8080);
+     * config = next.freeze();
+     * </pre>
+     * <p>Values other than objects and arrays are shared as they are.</p>
+     *
+     * @return this object, now frozen
+     */
+    public JSONObject freeze() {
+        if (this.map.isFrozen()) {
+            return this;
+        }
+        for (String key : this.map.sortedKeys()) {
+            freezeValue(this.opt(key));
+        }
+        this.map = this.map.frozen();
+        return this;
+    }
+
+    static void freezeValue(Object value) {
+        if (value instanceof JSONObject) {
+            ((JSONObject) value).freeze();
+        }
+        else if (value instanceof JSONArray) {
+            ((JSONArray) value).freeze();
+        }
+    }
+
+
+    /**
+     * @return true if this object has been frozen and can not be changed
+     */
+    public boolean isFrozen() {
+        return this.map.isFrozen();
+    }
+
+
+    /**
+     * <p>Freeze this object, and keep the UTF-8 bytes that it, and every
+     * object and array within it, writes to an OutputStream or ByteBuffer, so
+     * that writing it again is a copy of those bytes.  This is for a tree that
+     * is written out many times without changing, like a response that many
+     * requests get.  The bytes are made the first time each form is written,
+     * because they depend on the indent and on whether keys are sorted.
+     * Writing to a Writer or toString does not use them.</p>
+     *
+     * <p>Since the tree is frozen, the bytes can never be out of date.  To
+     * change it, make a mutableCopy and edit it as usual: the objects and
+     * arrays that are copied on the way down have no bytes kept, while every
+     * part that was not touched is shared with the old tree and keeps its
+     * bytes.  Call cacheOutput on the new tree when it is done, and writing it
+     * makes bytes only for the parts that changed, and copies the rest.</p>
+     *
+     * <p>The cost is memory: each level keeps the text of everything within
+     * it, so a tree holds its text about as many times as it is deep.  Parts
+     * whose text is short are not kept at all, as writing them is about as
+     * fast as copying.</p>
+     *
+     * @return this object, now frozen
+     */
+    public JSONObject cacheOutput() {
+        this.freeze();
+        //the parts of an object that is already kept are kept too
+        if (this.map.outputCache() == null) {
+            for (String key : this.map.keySet()) {
+                cacheValueOutput(this.opt(key));
+            }
+            this.map.keepOutput();
+        }
+        return this;
+    }
+
+    static void cacheValueOutput(Object value) {
+        if (value instanceof JSONObject) {
+            ((JSONObject) value).cacheOutput();
+        }
+        else if (value instanceof JSONArray) {
+            ((JSONArray) value).cacheOutput();
+        }
+    }
+
+
+    /**
+     * Make a new object, that can be changed, holding the same members as this
+     * one.  Only this object is copied: the objects and arrays within it are
+     * the same ones, and if this object was frozen they are still frozen.  Use
+     * editJSONObject and editJSONArray to change them.
+     */
+    public JSONObject mutableCopy() {
+        JSONObject copy = new JSONObject(CompactMap.create(this.map.keepsInsertionOrder()));
+        for (String key : this.map.keySet()) {
+            Object value = this.opt(key);
+            //a member can disappear while copying a ConcurrentJSONObject
+            if (value != null) {
+                copy.map.put(key, value);
+            }
+        }
+        return copy;
+    }
+
+
+    /**
+     * Get the JSONObject value associated with a key so that it can be changed.
+     * If it is frozen, it is replaced in this object by a mutableCopy of it, and
+     * that is returned.  The original is not changed.
+     *
+     * @throws SimpleException if the key is not found or not a JSONObject,
+     *         or if this object is frozen
+     */
+    public JSONObject editJSONObject(String key) {
+        JSONObject child = this.getJSONObject(key);
+        if (child.isFrozen()) {
+            child = child.mutableCopy();
+            this.put(key, child);
+        }
+        return child;
+    }
+
+
+    /**
+     * Get the JSONArray value associated with a key so that it can be changed.
+     * If it is frozen, it is replaced in this object by a mutableCopy of it, and
+     * that is returned.  The original is not changed.
+     *
+     * @throws SimpleException if the key is not found or not a JSONArray,
+     *         or if this object is frozen
+     */
+    public JSONArray editJSONArray(String key) {
+        JSONArray child = this.getJSONArray(key);
+        if (child.isFrozen()) {
+            child = child.mutableCopy();
+            this.put(key, child);
+        }
+        return child;
+    }
+
+
      public static JSONObject deepCopy(JSONObject input) {
          JSONObject output = new JSONObject();
          for (String key : input.keySet()) {
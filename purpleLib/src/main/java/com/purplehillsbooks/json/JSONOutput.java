@@ -0,0 +1,761 @@
+package com.purplehillsbooks.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * <p>The buffer that JSONObject and JSONArray write their text into.  Characters
+ * are gathered in an array and passed on to the real destination in large
+ * blocks, instead of a call on the destination for every bracket, comma and
+ * character of every string.  Strings are quoted straight into the buffer:
+ * a table says which characters need an escape, and the runs of characters
+ * between escapes are copied in one step.</p>
+ *
+ * <p>There are two kinds.  One gathers chars for a Writer or a String.  The
+ * other encodes to UTF-8 as it goes, into a byte array for an OutputStream or
+ * a ByteBuffer, so that there is no second pass through an OutputStreamWriter.
+ * Both produce exactly what quote and write have always produced, and the
+ * bytes are exactly what an OutputStreamWriter for UTF-8 would make of it.</p>
+ *
+ * <p>Each thread keeps one spare buffer of each kind, so writing one JSON tree
+ * after another does not allocate a new buffer each time.  Without a
+ * destination, the char buffer grows to hold everything, for making a String.</p>
+ */
+abstract class JSONOutput extends Writer {
+
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * A buffer that has grown bigger than this is not kept as the spare,
+     * so that one huge toString does not hold on to the memory forever.
+     */
+    static final int KEEP_LIMIT = 65536;
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * For each ASCII character, 0 if it is written as it is, otherwise the
+     * character that follows the backslash in its escape, or 'u' for an
+     * escape with four hex digits.  A slash is escaped only after a
+     * less-than sign, so that "&lt;/script&gt;" can not appear in the output.
+     */
+    static final char[] ESCAPE = new char[128];
+    static {
+        for (int c = 0; c < ' '; c++) {
+            ESCAPE[c] = 'u';
+        }
+        ESCAPE['\b'] = 'b';
+        ESCAPE['\t'] = 't';
+        ESCAPE['\n'] = 'n';
+        ESCAPE['\f'] = 'f';
+        ESCAPE['\r'] = 'r';
+        ESCAPE['"'] = '"';
+        ESCAPE['\\'] = '\\';
+        ESCAPE['/'] = '/';
+    }
+
+
+    /**
+     * Output gathered as chars and written to the writer in blocks.
+     */
+    static JSONOutput over(Writer target) {
+        return new Chars(target);
+    }
+
+
+    /**
+     * Output kept in memory for toString.
+     */
+    static JSONOutput forString() {
+        return new Chars(null);
+    }
+
+
+    /**
+     * Output kept in memory for toString, of about the size given,
+     * using its own buffer.
+     */
+    static JSONOutput forString(int capacity) {
+        return new Chars(capacity);
+    }
+
+
+    /**
+     * Output encoded as UTF-8 and written to the stream in blocks.
+     */
+    static JSONOutput over(OutputStream target) {
+        return new Utf8(target, null);
+    }
+
+
+    /**
+     * Output encoded as UTF-8 and fed to the digest in blocks, so that the
+     * text is hashed without ever being held as a whole.
+     */
+    static JSONOutput over(final MessageDigest digest) {
+        return new Utf8(new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        }, null);
+    }
+
+
+    /**
+     * Output encoded as UTF-8 and put into the byte buffer in blocks.
+     * When it runs out of room, a BufferOverflowException is thrown.
+     */
+    static JSONOutput over(ByteBuffer target) {
+        return new Utf8(null, target);
+    }
+
+
+    /**
+     * @return true if the character at position i of the string needs an escape.
+     *         Beyond ASCII, these are the C1 controls and the block of
+     *         punctuation from 0x2000, which includes the line and paragraph
+     *         separators that JavaScript does not allow in a string.
+     */
+    static boolean needsEscape(String string, int i, char c) {
+        if (c < 128) {
+            char esc = ESCAPE[c];
+            return esc != 0 && (esc != '/' || i > 0 && string.charAt(i - 1) == '<');
+        }
+        return c < 0xA0 || (c >= 0x2000 && c < 0x2100);
+    }
+
+
+    /**
+     * Set for the canonical form, where numbers are written by value
+     * and bytes kept from an earlier write can not be used.
+     */
+    private boolean canonical;
+
+
+    /**
+     * Make this output write the canonical form.
+     * @return this
+     */
+    JSONOutput canonical() {
+        this.canonical = true;
+        return this;
+    }
+
+
+    boolean isCanonical() {
+        return this.canonical;
+    }
+
+
+    /**
+     * Write bytes as lowercase hex digits.
+     */
+    void writeHex(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            this.write(HEX[(b >> 4) & 0xF]);
+            this.write(HEX[b & 0xF]);
+        }
+    }
+
+
+    @Override
+    public void write(String str) throws IOException {
+        this.write(str, 0, str.length());
+    }
+
+
+    void writeNull() throws IOException {
+        this.write("null", 0, 4);
+    }
+
+
+    void writeBoolean(boolean value) throws IOException {
+        if (value) {
+            this.write("true", 0, 4);
+        }
+        else {
+            this.write("false", 0, 5);
+        }
+    }
+
+
+    /**
+     * Write a string in double quotes with the characters that need it
+     * escaped, the same as JSONObject.quote.
+     */
+    abstract void writeQuoted(String string) throws IOException;
+
+
+    /**
+     * Write a finite double as the shortest text that reads back as the
+     * same double, see DoubleFormat.
+     */
+    abstract void writeDouble(double d) throws IOException;
+
+
+    /**
+     * @return true if this output is encoded as UTF-8, and so can be given
+     *         bytes that were kept from an earlier write.
+     */
+    boolean isUtf8() {
+        return false;
+    }
+
+
+    /**
+     * Write bytes that are already UTF-8 encoded JSON text.  Only an output
+     * for which isUtf8 is true can do this.
+     */
+    void writeBytes(byte[] bytes) throws IOException {
+        throw new UnsupportedOperationException("writeBytes on output that is not UTF-8");
+    }
+
+
+    /**
+     * Pass everything in the buffer on to the destination, without
+     * flushing the destination itself.
+     */
+    abstract void flushBuffer() throws IOException;
+
+
+    /**
+     * @return how many chars or bytes are in the buffer, not yet passed on
+     */
+    abstract int buffered();
+
+
+    /**
+     * Give the buffer back to be used by the next output on this thread.
+     * Nothing can be written after this.
+     */
+    abstract void release();
+
+
+    private static final class Chars extends JSONOutput {
+
+        private static final ThreadLocal<char[]> spare = new ThreadLocal<char[]>();
+
+        private final Writer target;
+        private char[] buf;
+        private int pos;
+
+        Chars(Writer target) {
+            this.target = target;
+            this.buf = spare.get();
+            if (this.buf == null) {
+                this.buf = new char[BUFFER_SIZE];
+            }
+            else {
+                spare.set(null);
+            }
+        }
+
+        Chars(int capacity) {
+            this.target = null;
+            this.buf = new char[capacity];
+        }
+
+        /**
+         * Get room for at least n more characters.  With a destination, this
+         * can fail to make that much room when n is bigger than the buffer.
+         */
+        private void ensure(int n) throws IOException {
+            if (this.pos + n <= this.buf.length) {
+                return;
+            }
+            if (this.target != null) {
+                this.flushBuffer();
+                return;
+            }
+            char[] grown = new char[Math.max(this.buf.length * 2, this.pos + n)];
+            System.arraycopy(this.buf, 0, grown, 0, this.pos);
+            this.buf = grown;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (this.pos == this.buf.length) {
+                this.ensure(1);
+            }
+            this.buf[this.pos++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            this.ensure(len);
+            if (len > this.buf.length - this.pos) {
+                this.target.write(cbuf, off, len);
+                return;
+            }
+            System.arraycopy(cbuf, off, this.buf, this.pos, len);
+            this.pos += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            this.ensure(len);
+            if (len > this.buf.length - this.pos) {
+                this.target.write(str, off, len);
+                return;
+            }
+            str.getChars(off, off + len, this.buf, this.pos);
+            this.pos += len;
+        }
+
+        @Override
+        void writeDouble(double d) throws IOException {
+            this.ensure(DoubleFormat.MAX_CHARS);
+            this.pos = DoubleFormat.format(d, this.buf, this.pos);
+        }
+
+        @Override
+        void writeQuoted(String string) throws IOException {
+            if (string == null || string.length() == 0) {
+                this.write("\"\"", 0, 2);
+                return;
+            }
+            int len = string.length();
+            this.write('"');
+            int start = 0;
+            for (int i = 0; i < len; i++) {
+                char c = string.charAt(i);
+                if (!needsEscape(string, i, c)) {
+                    continue;
+                }
+                if (i > start) {
+                    this.write(string, start, i - start);
+                }
+                this.writeEscape(c);
+                start = i + 1;
+            }
+            if (len > start) {
+                this.write(string, start, len - start);
+            }
+            this.write('"');
+        }
+
+        private void writeEscape(char c) throws IOException {
+            this.ensure(6);
+            char[] b = this.buf;
+            int p = this.pos;
+            char esc = c < 128 ? ESCAPE[c] : 'u';
+            b[p++] = '\\';
+            if (esc == 'u') {
+                b[p++] = 'u';
+                b[p++] = HEX[(c >> 12) & 0xF];
+                b[p++] = HEX[(c >> 8) & 0xF];
+                b[p++] = HEX[(c >> 4) & 0xF];
+                b[p++] = HEX[c & 0xF];
+            }
+            else {
+                b[p++] = esc;
+            }
+            this.pos = p;
+        }
+
+        @Override
+        void flushBuffer() throws IOException {
+            if (this.pos > 0 && this.target != null) {
+                this.target.write(this.buf, 0, this.pos);
+                this.pos = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.flushBuffer();
+            if (this.target != null) {
+                this.target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.flushBuffer();
+            if (this.target != null) {
+                this.target.close();
+            }
+        }
+
+        @Override
+        int buffered() {
+            return this.pos;
+        }
+
+        @Override
+        void release() {
+            if (this.buf != null && this.buf.length <= KEEP_LIMIT) {
+                spare.set(this.buf);
+            }
+            this.buf = null;
+        }
+
+        /**
+         * @return everything written, when there is no destination
+         */
+        @Override
+        public String toString() {
+            return new String(this.buf, 0, this.pos);
+        }
+    }
+
+
+    /**
+     * Output encoded to UTF-8 as it is written.  A char that is half of a
+     * surrogate pair without the other half is written as '?', which is
+     * what the UTF-8 encoder of an OutputStreamWriter does.
+     */
+    private static final class Utf8 extends JSONOutput {
+
+        private static final ThreadLocal<byte[]> spare = new ThreadLocal<byte[]>();
+
+        private static final byte[] NULL_BYTES  = {'n', 'u', 'l', 'l'};
+        private static final byte[] TRUE_BYTES  = {'t', 'r', 'u', 'e'};
+        private static final byte[] FALSE_BYTES = {'f', 'a', 'l', 's', 'e'};
+
+        private final OutputStream stream;
+        private final ByteBuffer   dest;
+        private byte[] buf;
+        private int pos;
+
+        /**
+         * The first half of a surrogate pair, when the last char written was one.
+         */
+        private char high;
+
+        /**
+         * Where the chars of a string are taken out to be quoted.
+         */
+        private final char[] chars = new char[512];
+
+        Utf8(OutputStream stream, ByteBuffer dest) {
+            this.stream = stream;
+            this.dest = dest;
+            this.buf = spare.get();
+            if (this.buf == null) {
+                this.buf = new byte[BUFFER_SIZE];
+            }
+            else {
+                spare.set(null);
+            }
+        }
+
+        private void room(int n) throws IOException {
+            if (this.pos + n > this.buf.length) {
+                this.drain();
+            }
+        }
+
+        @Override
+        void writeDouble(double d) throws IOException {
+            this.endPair();
+            int n = DoubleFormat.format(d, this.chars, 0);
+            this.room(n);
+            byte[] b = this.buf;
+            int p = this.pos;
+            for (int i = 0; i < n; i++) {
+                b[p++] = (byte) this.chars[i];
+            }
+            this.pos = p;
+        }
+
+        @Override
+        boolean isUtf8() {
+            return true;
+        }
+
+        @Override
+        void writeBytes(byte[] bytes) throws IOException {
+            if (bytes.length <= this.buf.length) {
+                this.put(bytes);
+                return;
+            }
+            this.endPair();
+            this.drain();
+            if (this.stream != null) {
+                this.stream.write(bytes);
+            }
+            else {
+                this.dest.put(bytes);
+            }
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            this.endPair();
+            this.room(bytes.length);
+            System.arraycopy(bytes, 0, this.buf, this.pos, bytes.length);
+            this.pos += bytes.length;
+        }
+
+        /**
+         * Write a '?' for a first half of a surrogate pair that was not
+         * followed by the second half.
+         */
+        private void endPair() throws IOException {
+            if (this.high != 0) {
+                this.high = 0;
+                this.room(1);
+                this.buf[this.pos++] = '?';
+            }
+        }
+
+        /**
+         * Encode one char, pairing surrogates across calls.
+         */
+        private void put(char c) throws IOException {
+            if (this.high != 0) {
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(this.high, c);
+                    this.high = 0;
+                    this.room(4);
+                    this.putCodePoint(cp);
+                    return;
+                }
+                this.endPair();
+            }
+            this.room(3);
+            byte[] b = this.buf;
+            if (c < 0x80) {
+                b[this.pos++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                b[this.pos++] = (byte) (0xC0 | (c >> 6));
+                b[this.pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c)) {
+                this.high = c;
+            }
+            else if (Character.isLowSurrogate(c)) {
+                b[this.pos++] = '?';
+            }
+            else {
+                b[this.pos++] = (byte) (0xE0 | (c >> 12));
+                b[this.pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[this.pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        private void putCodePoint(int cp) {
+            byte[] b = this.buf;
+            b[this.pos++] = (byte) (0xF0 | (cp >> 18));
+            b[this.pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            b[this.pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            b[this.pos++] = (byte) (0x80 | (cp & 0x3F));
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (c < 0x80 && this.high == 0 && this.pos < this.buf.length) {
+                this.buf[this.pos++] = (byte) c;
+                return;
+            }
+            this.put((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                char c = cbuf[i];
+                if (c < 0x80 && this.high == 0 && this.pos < this.buf.length) {
+                    this.buf[this.pos++] = (byte) c;
+                }
+                else {
+                    this.put(c);
+                }
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                char c = str.charAt(i);
+                if (c < 0x80 && this.high == 0 && this.pos < this.buf.length) {
+                    this.buf[this.pos++] = (byte) c;
+                }
+                else {
+                    this.put(c);
+                }
+            }
+        }
+
+        @Override
+        void writeNull() throws IOException {
+            this.put(NULL_BYTES);
+        }
+
+        @Override
+        void writeBoolean(boolean value) throws IOException {
+            this.put(value ? TRUE_BYTES : FALSE_BYTES);
+        }
+
+        /**
+         * Quotes and encodes in one pass.  The chars of the string are taken
+         * out in blocks, so that the loop works on an array.  A block never
+         * ends in the middle of a surrogate pair, so pairs are always whole
+         * within a block and are paired here directly.
+         */
+        @Override
+        void writeQuoted(String string) throws IOException {
+            this.endPair();
+            int len = string == null ? 0 : string.length();
+            this.room(2);
+            this.buf[this.pos++] = '"';
+            char[] cs = this.chars;
+            int base = 0;
+            while (base < len) {
+                int n = Math.min(cs.length, len - base);
+                if (n > 1 && base + n < len && Character.isHighSurrogate(string.charAt(base + n - 1))) {
+                    n--;
+                }
+                string.getChars(base, base + n, cs, 0);
+                int j = 0;
+                while (j < n) {
+                    //copy plain ASCII as far as the block or the buffer goes
+                    byte[] b = this.buf;
+                    int p = this.pos;
+                    int stop = Math.min(n, j + b.length - p);
+                    while (j < stop) {
+                        char c = cs[j];
+                        if (c >= 0x80 || ESCAPE[c] != 0) {
+                            break;
+                        }
+                        b[p++] = (byte) c;
+                        j++;
+                    }
+                    this.pos = p;
+                    if (j == n) {
+                        break;
+                    }
+                    if (j == stop) {
+                        this.drain();
+                        continue;
+                    }
+                    j = this.writeSpecial(string, base, cs, j, n);
+                }
+                base += n;
+            }
+            this.room(1);
+            this.buf[this.pos++] = '"';
+        }
+
+        /**
+         * Write a char that is not plain ASCII: an escape, a slash, or a char
+         * that takes more than one byte.
+         * @return the position in the block after what was written
+         */
+        private int writeSpecial(String string, int base, char[] cs, int j, int n) throws IOException {
+            char c = cs[j];
+            if (c == '/') {
+                char prev = j > 0 ? cs[j - 1] : base > 0 ? string.charAt(base - 1) : 0;
+                if (prev == '<') {
+                    this.writeEscape(c);
+                }
+                else {
+                    this.room(1);
+                    this.buf[this.pos++] = '/';
+                }
+                return j + 1;
+            }
+            if (c < 0xA0 || (c >= 0x2000 && c < 0x2100)) {
+                this.writeEscape(c);
+                return j + 1;
+            }
+            this.room(4);
+            byte[] b = this.buf;
+            if (c < 0x800) {
+                b[this.pos++] = (byte) (0xC0 | (c >> 6));
+                b[this.pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && j + 1 < n && Character.isLowSurrogate(cs[j + 1])) {
+                    this.putCodePoint(Character.toCodePoint(c, cs[j + 1]));
+                    return j + 2;
+                }
+                b[this.pos++] = '?';
+            }
+            else {
+                b[this.pos++] = (byte) (0xE0 | (c >> 12));
+                b[this.pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[this.pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            return j + 1;
+        }
+
+        private void writeEscape(char c) throws IOException {
+            this.room(6);
+            byte[] b = this.buf;
+            int p = this.pos;
+            char esc = c < 128 ? ESCAPE[c] : 'u';
+            b[p++] = '\\';
+            if (esc == 'u') {
+                b[p++] = 'u';
+                b[p++] = (byte) HEX[(c >> 12) & 0xF];
+                b[p++] = (byte) HEX[(c >> 8) & 0xF];
+                b[p++] = (byte) HEX[(c >> 4) & 0xF];
+                b[p++] = (byte) HEX[c & 0xF];
+            }
+            else {
+                b[p++] = (byte) esc;
+            }
+            this.pos = p;
+        }
+
+        private void drain() throws IOException {
+            if (this.pos > 0) {
+                if (this.stream != null) {
+                    this.stream.write(this.buf, 0, this.pos);
+                }
+                else {
+                    this.dest.put(this.buf, 0, this.pos);
+                }
+                this.pos = 0;
+            }
+        }
+
+        @Override
+        void flushBuffer() throws IOException {
+            this.endPair();
+            this.drain();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.flushBuffer();
+            if (this.stream != null) {
+                this.stream.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.flushBuffer();
+            if (this.stream != null) {
+                this.stream.close();
+            }
+        }
+
+        @Override
+        int buffered() {
+            return this.pos;
+        }
+
+        @Override
+        void release() {
+            if (this.buf != null) {
+                spare.set(this.buf);
+            }
+            this.buf = null;
+        }
+    }
+}
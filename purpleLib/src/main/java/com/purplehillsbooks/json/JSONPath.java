@@ -0,0 +1,260 @@
+package com.purplehillsbooks.json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>A path to a value within a tree of JSONObjects and JSONArrays, split into
+ * its steps once, so that it can be used to find the value in any number of
+ * trees without splitting or allocating anything each time.</p>
+ *
+ * <pre>
+ * static final JSONPath CITY = JSONPath.compile("cust.1.address.city");
+ * ...
+ * String city = CITY.optString(data, "");
+ * </pre>
+ *
+ * <p>A path that starts with a slash is a JSON Pointer (RFC 6901), where
+ * "~1" stands for a slash and "~0" for a tilde within a key.  Any other path
+ * is a dot path, split at the dots and with each step trimmed of spaces, the
+ * way TemplateJSONRetriever has always done it.  An empty path has no steps
+ * and names the starting object itself.  A step that is a whole number is
+ * an index when the value at that point is a JSONArray, and is a key when it
+ * is a JSONObject.</p>
+ *
+ * <p>A JSONPath can not be changed, and can be used by any number of threads
+ * at once.  compile keeps the paths it has made, so the same path string
+ * used again, for example by a template rendered over and over, is not even
+ * split again.</p>
+ */
+public final class JSONPath {
+
+    /**
+     * The most compiled paths that are kept.  When there are more, all are
+     * dropped and collected again, so that a program that makes endless
+     * different paths does not use endless memory.
+     */
+    private static final int CACHE_LIMIT = 4096;
+
+    private static final ConcurrentHashMap<String, JSONPath> compiled = new ConcurrentHashMap<String, JSONPath>();
+
+    private final String   path;
+    private final String[] keys;
+
+    /**
+     * The step as an array index, or -1 where it is not a whole number.
+     */
+    private final int[]    indexes;
+
+
+    private JSONPath(String path, List<String> steps) {
+        this.path = path;
+        this.keys = steps.toArray(new String[steps.size()]);
+        this.indexes = new int[this.keys.length];
+        for (int i = 0; i < this.keys.length; i++) {
+            this.indexes[i] = parseIndex(this.keys[i]);
+        }
+    }
+
+
+    /**
+     * Get the compiled form of a path, splitting it only the first time.
+     * @throws SimpleException if the path is null
+     */
+    public static JSONPath compile(String path) {
+        if (path == null) {
+            throw new SimpleException("A JSONPath can not be made from a null path");
+        }
+        JSONPath res = compiled.get(path);
+        if (res == null) {
+            res = new JSONPath(path, split(path));
+            if (compiled.size() >= CACHE_LIMIT) {
+                compiled.clear();
+            }
+            compiled.put(path, res);
+        }
+        return res;
+    }
+
+
+    /**
+     * Split a path into its steps.  A path starting with a slash is a JSON Pointer,
+     * anything else is a dot path.  An empty path (or a pointer of just "") has no
+     * steps and names the whole document.
+     */
+    public static List<String> split(String path) {
+        List<String> ret = new ArrayList<String>();
+        if (path == null || path.length() == 0) {
+            return ret;
+        }
+        if (path.charAt(0) == '/') {
+            int pos = 1;
+            for (;;) {
+                int slashPos = path.indexOf('/', pos);
+                String step = slashPos < 0 ? path.substring(pos) : path.substring(pos, slashPos);
+                ret.add(step.replace("~1", "/").replace("~0", "~"));
+                if (slashPos < 0) {
+                    return ret;
+                }
+                pos = slashPos + 1;
+            }
+        }
+        int pos = 0;
+        int dotPos = path.indexOf('.');
+        while (dotPos >= pos) {
+            if (dotPos > pos) {
+                ret.add(path.substring(pos, dotPos).trim());
+            }
+            pos = dotPos + 1;
+            if (pos >= path.length()) {
+                break;
+            }
+            dotPos = path.indexOf('.', pos);
+        }
+        if (pos < path.length()) {
+            ret.add(path.substring(pos).trim());
+        }
+        return ret;
+    }
+
+
+    private static int parseIndex(String step) {
+        int len = step.length();
+        if (len == 0 || len > 9) {
+            return -1;
+        }
+        int res = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = step.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            res = res * 10 + ch - '0';
+        }
+        return res;
+    }
+
+
+    /**
+     * @return the number of steps in the path
+     */
+    public int length() {
+        return this.keys.length;
+    }
+
+
+    /**
+     * @return the step as a key
+     */
+    public String key(int step) {
+        return this.keys[step];
+    }
+
+
+    /**
+     * @return the step as an array index, or -1 if it is not a whole number
+     */
+    public int index(int step) {
+        return this.indexes[step];
+    }
+
+
+    /**
+     * Find the value that the path names, starting from a JSONObject or JSONArray.
+     * @return the value, or null if any step of the path is not there
+     */
+    public Object opt(Object start) {
+        return this.opt(start, 0);
+    }
+
+
+    /**
+     * Find the value named by the path from a given step onward, for when
+     * the earlier steps have already been followed.
+     * @return the value, or null if any step of the path is not there
+     */
+    public Object opt(Object start, int fromStep) {
+        Object value = start;
+        for (int i = fromStep; i < this.keys.length; i++) {
+            if (value instanceof JSONObject) {
+                value = ((JSONObject) value).opt(this.keys[i]);
+            }
+            else if (value instanceof JSONArray && this.indexes[i] >= 0) {
+                value = ((JSONArray) value).opt(this.indexes[i]);
+            }
+            else {
+                return null;
+            }
+        }
+        return value;
+    }
+
+
+    /**
+     * Find the value that the path names.
+     * @throws SimpleException if any step of the path is not there
+     */
+    public Object get(Object start) {
+        Object value = this.opt(start, 0);
+        if (value == null) {
+            throw new SimpleException("There is no value at the path (%s)", this.path);
+        }
+        return value;
+    }
+
+
+    /**
+     * Find the string value that the path names, the same way that
+     * JSONObject.optString does for a key.
+     */
+    public String optString(Object start, String defaultValue) {
+        Object value = this.opt(start, 0);
+        return value == null || JSONObject.NULL.equals(value) ? defaultValue : value.toString();
+    }
+
+
+    /**
+     * @throws SimpleException if the path does not name a JSONObject
+     */
+    public JSONObject getJSONObject(Object start) {
+        Object value = this.get(start);
+        if (value instanceof JSONObject) {
+            return (JSONObject) value;
+        }
+        throw new SimpleException("The value at the path (%s) is not a JSONObject.", this.path);
+    }
+
+
+    /**
+     * @throws SimpleException if the path does not name a JSONArray
+     */
+    public JSONArray getJSONArray(Object start) {
+        Object value = this.get(start);
+        if (value instanceof JSONArray) {
+            return (JSONArray) value;
+        }
+        throw new SimpleException("The value at the path (%s) is not a JSONArray.", this.path);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof JSONPath && ((JSONPath) o).path.equals(this.path);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return this.path.hashCode();
+    }
+
+
+    /**
+     * @return the path as it was given
+     */
+    @Override
+    public String toString() {
+        return this.path;
+    }
+}
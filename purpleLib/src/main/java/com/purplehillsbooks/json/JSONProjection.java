@@ -0,0 +1,393 @@
+package com.purplehillsbooks.json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A JSONProjection parses a JSON object but builds only the parts of it that
+ * are named by a set of paths.  Everything else is skipped at the speed of the
+ * scanner: no strings, numbers, or maps are created for the skipped content.
+ * The result is a sparse JSONObject that has the same structure as the full
+ * document, but contains only the projected values.</p>
+ *
+ * <pre>
+ * JSONProjection proj = new JSONProjection("header.title", "/records/0/id");
+ * JSONObject sparse = proj.readFromFile(file);
+ * String title = sparse.getJSONObject("header").getString("title");
+ * </pre>
+ *
+ * <p>A path that starts with a slash is a JSON Pointer (RFC 6901), where
+ * "~1" stands for a slash and "~0" for a tilde within a key.  Any other path
+ * is a dot path split the same way that TemplateJSONRetriever does it, with
+ * each key trimmed of spaces.  Either way, a step that is a number selects
+ * that element of an array, and a step that is "*" selects every member of an
+ * object or every element of an array.</p>
+ *
+ * <p>A path that names an object or array includes the entire subtree.  A path
+ * that does not exist in the document contributes nothing, so has() on the
+ * result tells whether the value was there.  Elements of an array keep their
+ * original index, and any earlier positions that had nothing projected hold
+ * JSONObject.NULL.</p>
+ *
+ * <p>A JSONProjection holds no state from a parse, so a single instance can be
+ * used to read many documents, from many threads at once.</p>
+ */
+public class JSONProjection {
+
+    /**
+     * One step in the tree of requested paths.  When 'whole' is set the entire
+     * value at this point is wanted, otherwise only the listed children.
+     */
+    private static class Node {
+        boolean whole;
+        Map<String, Node> members = new HashMap<String, Node>();
+        Node any;
+
+        /**
+         * Keys for matching without creating a string, and the corresponding
+         * nodes, in the same order.
+         */
+        char[][] keyChars;
+        Node[]   keyNodes;
+
+        /**
+         * Child node for each array index, null where no path asks for that index
+         */
+        Node[]   byIndex;
+
+        Node child(String step) {
+            if ("*".equals(step)) {
+                if (this.any == null) {
+                    this.any = new Node();
+                }
+                return this.any;
+            }
+            Node n = this.members.get(step);
+            if (n == null) {
+                n = new Node();
+                this.members.put(step, n);
+            }
+            return n;
+        }
+
+        void merge(Node from) {
+            if (from.whole) {
+                this.whole = true;
+            }
+            for (Map.Entry<String, Node> ent : from.members.entrySet()) {
+                this.child(ent.getKey()).merge(ent.getValue());
+            }
+            if (from.any != null) {
+                this.child("*").merge(from.any);
+            }
+        }
+
+        /**
+         * Fold the wildcard into every specifically named child, and build
+         * the lookup tables used while parsing.
+         */
+        void prepare() {
+            if (this.any != null) {
+                for (Node n : this.members.values()) {
+                    n.merge(this.any);
+                }
+                this.any.prepare();
+            }
+            int count = this.members.size();
+            this.keyChars = new char[count][];
+            this.keyNodes = new Node[count];
+            int maxIndex = -1;
+            int i = 0;
+            for (Map.Entry<String, Node> ent : this.members.entrySet()) {
+                this.keyChars[i] = ent.getKey().toCharArray();
+                this.keyNodes[i] = ent.getValue();
+                ent.getValue().prepare();
+                maxIndex = Math.max(maxIndex, arrayIndex(ent.getKey()));
+                i++;
+            }
+            this.byIndex = new Node[maxIndex + 1];
+            for (Map.Entry<String, Node> ent : this.members.entrySet()) {
+                int idx = arrayIndex(ent.getKey());
+                if (idx >= 0) {
+                    this.byIndex[idx] = ent.getValue();
+                }
+            }
+        }
+
+        Node findKey(char[] buf, int start, int len) {
+            for (int i = 0; i < this.keyChars.length; i++) {
+                char[] kc = this.keyChars[i];
+                if (kc.length == len) {
+                    int j = 0;
+                    while (j < len && kc[j] == buf[start + j]) {
+                        j++;
+                    }
+                    if (j == len) {
+                        return this.keyNodes[i];
+                    }
+                }
+            }
+            return this.any;
+        }
+
+        Node findKey(String key) {
+            Node n = this.members.get(key);
+            if (n == null) {
+                n = this.any;
+            }
+            return n;
+        }
+
+        Node findIndex(int index) {
+            if (index < this.byIndex.length && this.byIndex[index] != null) {
+                return this.byIndex[index];
+            }
+            return this.any;
+        }
+    }
+
+
+    private final Node root = new Node();
+
+
+    /**
+     * Construct a projection that will include the values at all of the
+     * specified paths.
+     */
+    public JSONProjection(String... paths) {
+        for (String path : paths) {
+            addPath(path);
+        }
+        this.root.prepare();
+    }
+
+
+    /**
+     * Construct a projection that will include the values at all of the
+     * specified paths.
+     */
+    public JSONProjection(Collection<String> paths) {
+        for (String path : paths) {
+            addPath(path);
+        }
+        this.root.prepare();
+    }
+
+
+    private void addPath(String path) {
+        Node n = this.root;
+        for (String step : splitPath(path)) {
+            n = n.child(step);
+        }
+        n.whole = true;
+    }
+
+
+    /**
+     * Split a path into its steps, see JSONPath.split.
+     */
+    public static List<String> splitPath(String path) {
+        return JSONPath.split(path);
+    }
+
+
+    /**
+     * @return the array index that a step stands for, or -1 if it is not all digits
+     */
+    private static int arrayIndex(String step) {
+        int len = step.length();
+        if (len == 0 || len > 9) {
+            return -1;
+        }
+        int res = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = step.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            res = res * 10 + ch - '0';
+        }
+        return res;
+    }
+
+
+    /**
+     * Read a JSON object from the tokener, building only the projected values.
+     * @throws SimpleException If there is a syntax error.
+     */
+    public JSONObject parse(JSONTokener x) {
+        if (this.root.whole) {
+            return new JSONObject(x);
+        }
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        JSONObject result = this.readObject(x, this.root);
+        return result == null ? new JSONObject() : result;
+    }
+
+
+    /**
+     * Read a JSON object from a UTF-8 encoded file, building only the projected values.
+     */
+    public JSONObject readFromFile(File inFile) {
+        if (!inFile.exists()) {
+            throw new SimpleException("File for JSON objects does not exist: %s", inFile.getAbsolutePath());
+        }
+        try {
+            FileInputStream fis = new FileInputStream(inFile);
+            try {
+                return this.parse(new UTF8JSONTokener(fis));
+            }
+            finally {
+                fis.close();
+            }
+        }
+        catch (Exception e) {
+            throw new SimpleException("Unable to read JSON objects from file: %s", e, inFile.getAbsolutePath());
+        }
+    }
+
+
+    /**
+     * Read a value for a node that is wanted but not as a whole.  Only an
+     * object or array can contain something that was asked for.
+     * @return the sparse container, or null if nothing was projected
+     */
+    private Object readPart(JSONTokener x, Node node) {
+        char c = x.nextClean();
+        if (c == '{') {
+            return this.readObject(x, node);
+        }
+        if (c == '[') {
+            return this.readArray(x, node);
+        }
+        x.back();
+        x.skipValue();
+        return null;
+    }
+
+
+    /**
+     * Read the rest of an object, the open brace already consumed.
+     * This follows exactly the syntax of the JSONObject constructor.
+     */
+    private JSONObject readObject(JSONTokener x, Node node) {
+        JSONObject result = null;
+        for (;;) {
+            Node found;
+            String key = null;
+            char c = x.nextClean();
+            switch (c) {
+            case 0:
+                throw x.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                return result;
+            case '"':
+            case '\'':
+                int len = x.readString(c);
+                found = node.findKey(x.sbuf, 0, len);
+                if (found != null) {
+                    key = x.symbol(len);
+                }
+                break;
+            default:
+                x.back();
+                key = x.nextValue().toString();
+                found = node.findKey(key);
+            }
+
+            c = x.nextClean();
+            if (c == '=') {
+                if (x.next() != '>') {
+                    x.back();
+                }
+            } else if (c != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+
+            if (found == null) {
+                x.skipValue();
+            }
+            else {
+                Object value = found.whole ? x.nextValue() : this.readPart(x, found);
+                if (value != null) {
+                    if (result == null) {
+                        result = new JSONObject();
+                    }
+                    result.putOnce(key, value);
+                }
+            }
+
+            switch (x.nextClean()) {
+            case ';':
+            case ',':
+                if (x.nextClean() == '}') {
+                    return result;
+                }
+                x.back();
+                break;
+            case '}':
+                return result;
+            default:
+                throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+
+    /**
+     * Read the rest of an array, the open bracket already consumed.
+     * This follows exactly the syntax of the JSONArray constructor.
+     */
+    private JSONArray readArray(JSONTokener x, Node node) {
+        JSONArray result = null;
+        if (x.nextClean() == ']') {
+            return null;
+        }
+        x.back();
+        for (int index = 0; ; index++) {
+            Node found = node.findIndex(index);
+            if (x.nextClean() == ',') {
+                x.back();
+                if (found != null && found.whole) {
+                    if (result == null) {
+                        result = new JSONArray();
+                    }
+                    result.put(index, JSONObject.NULL);
+                }
+            } else {
+                x.back();
+                if (found == null) {
+                    x.skipValue();
+                }
+                else {
+                    Object value = found.whole ? x.nextValue() : this.readPart(x, found);
+                    if (value != null) {
+                        if (result == null) {
+                            result = new JSONArray();
+                        }
+                        result.put(index, value);
+                    }
+                }
+            }
+            switch (x.nextClean()) {
+            case ';':
+            case ',':
+                if (x.nextClean() == ']') {
+                    return result;
+                }
+                x.back();
+                break;
+            case ']':
+                return result;
+            default:
+                throw x.syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.purplehillsbooks.json;
+
+
+/**
+ * <p>A JSONPullParser reads a JSON text one event at a time, so that a document
+ * far larger than the available memory can be processed.  Only the nesting
+ * of the containers is remembered, so the memory used does not depend on the
+ * size of the document.</p>
+ *
+ * <pre>
+ * JSONPullParser pp = new JSONPullParser( new UTF8JSONTokener( inputStream ) );
+ * while (pp.hasNext()) {
+ *     JSONPullParser.Event event = pp.next();
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>At any point the caller can decide to materialize the container that was just
+ * started.  Immediately after a START_OBJECT event, readObject() will read the rest
+ * of that object and return it as a JSONObject, and similarly readArray() after a
+ * START_ARRAY event.  After that the parser continues with whatever follows the
+ * container.  This makes it easy to stream through a huge array of records,
+ * holding only one record in memory at a time:</p>
+ *
+ * <pre>
+ * pp.next();                                    // START_ARRAY
+ * while (pp.next() == JSONPullParser.Event.START_OBJECT) {
+ *     JSONObject record = pp.readObject();
+ *     ...
+ * }
+ * </pre>
+ *
+ * <p>The syntax accepted is exactly the syntax accepted by the JSONObject and
+ * JSONArray constructors, including unquoted strings, trailing commas, and
+ * the other lenient forms.  The one difference is that duplicate keys in an
+ * object are not detected, because that would require remembering the keys.</p>
+ */
+public class JSONPullParser {
+
+    /**
+     * The things that can be found in a JSON text.  The value of a member of
+     * an object is preceded by a KEY event.  A value that is a string, number,
+     * boolean, or null is a VALUE event, and a value that is an object or array
+     * is a START event, followed by the contents, followed by the matching END event.
+     */
+    public enum Event {
+        START_OBJECT,
+        END_OBJECT,
+        START_ARRAY,
+        END_ARRAY,
+        KEY,
+        VALUE,
+        END_DOCUMENT
+    }
+
+    private static final int START       = 0;
+    private static final int OBJ_FIRST   = 1;
+    private static final int OBJ_VALUE   = 2;
+    private static final int OBJ_AFTER   = 3;
+    private static final int ARR_FIRST   = 4;
+    private static final int ARR_ELEMENT = 5;
+    private static final int ARR_AFTER   = 6;
+    private static final int DONE        = 7;
+
+    private final JSONTokener x;
+
+    /**
+     * One entry for each open container, true for an object, false for an array.
+     */
+    private boolean[] stack = new boolean[32];
+    private int       depth;
+    private int       state = START;
+
+    private Event     event;
+    private String    key;
+    private Object    value;
+
+
+    /**
+     * Construct a pull parser that reads from a tokener.  The text must
+     * be a single JSON object or array.
+     */
+    public JSONPullParser(JSONTokener x) {
+        this.x = x;
+    }
+
+
+    /**
+     * @return true if there are more events before the end of the document
+     */
+    public boolean hasNext() {
+        return this.state != DONE;
+    }
+
+
+    /**
+     * Read the next event from the source.  Once the outermost container
+     * is complete, this returns END_DOCUMENT.
+     * @throws SimpleException If there is a syntax error.
+     */
+    public Event next() {
+        this.value = null;
+        this.event = this.advance();
+        return this.event;
+    }
+
+
+    private Event advance() {
+        char c;
+        for (;;) {
+            switch (this.state) {
+            case START:
+                c = this.x.nextClean();
+                if (c == '{') {
+                    return this.push(true);
+                }
+                if (c == '[') {
+                    return this.push(false);
+                }
+                throw this.x.syntaxError("A JSON text must begin with '{' or '['");
+
+            case OBJ_FIRST:
+                c = this.x.nextClean();
+                switch (c) {
+                case 0:
+                    throw this.x.syntaxError("A JSONObject text must end with '}'");
+                case '}':
+                    return this.pop();
+                default:
+                    this.x.back();
+                    this.key = this.x.nextKey();
+                    this.state = OBJ_VALUE;
+                    return Event.KEY;
+                }
+
+            case OBJ_VALUE:
+                // The key is followed by ':'. We will also tolerate '=' or '=>'.
+                c = this.x.nextClean();
+                if (c == '=') {
+                    if (this.x.next() != '>') {
+                        this.x.back();
+                    }
+                } else if (c != ':') {
+                    throw this.x.syntaxError("Expected a ':' after a key");
+                }
+                return this.element(OBJ_AFTER);
+
+            case OBJ_AFTER:
+                // Pairs are separated by ','. We will also tolerate ';'.
+                switch (this.x.nextClean()) {
+                case ';':
+                case ',':
+                    if (this.x.nextClean() == '}') {
+                        return this.pop();
+                    }
+                    this.x.back();
+                    this.state = OBJ_FIRST;
+                    break;
+                case '}':
+                    return this.pop();
+                default:
+                    throw this.x.syntaxError("Expected a ',' or '}'");
+                }
+                break;
+
+            case ARR_FIRST:
+                if (this.x.nextClean() == ']') {
+                    return this.pop();
+                }
+                this.x.back();
+                this.state = ARR_ELEMENT;
+                break;
+
+            case ARR_ELEMENT:
+                if (this.x.nextClean() == ',') {
+                    // an empty element in an array is a null
+                    this.x.back();
+                    this.value = JSONObject.NULL;
+                    this.state = ARR_AFTER;
+                    return Event.VALUE;
+                }
+                this.x.back();
+                return this.element(ARR_AFTER);
+
+            case ARR_AFTER:
+                switch (this.x.nextClean()) {
+                case ';':
+                case ',':
+                    if (this.x.nextClean() == ']') {
+                        return this.pop();
+                    }
+                    this.x.back();
+                    this.state = ARR_ELEMENT;
+                    break;
+                case ']':
+                    return this.pop();
+                default:
+                    throw this.x.syntaxError("Expected a ',' or ']'");
+                }
+                break;
+
+            default:
+                return Event.END_DOCUMENT;
+            }
+        }
+    }
+
+
+    /**
+     * Read a value in an object or array.  A container is opened, anything
+     * else is read completely.
+     * @param after the state to be in after a complete value
+     */
+    private Event element(int after) {
+        char c = this.x.nextClean();
+        if (c == '{') {
+            return this.push(true);
+        }
+        if (c == '[') {
+            return this.push(false);
+        }
+        this.x.back();
+        this.value = this.x.nextValue();
+        this.state = after;
+        return Event.VALUE;
+    }
+
+
+    private Event push(boolean isObject) {
+        if (this.depth == this.stack.length) {
+            boolean[] newStack = new boolean[this.depth * 2];
+            System.arraycopy(this.stack, 0, newStack, 0, this.depth);
+            this.stack = newStack;
+        }
+        this.stack[this.depth++] = isObject;
+        if (isObject) {
+            this.state = OBJ_FIRST;
+            return Event.START_OBJECT;
+        }
+        this.state = ARR_FIRST;
+        return Event.START_ARRAY;
+    }
+
+
+    private Event pop() {
+        boolean wasObject = this.stack[--this.depth];
+        if (this.depth == 0) {
+            this.state = DONE;
+        }
+        else {
+            this.state = this.stack[this.depth - 1] ? OBJ_AFTER : ARR_AFTER;
+        }
+        return wasObject ? Event.END_OBJECT : Event.END_ARRAY;
+    }
+
+
+    /**
+     * @return the event most recently returned by next()
+     */
+    public Event getEvent() {
+        return this.event;
+    }
+
+
+    /**
+     * @return the most recently read key.  While positioned on the value
+     * of an object member, this is the key of that member.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+
+    /**
+     * @return the value for a VALUE event: a Boolean, Double, Integer, Long,
+     * String, or JSONObject.NULL.  For any other event this is null.
+     */
+    public Object getValue() {
+        return this.value;
+    }
+
+
+    /**
+     * @return the number of containers that are open.  This is 1 for the
+     * contents of the outermost object or array.
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+
+    /**
+     * Immediately after a START_OBJECT event, read the rest of that object
+     * and return it as a JSONObject.  The parser continues with whatever
+     * follows the object, and the current event becomes END_OBJECT.
+     * @throws SimpleException If not positioned on a START_OBJECT event
+     * or if there is a syntax error.
+     */
+    public JSONObject readObject() {
+        if (this.event != Event.START_OBJECT) {
+            throw new SimpleException("readObject can only be called immediately after a START_OBJECT event, not %s", this.event);
+        }
+        this.x.back();
+        JSONObject result = new JSONObject(this.x);
+        this.event = this.pop();
+        return result;
+    }
+
+
+    /**
+     * Immediately after a START_ARRAY event, read the rest of that array
+     * and return it as a JSONArray.  The parser continues with whatever
+     * follows the array, and the current event becomes END_ARRAY.
+     * @throws SimpleException If not positioned on a START_ARRAY event
+     * or if there is a syntax error.
+     */
+    public JSONArray readArray() {
+        if (this.event != Event.START_ARRAY) {
+            throw new SimpleException("readArray can only be called immediately after a START_ARRAY event, not %s", this.event);
+        }
+        this.x.back();
+        JSONArray result = new JSONArray(this.x);
+        this.event = this.pop();
+        return result;
+    }
+
+
+    /**
+     * Immediately after a START_OBJECT or START_ARRAY event, skip over the
+     * rest of that container so that the current event becomes the matching
+     * END event.  The skipped content is scanned but nothing is built from it.
+     * For any other event this does nothing.
+     * @throws SimpleException If there is a syntax error.
+     */
+    public void skipChildren() {
+        if (this.event != Event.START_OBJECT && this.event != Event.START_ARRAY) {
+            return;
+        }
+        this.x.back();
+        this.x.skipValue();
+        this.event = this.pop();
+    }
+}
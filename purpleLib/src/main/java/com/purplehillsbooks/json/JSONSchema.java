@@ -27,6 +27,11 @@ public class JSONSchema {
 
     private List<String> errors = new ArrayList<String>();
 
+    /**
+     * The schema passed to checkSchema, which local references are found in.
+     */
+    private JSONObject rootSchema;
+
     public JSONSchema() {
         //
     }
@@ -193,6 +198,23 @@ public class JSONSchema {
     }
 
 
+    /**
+     * A reference that starts with '#' is a JSON Pointer within the schema
+     * being checked, for example "#/definitions/address".  Any other reference
+     * is the name of a schema in the schema library.
+     */
+    private JSONObject getReferencedSchema(String ref) throws Exception {
+        if (ref.startsWith("#")) {
+            Object found = JSONPath.compile(ref.substring(1)).opt(rootSchema);
+            if (found instanceof JSONObject) {
+                return (JSONObject) found;
+            }
+            throw new SimpleException("Schema reference (%s) does not address an object within the schema", ref);
+        }
+        return schemaLib.getSchema(ref);
+    }
+
+
     private void addLog(String line) {
         if (recordSuccess) {
             errors.add(line);
@@ -210,7 +232,7 @@ public class JSONSchema {
             if (schema.has("$ref")) {
                 String schemaName = schema.getString("$ref");
                 addLog("   ~Retrieving schema named '"+schemaName);
-                schema = schemaLib.getSchema(schemaName);
+                schema = getReferencedSchema(schemaName);
             }
             if (!schema.has("type")) {
                 //we don't know the type, so don't check any further.
@@ -253,7 +275,7 @@ public class JSONSchema {
                 if (p.has("$ref")) {
                     String schemaName = p.getString("$ref");
                     addLog("   ~Retrieving property '"+key+"' schema named '"+schemaName);
-                    p = schemaLib.getSchema(schemaName);
+                    p = getReferencedSchema(schemaName);
                 }
                 if (!p.has("type")) {
                     //the schema does not specify the type, so don't check this property at all
@@ -383,7 +405,7 @@ public class JSONSchema {
             if (schema.has("$ref")) {
                 String schemaName = schema.getString("$ref");
                 addLog("   ~Retrieving schema named '"+schemaName);
-                schema = schemaLib.getSchema(schemaName);
+                schema = getReferencedSchema(schemaName);
             }
             if (!"array".equals(schema.getString("type"))) {
                 addErrorLog("@"+path+" - found an array, but schema expects it to be: "+schema.getString("type"));
@@ -401,7 +423,7 @@ public class JSONSchema {
             if (s.has("$ref")) {
                 String schemaName = s.getString("$ref");
                 addLog("   ~Retrieving item schema named '"+schemaName);
-                s = schemaLib.getSchema(schemaName);
+                s = getReferencedSchema(schemaName);
             }
             if (!s.has("type")) {
                 //the schema does not specify the type, so don't check this array items
@@ -473,6 +495,7 @@ public class JSONSchema {
     }
 
     public boolean checkSchema(JSONObject data, JSONObject schema) throws Exception {
+        rootSchema = schema;
         return checkSchemaRunner("", data, schema);
     }
 
@@ -1,11 +1,11 @@
 package com.purplehillsbooks.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -34,27 +34,97 @@ SOFTWARE.
 /**
  * <p>A JSONTokener takes a source stream and parses it for the JSONObject / JSONArray.
  * The only way to use this is in a constructor to a JSONObject / JSONArray.</p>
- * 
+ *
  * <h1>USAGE</h1>
- * 
+ *
  * <pre>
  * JSONObject jo = new JSONObject( new JSONTokener( input ) );
  * JSONArray ja = new JSONArray( new JSONTokener( input ) );
  * </pre>
- * 
+ *
  * <p>The variable <code>input</code> can be an inputStream, a reader, or a String.
- * If inputStream is used, be sure that the stream is encoded in UTF-8.  In practice you 
+ * If inputStream is used, be sure that the stream is encoded in UTF-8.  In practice you
  * should never need to use any method on this class, only the constructors.</p>
+ *
+ * <p>The source is read in large blocks into a char array window, and the
+ * strings, unquoted values, and whitespace are scanned in tight loops over
+ * that window.  Only the characters that need special attention (quotes,
+ * escapes, line ends, and the end of the window) go through the character
+ * at a time path, so the line and character positions reported in syntax
+ * errors are exactly the same as they would be reading one character at a time.</p>
  */
 public class JSONTokener {
 
-    private long    character;
-    private boolean eof;
-    private long    index;
-    private long    line;
-    private char    previous;
+    /**
+     * Size of the char window used when reading from a Reader
+     * and no other size is specified.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+    /**
+     * Characters that end an unquoted value.  Only ASCII characters can be
+     * delimiters, so this table is indexed by the character value.
+     */
+    private static final boolean[] DELIMITER = new boolean[128];
+    static {
+        for (char c : ",:]}/\\\"[{;=#".toCharArray()) {
+            DELIMITER[c] = true;
+        }
+    }
+
+    long    character;
+    boolean eof;
+    long    index;
+    long    line;
+    char    previous;
+    boolean usePrevious;
+
     private Reader  reader;
-    private boolean usePrevious;
+
+    /**
+     * The window of characters read from the source.  Characters from
+     * pos up to limit have not been consumed yet.  When reading from a string
+     * the window is the entire string and there is no reader.
+     */
+    private char[]  buf;
+    private int     pos;
+    private int     limit;
+    private int     markPos = -1;
+
+    /**
+     * Reusable scratch space for collecting the contents of a string or
+     * unquoted value before turning it into an object.
+     */
+    char[] sbuf = new char[64];
+
+    /**
+     * When set, decimal numbers are returned as BigDecimal, and integers
+     * too large for a long as BigInteger.
+     */
+    private boolean useBigNumbers;
+
+    /**
+     * When set, objects read keep their members in the order of the source.
+     */
+    private boolean keepKeyOrder;
+
+    /**
+     * Canonical strings for keys, created on the first key unless supplied.
+     */
+    private SymbolTable symbols;
+
+    /**
+     * String values up to this length are also taken from the symbol table.
+     */
+    private int dedupLength;
+
+    /**
+     * Powers of ten that are exactly representable as a double.
+     */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
 
 
     /**
@@ -64,22 +134,30 @@ public class JSONTokener {
      * which the JSONObject will be formed.
      */
     public JSONTokener(Reader source) {
+        this(source, DEFAULT_BUFFER_SIZE);
+    }
+
+
+    /**
+     * Construct a JSONTokener from a Reader using a char window of the specified
+     * size.  The source is read in blocks of this size, so there is no reason
+     * to wrap the source in a BufferedReader.
+     *
+     * @param source the reader from which the characters will be read
+     * @param bufferSize the number of characters to read at a time
+     */
+    public JSONTokener(Reader source, int bufferSize) {
+        this();
         this.reader = source;
-        if (!source.markSupported()) {
-            reader = new BufferedReader(source);
-        }
-        this.eof = false;
-        this.usePrevious = false;
-        this.previous = 0;
-        this.index = 0;
-        this.character = 1;
-        this.line = 1;
+        this.buf = new char[Math.max(bufferSize, 16)];
     }
 
 
     /**
      * Construct a JSONTokener from an InputStream.  The stream must be UTF-8 encoded.
-     * 
+     * Consider using UTF8JSONTokener instead, which scans the bytes directly
+     * and avoids decoding the entire stream to characters first.
+     *
      * @param source the input stream from which the bytes will be read from, parsed, and from
      * which the JSONObject will be formed.
      */
@@ -94,7 +172,38 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this(s.toCharArray(), 0, s.length());
+    }
+
+
+    /**
+     * Construct a JSONTokener that scans a range of a char array directly.
+     * The array is used as is, and not copied, so it must not be changed
+     * while the parse is going on.
+     *
+     * @param chars   the array holding the JSON text
+     * @param offset  the position of the first character of the JSON text
+     * @param length  the number of characters of JSON text
+     */
+    public JSONTokener(char[] chars, int offset, int length) {
+        this();
+        this.buf = chars;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+
+    /**
+     * Sets up the position tracking only.  Used by subclasses that supply
+     * the characters some other way.
+     */
+    JSONTokener() {
+        this.eof = false;
+        this.usePrevious = false;
+        this.previous = 0;
+        this.index = 0;
+        this.character = 1;
+        this.line = 1;
     }
 
 
@@ -153,6 +262,84 @@ public class JSONTokener {
     }
 
 
+    /**
+     * Read the next character from the source, refilling the window if needed.
+     * @return the character, or -1 at the end of the source
+     */
+    int read() {
+        if (this.pos >= this.limit && !fill()) {
+            return -1;
+        }
+        return this.buf[this.pos++];
+    }
+
+
+    /**
+     * Slide the unread part of the window (or the marked part) to the front,
+     * and read more characters from the reader after it.
+     * @return true if more characters are available
+     */
+    private boolean fill() {
+        if (this.reader == null) {
+            return false;
+        }
+        try {
+            int keep = this.markPos >= 0 ? this.markPos : this.pos;
+            if (keep > 0) {
+                System.arraycopy(this.buf, keep, this.buf, 0, this.limit - keep);
+                this.limit -= keep;
+                this.pos -= keep;
+                if (this.markPos >= 0) {
+                    this.markPos = 0;
+                }
+            }
+            if (this.limit == this.buf.length) {
+                //only happens while marked, need more room to hold it all
+                char[] newBuf = new char[this.buf.length * 2];
+                System.arraycopy(this.buf, 0, newBuf, 0, this.limit);
+                this.buf = newBuf;
+            }
+            int n = 0;
+            while (n == 0) {
+                n = this.reader.read(this.buf, this.limit, this.buf.length - this.limit);
+            }
+            if (n < 0) {
+                return false;
+            }
+            this.limit += n;
+            return true;
+        } catch (IOException exception) {
+            throw new SimpleException("Error while reading a character from input", exception);
+        }
+    }
+
+
+    /**
+     * Remember the current source position so that resetSource can
+     * return to it.
+     */
+    void markSource() {
+        this.markPos = this.pos;
+    }
+
+
+    /**
+     * Return to the position remembered by markSource.
+     */
+    void resetSource() {
+        this.pos = this.markPos;
+        this.markPos = -1;
+    }
+
+
+    /**
+     * Forget the position remembered by markSource.
+     */
+    void unmarkSource() {
+        this.markPos = -1;
+    }
+
+
     /**
      * Get the next character in the source string.
      *
@@ -164,12 +351,7 @@ public class JSONTokener {
             this.usePrevious = false;
             c = this.previous;
         } else {
-            try {
-                c = this.reader.read();
-            } catch (IOException exception) {
-                throw new SimpleException("Error while reading a character from input", exception);
-            }
-
+            c = this.read();
             if (c <= 0) { // End of stream
                 this.eof = true;
                 c = 0;
@@ -242,6 +424,10 @@ public class JSONTokener {
      */
     public char nextClean() {
         for (;;) {
+            int fast = this.whitespaceRun();
+            if (fast >= 0) {
+                return (char) fast;
+            }
             char c = this.next();
             if (c == 0 || c > ' ') {
                 return c;
@@ -250,6 +436,71 @@ public class JSONTokener {
     }
 
 
+    /**
+     * Skip spaces and tabs right out of the window.  If an ordinary character
+     * follows them, it is consumed and returned.  Line ends and the end of the
+     * window are left for next() to handle.
+     * @return the ordinary character consumed, or -1 if there was none
+     */
+    int whitespaceRun() {
+        if (this.buf == null || this.usePrevious || this.previous == '\r') {
+            return -1;
+        }
+        char[] b = this.buf;
+        int p = this.pos;
+        int lim = this.limit;
+        while (p < lim) {
+            char c = b[p];
+            if (c > ' ') {
+                this.advance(p + 1 - this.pos);
+                return c;
+            }
+            if (c != ' ' && c != '\t') {
+                break;
+            }
+            p++;
+        }
+        if (p > this.pos) {
+            this.advance(p - this.pos);
+        }
+        return -1;
+    }
+
+
+    /**
+     * Consume n characters from the window, none of which is a line end,
+     * keeping the position counters exactly as next() would.
+     */
+    private void advance(int n) {
+        this.pos += n;
+        this.counted(n, this.buf[this.pos - 1]);
+    }
+
+
+    /**
+     * Update the position counters for n characters consumed in a run,
+     * none of which is a line end.
+     */
+    final void counted(int n, char last) {
+        this.index += n;
+        this.character += n;
+        this.previous = last;
+    }
+
+
+    /**
+     * Make sure the scratch buffer can hold the requested number of characters.
+     */
+    final char[] growScratch(int needed) {
+        if (needed > this.sbuf.length) {
+            char[] newBuf = new char[Math.max(needed, this.sbuf.length * 2)];
+            System.arraycopy(this.sbuf, 0, newBuf, 0, this.sbuf.length);
+            this.sbuf = newBuf;
+        }
+        return this.sbuf;
+    }
+
+
     /**
      * Return the characters up to the next close quote character.
      * Backslash processing is done. The formal JSON format does not
@@ -262,10 +513,72 @@ public class JSONTokener {
      * @throws Exception Unterminated string.
      */
     public String nextString(char quote) {
+        int len = this.readString(quote);
+        return new String(this.sbuf, 0, len);
+    }
+
+
+    /**
+     * Read the key of an object member.  A quoted key is taken from the
+     * symbol table, so that every occurrence of the same key shares
+     * one String.  An unquoted key is read as any other value would be.
+     * @return the key as a String
+     */
+    public String nextKey() {
+        char c = this.nextClean();
+        if (c == '"' || c == '\'') {
+            return this.symbol(this.readString(c));
+        }
+        this.back();
+        return this.nextValue().toString();
+    }
+
+
+    /**
+     * @return the canonical String for the first len characters of the scratch buffer
+     */
+    String symbol(int len) {
+        if (this.symbols == null) {
+            this.symbols = new SymbolTable();
+        }
+        return this.symbols.lookup(this.sbuf, 0, len);
+    }
+
+
+    /**
+     * Use the specified symbol table for keys, for example to share the keys
+     * across many parses with SymbolTable.forThread().  Without this, each
+     * tokener has a symbol table of its own.
+     */
+    public void setSymbolTable(SymbolTable table) {
+        this.symbols = table;
+    }
+
+
+    /**
+     * Also take string values up to the specified length from the symbol table,
+     * so that short values which repeat, like status codes or type names, share
+     * one String.  Zero, the default, turns this off.
+     */
+    public void setDedupStringLength(int maxLength) {
+        this.dedupLength = maxLength;
+    }
+
+
+    /**
+     * Scan a quoted string into the scratch buffer, the opening quote having
+     * already been consumed.  Runs of ordinary characters are copied straight
+     * out of the window, and only escapes, line ends, and the closing quote
+     * are handled a character at a time.
+     * @return the number of characters placed in the scratch buffer
+     */
+    int readString(char quote) {
         char c;
-        StringBuffer sb = new StringBuffer();
+        int len = 0;
         for (;;) {
+            len = this.stringRun(quote, len);
             c = this.next();
+            char[] sb = this.growScratch(len + 1);
             switch (c) {
             case 0:
             case '\n':
@@ -275,28 +588,28 @@ public class JSONTokener {
                 c = this.next();
                 switch (c) {
                 case 'b':
-                    sb.append('\b');
+                    sb[len++] = '\b';
                     break;
                 case 't':
-                    sb.append('\t');
+                    sb[len++] = '\t';
                     break;
                 case 'n':
-                    sb.append('\n');
+                    sb[len++] = '\n';
                     break;
                 case 'f':
-                    sb.append('\f');
+                    sb[len++] = '\f';
                     break;
                 case 'r':
-                    sb.append('\r');
+                    sb[len++] = '\r';
                     break;
                 case 'u':
-                    sb.append((char)Integer.parseInt(this.next(4), 16));
+                    sb[len++] = (char)Integer.parseInt(this.next(4), 16);
                     break;
                 case '"':
                 case '\'':
                 case '\\':
                 case '/':
-                    sb.append(c);
+                    sb[len++] = c;
                     break;
                 default:
                     throw this.syntaxError("Illegal escape.");
@@ -304,14 +617,47 @@ public class JSONTokener {
                 break;
             default:
                 if (c == quote) {
-                    return sb.toString();
+                    return len;
                 }
-                sb.append(c);
+                sb[len++] = c;
             }
         }
     }
 
 
+    /**
+     * Copy a run of ordinary string characters straight out of the window
+     * into the scratch buffer, stopping at a quote, backslash, line end, or
+     * the end of the window.
+     * @param len the number of characters already in the scratch buffer
+     * @return the number of characters in the scratch buffer after the run
+     */
+    int stringRun(char quote, int len) {
+        if (this.buf == null || this.usePrevious || this.previous == '\r') {
+            return len;
+        }
+        char[] b = this.buf;
+        int start = this.pos;
+        int p = start;
+        int lim = this.limit;
+        while (p < lim) {
+            char c = b[p];
+            if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                break;
+            }
+            p++;
+        }
+        int n = p - start;
+        if (n > 0) {
+            char[] sb = this.growScratch(len + n + 1);
+            System.arraycopy(b, start, sb, len, n);
+            len += n;
+            this.advance(n);
+        }
+        return len;
+    }
+
+
     /**
      * Get the text up but not including the specified character or the
      * end of line, whichever comes first.
@@ -319,7 +665,7 @@ public class JSONTokener {
      * @return   A string.
      */
     public String nextTo(char delimiter) {
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         for (;;) {
             char c = this.next();
             if (c == delimiter || c == 0 || c == '\n' || c == '\r') {
@@ -341,7 +687,7 @@ public class JSONTokener {
      */
     public String nextTo(String delimiters) {
         char c;
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         for (;;) {
             c = this.next();
             if (delimiters.indexOf(c) >= 0 || c == 0 ||
@@ -365,12 +711,15 @@ public class JSONTokener {
      */
     public Object nextValue() {
         char c = this.nextClean();
-        String string;
 
         switch (c) {
             case '"':
             case '\'':
-                return this.nextString(c);
+                int len = this.readString(c);
+                if (len <= this.dedupLength) {
+                    return this.symbol(len);
+                }
+                return new String(this.sbuf, 0, len);
             case '{':
                 this.back();
                 return new JSONObject(this);
@@ -388,18 +737,447 @@ public class JSONTokener {
          * formatting character.
          */
 
-        StringBuffer sb = new StringBuffer();
-        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
-            sb.append(c);
+        int len = this.readUnquoted(c);
+        int start = 0;
+        while (start < len && this.sbuf[start] <= ' ') {
+            start++;
+        }
+        while (len > start && this.sbuf[len - 1] <= ' ') {
+            len--;
+        }
+        if (start == len) {
+            throw this.syntaxError("Missing value");
+        }
+        return this.unquotedToValue(start, len);
+    }
+
+
+    /**
+     * Choose whether numbers are read exactly.  Normally a decimal number
+     * is read as a Double, and an integer too large for a Long is left as
+     * a String.  With big numbers on, a decimal number is read as a BigDecimal
+     * without any rounding, and an integer too large for a Long is read as a
+     * BigInteger.  Integers that fit are still Integer or Long either way.
+     */
+    public void setUseBigNumbers(boolean useBig) {
+        this.useBigNumbers = useBig;
+    }
+
+    public boolean getUseBigNumbers() {
+        return this.useBigNumbers;
+    }
+
+
+    /**
+     * Choose whether the objects read keep their members in the order they
+     * appear in the source, see JSONObject.newInsertionOrdered.  Writing such
+     * a tree with sorting turned off reproduces the original member order.
+     */
+    public void setKeepKeyOrder(boolean keepOrder) {
+        this.keepKeyOrder = keepOrder;
+    }
+
+    public boolean getKeepKeyOrder() {
+        return this.keepKeyOrder;
+    }
+
+
+    /**
+     * Convert a trimmed unquoted value in the scratch buffer to an object,
+     * with exactly the result that JSONObject.stringToValue would give, but
+     * without creating a string for numbers, true, false, or null.
+     */
+    private Object unquotedToValue(int start, int end) {
+        char[] s = this.sbuf;
+        int len = end - start;
+        char b = s[start];
+        if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
+            Object number = this.parseNumber(start, end);
+            if (number != null) {
+                return number;
+            }
+        }
+        else if (len == 4 && matchesIgnoreCase(s, start, "true")) {
+            return Boolean.TRUE;
+        }
+        else if (len == 5 && matchesIgnoreCase(s, start, "false")) {
+            return Boolean.FALSE;
+        }
+        else if (len == 4 && matchesIgnoreCase(s, start, "null")) {
+            return JSONObject.NULL;
+        }
+        else {
+            return new String(s, start, len);
+        }
+        String string = new String(s, start, len);
+        Object value = JSONObject.stringToValue(string);
+        if (this.useBigNumbers && (value instanceof String || value instanceof Double)) {
+            try {
+                if (string.indexOf('.') < 0 && string.indexOf('e') < 0 && string.indexOf('E') < 0) {
+                    return new BigInteger(string);
+                }
+                return new BigDecimal(string);
+            }
+            catch (NumberFormatException ignore) {
+            }
+        }
+        return value;
+    }
+
+
+    private static boolean matchesIgnoreCase(char[] s, int start, String lower) {
+        for (int i = 0; i < lower.length(); i++) {
+            char c = s[start + i];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lower.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Parse the plain forms of a number straight from the scratch buffer:
+     * an optional sign, digits, an optional fraction, and an optional exponent.
+     * An integer is accumulated exactly in a long.  A decimal number whose
+     * digits fit exactly in a double and whose power of ten is at most 22 is
+     * computed with a single correctly rounded multiply or divide, which gives
+     * the same result as Double.valueOf.
+     * @return the number, or null if the text is anything else, or is
+     *         too long to be handled here
+     */
+    private Object parseNumber(int start, int end) {
+        char[] s = this.sbuf;
+        int i = start;
+        boolean negative = false;
+        if (s[i] == '-') {
+            negative = true;
+            i++;
+        }
+        else if (s[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int significant = 0;
+        boolean anyDigits = false;
+        boolean isDecimal = false;
+        int fractionDigits = 0;
+        while (i < end && s[i] >= '0' && s[i] <= '9') {
+            anyDigits = true;
+            if (mantissa != 0 || s[i] != '0') {
+                if (++significant <= 18) {
+                    mantissa = mantissa * 10 + (s[i] - '0');
+                }
+            }
+            i++;
+        }
+        if (i < end && s[i] == '.') {
+            isDecimal = true;
+            i++;
+            while (i < end && s[i] >= '0' && s[i] <= '9') {
+                anyDigits = true;
+                if (mantissa != 0 || s[i] != '0') {
+                    if (++significant <= 18) {
+                        mantissa = mantissa * 10 + (s[i] - '0');
+                    }
+                }
+                fractionDigits++;
+                i++;
+            }
+        }
+        if (!anyDigits) {
+            return null;
+        }
+        int exponent = 0;
+        if (i < end && (s[i] == 'e' || s[i] == 'E')) {
+            isDecimal = true;
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (s[i] == '-' || s[i] == '+')) {
+                negativeExponent = s[i] == '-';
+                i++;
+            }
+            int expStart = i;
+            while (i < end && s[i] >= '0' && s[i] <= '9') {
+                exponent = exponent * 10 + (s[i] - '0');
+                i++;
+            }
+            if (i == expStart || i - expStart > 4) {
+                return null;
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        if (i != end) {
+            return null;
+        }
+
+        if (!isDecimal) {
+            if (significant > 18) {
+                return null;
+            }
+            long value = negative ? -mantissa : mantissa;
+            if (value == (int) value) {
+                return Integer.valueOf((int) value);
+            }
+            return Long.valueOf(value);
+        }
+        if (this.useBigNumbers) {
+            return new BigDecimal(s, start, end - start);
+        }
+        if (significant > 18 || mantissa > (1L << 53)) {
+            return null;
+        }
+        int power = exponent - fractionDigits;
+        double value = mantissa;
+        if (mantissa == 0) {
+            value = 0.0;
+        }
+        else if (power < 0 && power >= -22) {
+            value = value / POW10[-power];
+        }
+        else if (power >= 0 && power <= 22) {
+            value = value * POW10[power];
+        }
+        else {
+            return null;
+        }
+        return Double.valueOf(negative ? -value : value);
+    }
+
+
+    /**
+     * Test whether a character can be part of an unquoted value.
+     */
+    static boolean isUnquotedChar(char c) {
+        return c >= ' ' && (c >= 128 || !DELIMITER[c]);
+    }
+
+
+    /**
+     * Accumulate the characters of an unquoted value into the scratch buffer,
+     * starting with the character already consumed, and stopping before the
+     * first formatting character.  The value is not trimmed.
+     * @return the number of characters placed in the scratch buffer
+     */
+    int readUnquoted(char c) {
+        int len = 0;
+        while (isUnquotedChar(c)) {
+            char[] sb = this.growScratch(len + 1);
+            sb[len++] = c;
+            len = this.unquotedRun(len);
             c = this.next();
         }
         this.back();
+        return len;
+    }
 
-        string = sb.toString().trim();
-        if ("".equals(string)) {
-            throw this.syntaxError("Missing value");
+
+    /**
+     * Copy a run of unquoted value characters straight out of the window
+     * into the scratch buffer.
+     * @param len the number of characters already in the scratch buffer
+     * @return the number of characters in the scratch buffer after the run
+     */
+    int unquotedRun(int len) {
+        if (this.buf == null || this.usePrevious) {
+            return len;
+        }
+        char[] b = this.buf;
+        int start = this.pos;
+        int p = start;
+        int lim = this.limit;
+        while (p < lim && isUnquotedChar(b[p])) {
+            p++;
+        }
+        int n = p - start;
+        if (n > 0) {
+            char[] sb = this.growScratch(len + n);
+            System.arraycopy(b, start, sb, len, n);
+            len += n;
+            this.advance(n);
+        }
+        return len;
+    }
+
+
+    /**
+     * Skip over the next value, which may be an entire object or array, without
+     * building it.  No strings, numbers, or maps are created for the skipped
+     * content, but the syntax is checked just as if it had been read with
+     * nextValue().
+     * @throws SimpleException If there is a syntax error.
+     */
+    public void skipValue() {
+        char c = this.nextClean();
+        switch (c) {
+            case '"':
+            case '\'':
+                this.skipString(c);
+                return;
+            case '{':
+                this.skipObject();
+                return;
+            case '[':
+                this.skipArray();
+                return;
+        }
+        int len = this.readUnquoted(c);
+        for (int i = 0; i < len; i++) {
+            if (this.sbuf[i] > ' ') {
+                return;
+            }
+        }
+        throw this.syntaxError("Missing value");
+    }
+
+
+    /**
+     * Skip the rest of a quoted string, the open quote already consumed.
+     */
+    private void skipString(char quote) {
+        char c;
+        for (;;) {
+            this.skipStringRun(quote);
+            c = this.next();
+            switch (c) {
+            case 0:
+            case '\n':
+            case '\r':
+                throw this.syntaxError("Unterminated string");
+            case '\\':
+                c = this.next();
+                switch (c) {
+                case 'b':
+                case 't':
+                case 'n':
+                case 'f':
+                case 'r':
+                case '"':
+                case '\'':
+                case '\\':
+                case '/':
+                    break;
+                case 'u':
+                    for (int i = 0; i < 4; i++) {
+                        if (dehexchar(this.next()) < 0) {
+                            throw this.syntaxError("Illegal escape.");
+                        }
+                    }
+                    break;
+                default:
+                    throw this.syntaxError("Illegal escape.");
+                }
+                break;
+            default:
+                if (c == quote) {
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Skip the rest of an object, the open brace already consumed.
+     * This follows exactly the syntax of the JSONObject constructor.
+     */
+    private void skipObject() {
+        for (;;) {
+            switch (this.nextClean()) {
+            case 0:
+                throw this.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                return;
+            default:
+                this.back();
+                this.skipValue();
+            }
+            char c = this.nextClean();
+            if (c == '=') {
+                if (this.next() != '>') {
+                    this.back();
+                }
+            } else if (c != ':') {
+                throw this.syntaxError("Expected a ':' after a key");
+            }
+            this.skipValue();
+            switch (this.nextClean()) {
+            case ';':
+            case ',':
+                if (this.nextClean() == '}') {
+                    return;
+                }
+                this.back();
+                break;
+            case '}':
+                return;
+            default:
+                throw this.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+
+    /**
+     * Skip the rest of an array, the open bracket already consumed.
+     * This follows exactly the syntax of the JSONArray constructor.
+     */
+    private void skipArray() {
+        if (this.nextClean() == ']') {
+            return;
+        }
+        this.back();
+        for (;;) {
+            if (this.nextClean() == ',') {
+                this.back();
+            } else {
+                this.back();
+                this.skipValue();
+            }
+            switch (this.nextClean()) {
+            case ';':
+            case ',':
+                if (this.nextClean() == ']') {
+                    return;
+                }
+                this.back();
+                break;
+            case ']':
+                return;
+            default:
+                throw this.syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+
+
+    /**
+     * Consume a run of ordinary string characters from the window without
+     * copying them anywhere, stopping at a quote, backslash, line end, or
+     * the end of the window.
+     */
+    void skipStringRun(char quote) {
+        if (this.buf == null || this.usePrevious || this.previous == '\r') {
+            return;
+        }
+        char[] b = this.buf;
+        int p = this.pos;
+        int lim = this.limit;
+        while (p < lim) {
+            char c = b[p];
+            if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                break;
+            }
+            p++;
+        }
+        if (p > this.pos) {
+            this.advance(p - this.pos);
         }
-        return JSONObject.stringToValue(string);
     }
 
 
@@ -412,24 +1190,26 @@ public class JSONTokener {
      */
     public char skipTo(char to) {
         char c;
-        try {
-            long startIndex = this.index;
-            long startCharacter = this.character;
-            long startLine = this.line;
-            this.reader.mark(1000000);
-            do {
-                c = this.next();
-                if (c == 0) {
-                    this.reader.reset();
-                    this.index = startIndex;
-                    this.character = startCharacter;
-                    this.line = startLine;
-                    return c;
-                }
-            } while (c != to);
-        } catch (IOException exc) {
-            throw new SimpleException("Error while skipping characters", exc);
-        }
+        long startIndex = this.index;
+        long startCharacter = this.character;
+        long startLine = this.line;
+        char startPrevious = this.previous;
+        boolean startUsePrevious = this.usePrevious;
+        this.markSource();
+        do {
+            c = this.next();
+            if (c == 0) {
+                this.resetSource();
+                this.index = startIndex;
+                this.character = startCharacter;
+                this.line = startLine;
+                this.previous = startPrevious;
+                this.usePrevious = startUsePrevious;
+                this.eof = false;
+                return c;
+            }
+        } while (c != to);
+        this.unmarkSource();
 
         this.back();
         return c;
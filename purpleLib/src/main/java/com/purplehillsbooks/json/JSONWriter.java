@@ -1,7 +1,12 @@
 package com.purplehillsbooks.json;
 
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.Stream;
 
 /**
  * JSONWriter provides a quick and convenient way of producing JSON text.
@@ -26,14 +31,26 @@ import java.io.Writer;
  * <p>
  * The first method called must be <code>array</code> or <code>object</code>.
  * There are no methods for adding commas or colons. JSONWriter adds them for
- * you. Objects and arrays can be nested up to 20 levels deep.
+ * you. Objects and arrays can be nested as deep as needed.
  * <p>
  * This can sometimes be easier than using a JSONObject to build a string.
+ * It is also the way to send more data than should be in memory at once:
+ * the array methods that take an Iterator or a Stream write each element
+ * as it is taken from the source, so a result set from a database can be
+ * sent as a JSON array without building a JSONArray of it first.
+ * <pre>
+ * JSONWriter jw = new JSONWriter(response.getOutputStream());
+ * jw.setFlushThreshold(65536);
+ * jw.object().key("rows").array(rowStream).endObject();</pre>
+ * <p>
+ * The text is gathered in a buffer and passed on to the writer or stream in
+ * blocks, and all of it is passed on when the outermost array or object
+ * ends.  Writing to a stream encodes the text as UTF-8 straight into the
+ * buffer, which is faster than wrapping the stream in a Writer.
  * @author JSON.org
  * @version 2011-11-24
  */
 public class JSONWriter {
-    private static final int maxdepth = 200;
 
     /**
      * The comma flag determines if a comma should be output before the next
@@ -52,9 +69,9 @@ public class JSONWriter {
     protected char mode;
 
     /**
-     * The object/array stack.
+     * The object/array stack, grown as needed.
      */
-    private final JSONObject stack[];
+    private JSONObject stack[];
 
     /**
      * The stack top index. A value of 0 indicates that the stack is empty.
@@ -62,19 +79,122 @@ public class JSONWriter {
     private int top;
 
     /**
-     * The writer that will receive the output.
+     * The writer that will receive the output.  This is the buffer that
+     * gathers the text, which passes it on to the destination.
      */
     protected Writer writer;
 
+    private final JSONOutput out;
+
+    /**
+     * Where the text ends up, for flush.
+     */
+    private final Flushable destination;
+
+    /**
+     * Pass the buffer on when it holds this much, or 0 to wait for it to fill.
+     */
+    private int flushThreshold;
+
     /**
      * Make a fresh JSONWriter. It can be used to build one JSON text.
      */
     public JSONWriter(Writer w) {
+        this(JSONOutput.over(w), w);
+    }
+
+    /**
+     * Make a fresh JSONWriter that writes the text to a stream, encoded
+     * as UTF-8.  It can be used to build one JSON text.  The stream is
+     * not closed.
+     */
+    public JSONWriter(OutputStream os) {
+        this(JSONOutput.over(os), os);
+    }
+
+    private JSONWriter(JSONOutput out, Flushable destination) {
         this.comma = false;
         this.mode = 'i';
-        this.stack = new JSONObject[maxdepth];
+        this.stack = new JSONObject[16];
         this.top = 0;
-        this.writer = w;
+        this.out = out;
+        this.writer = out;
+        this.destination = destination;
+    }
+
+    /**
+     * Set how much text can be held before it is passed on.  With a
+     * threshold, after any value is written, if at least that many chars
+     * (or bytes for a stream) are held, they are passed on and the
+     * destination is flushed, so that whoever is reading it gets what has
+     * been written so far.  The default of 0 passes text on only when the
+     * buffer is full and when the outermost array or object ends, which is
+     * fastest when nobody is waiting for the first part.
+     * @param size the amount of text to hold before flushing, or 0
+     * @return this
+     */
+    public JSONWriter setFlushThreshold(int size) {
+        this.flushThreshold = size;
+        return this;
+    }
+
+    /**
+     * Pass on everything written so far and flush the destination.
+     * Nothing needs to be done after the outermost array or object ends,
+     * when the text has already been passed on, but the destination is
+     * not flushed or closed.
+     * @return this
+     * @throws SimpleException if the destination fails
+     */
+    public JSONWriter flush() {
+        try {
+            if (this.mode != 'd') {
+                this.out.flushBuffer();
+            }
+            this.destination.flush();
+        } catch (IOException e) {
+            throw new SimpleException("Error while flushing the JSONWriter", e);
+        }
+        return this;
+    }
+
+    /**
+     * Check that a value can go here, and put a comma before it if needed.
+     * @throws SimpleException If the value is out of sequence.
+     */
+    private void beforeValue() throws IOException {
+        if (this.mode == 'o' || this.mode == 'a') {
+            if (this.comma && this.mode == 'a') {
+                this.out.write(',');
+            }
+            return;
+        }
+        throw new SimpleException("Value out of sequence.");
+    }
+
+    /**
+     * After a value, a key is needed in an object, or a comma in an array.
+     */
+    private void afterValue() throws IOException {
+        if (this.mode == 'o') {
+            this.mode = 'k';
+        }
+        this.comma = true;
+        this.passOn();
+    }
+
+    /**
+     * Pass the buffer on, when the text is done or the threshold is reached.
+     */
+    private void passOn() throws IOException {
+        if (this.mode == 'd') {
+            this.out.flushBuffer();
+            this.out.release();
+        }
+        else if (this.flushThreshold > 0 && this.out.buffered() >= this.flushThreshold) {
+            this.out.flushBuffer();
+            this.destination.flush();
+        }
     }
 
     /**
@@ -87,22 +207,14 @@ public class JSONWriter {
         if (string == null) {
             throw new SimpleException("Unable to append to JSONWriter.  Null value is not allowed.");
         }
-        if (this.mode == 'o' || this.mode == 'a') {
-            try {
-                if (this.comma && this.mode == 'a') {
-                    this.writer.write(',');
-                }
-                this.writer.write(string);
-            } catch (IOException e) {
-                throw new SimpleException("Error while appending a string to the JSONWriter", e);
-            }
-            if (this.mode == 'o') {
-                this.mode = 'k';
-            }
-            this.comma = true;
-            return this;
+        try {
+            this.beforeValue();
+            this.out.write(string);
+            this.afterValue();
+        } catch (IOException e) {
+            throw new SimpleException("Error while appending a string to the JSONWriter", e);
         }
-        throw new SimpleException("Value out of sequence.");
+        return this;
     }
 
     /**
@@ -110,9 +222,8 @@ public class JSONWriter {
      * <code>endArray</code> will be appended to this array. The
      * <code>endArray</code> method must be called to mark the array's end.
      * @return this
-     * @throws SimpleException If the nesting is too deep, or if the object is
-     * started in the wrong place (for example as a key or after the end of the
-     * outermost array or object).
+     * @throws SimpleException If the array is started in the wrong place (for
+     * example as a key or after the end of the outermost array or object).
      */
     public JSONWriter array() {
         if (this.mode == 'i' || this.mode == 'o' || this.mode == 'a') {
@@ -124,6 +235,37 @@ public class JSONWriter {
         throw new SimpleException("JSONWriter.array() Misplaced array.");
     }
 
+    /**
+     * Append a whole array, with each element taken from the iterator as it
+     * is written, so the elements never all need to be in memory.  The
+     * elements can be anything that <code>value</code> takes, usually
+     * JSONObjects.
+     * @param elements the source of the elements
+     * @return this
+     * @throws SimpleException If the array is started in the wrong place,
+     * or an element can not be written.
+     */
+    public JSONWriter array(Iterator<?> elements) {
+        this.array();
+        while (elements.hasNext()) {
+            this.value(elements.next());
+        }
+        return this.endArray();
+    }
+
+    /**
+     * Append a whole array, with each element taken from the stream as it
+     * is written.  The stream is not closed, so a stream that holds a
+     * resource, like a database cursor, should still be closed by the caller.
+     * @param elements the source of the elements
+     * @return this
+     * @throws SimpleException If the array is started in the wrong place,
+     * or an element can not be written.
+     */
+    public JSONWriter array(Stream<?> elements) {
+        return this.array(elements.iterator());
+    }
+
     /**
      * End something.
      * @param mode Mode
@@ -139,7 +281,8 @@ public class JSONWriter {
         }
         this.pop(mode);
         try {
-            this.writer.write(c);
+            this.out.write(c);
+            this.passOn();
         } catch (IOException e) {
             throw new SimpleException("Error while ending an array or object", e);
         }
@@ -183,10 +326,10 @@ public class JSONWriter {
             try {
                 this.stack[this.top - 1].putOnce(string, Boolean.TRUE);
                 if (this.comma) {
-                    this.writer.write(',');
+                    this.out.write(',');
                 }
-                this.writer.write(JSONObject.quote(string));
-                this.writer.write(':');
+                this.out.writeQuoted(string);
+                this.out.write(':');
                 this.comma = false;
                 this.mode = 'o';
                 return this;
@@ -203,9 +346,8 @@ public class JSONWriter {
      * <code>endObject</code> will be appended to this object. The
      * <code>endObject</code> method must be called to mark the object's end.
      * @return this
-     * @throws SimpleException If the nesting is too deep, or if the object is
-     * started in the wrong place (for example as a key or after the end of the
-     * outermost array or object).
+     * @throws SimpleException If the object is started in the wrong place (for
+     * example as a key or after the end of the outermost array or object).
      */
     public JSONWriter object() {
         if (this.mode == 'i') {
@@ -246,11 +388,10 @@ public class JSONWriter {
     /**
      * Push an array or object scope.
      * @param c The scope to open.
-     * @throws SimpleException If nesting is too deep.
      */
     private void push(JSONObject jo) {
-        if (this.top >= maxdepth) {
-            throw new SimpleException("Nesting too deep.");
+        if (this.top >= this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.stack.length * 2);
         }
         this.stack[this.top] = jo;
         this.mode = jo == null ? 'a' : 'k';
@@ -276,7 +417,17 @@ public class JSONWriter {
      * @throws SimpleException If the number is not finite.
      */
     public JSONWriter value(double d) {
-        return this.value(Double.valueOf(d));
+        if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new SimpleException("JSON does not allow non-finite numbers.");
+        }
+        try {
+            this.beforeValue();
+            this.out.writeDouble(d);
+            this.afterValue();
+        } catch (IOException e) {
+            throw new SimpleException("Error while appending a number to the JSONWriter", e);
+        }
+        return this;
     }
 
     /**
@@ -298,6 +449,17 @@ public class JSONWriter {
      * @throws SimpleException If the value is out of sequence.
      */
     public JSONWriter value(Object object)  {
-        return this.append(JSONObject.valueToString(object));
+        if (object instanceof JSONString) {
+            return this.append(JSONObject.valueToString(object));
+        }
+        JSONObject.testValidity(object);
+        try {
+            this.beforeValue();
+            JSONObject.writeValue(this.out, object, 0, 0, true);
+            this.afterValue();
+        } catch (IOException e) {
+            throw new SimpleException("Error while appending a value to the JSONWriter", e);
+        }
+        return this;
     }
 }
@@ -0,0 +1,263 @@
+package com.purplehillsbooks.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * <p>A LazyJSONObject is a JSONObject that is backed by the raw UTF-8 bytes of
+ * a document.  Parsing only finds where each member starts and ends.  The value
+ * of a member is decoded the first time it is asked for through get, opt, or any
+ * of the other accessors, and a member that is itself an object becomes another
+ * LazyJSONObject over the same bytes.  Members that are never looked at are
+ * never decoded.</p>
+ *
+ * <pre>
+ * LazyJSONObject config = LazyJSONObject.readFromFile(file);
+ * String host = config.getJSONObject("server").getString("host");
+ * </pre>
+ *
+ * <p>This is intended for read-mostly files that are loaded much more often
+ * than they are traversed.  In every other way it behaves as a JSONObject,
+ * and it can be changed with put and remove as usual.  The usual write methods
+ * produce the usual sorted, canonical output.  In addition, writeOriginal will
+ * write the original bytes of any part of the tree that has not been changed,
+ * so an unchanged document is copied exactly as it was read.</p>
+ *
+ * <p>The syntax of the whole document is checked when it is first parsed,
+ * however duplicate keys in a nested object are only detected when that
+ * object is decoded.  The byte array must not be changed while this object
+ * is in use.  Since reading a member can change the object, a LazyJSONObject
+ * that is shared between threads must be synchronized even for reading,
+ * unless it has been frozen, which decodes every member first.</p>
+ */
+public class LazyJSONObject extends JSONObject {
+
+    /**
+     * The span of a value in the source bytes that has not been decoded yet.
+     */
+    private static final class Slice {
+        final int start;
+        final int end;
+
+        Slice(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final byte[] source;
+    private final int    start;
+    private int          end;
+
+    /**
+     * Set when a member has been put or removed since parsing.
+     */
+    private boolean      modified;
+
+
+    /**
+     * Index an object from a byte array of UTF-8 encoded JSON.
+     * The array is not copied.
+     * @throws SimpleException If there is a syntax error.
+     */
+    public LazyJSONObject(byte[] utf8) {
+        this(utf8, 0, utf8.length);
+    }
+
+
+    /**
+     * Index an object from a range of a byte array of UTF-8 encoded JSON.
+     * The array is not copied.
+     * @throws SimpleException If there is a syntax error.
+     */
+    public LazyJSONObject(byte[] utf8, int offset, int length) {
+        super();
+        this.source = utf8;
+        UTF8JSONTokener x = new UTF8JSONTokener(utf8, offset, length);
+        char c;
+        String key;
+
+        if (x.nextClean() != '{') {
+            throw x.syntaxError("A JSONObject text must begin with '{'");
+        }
+        this.start = x.bytePosition() - 1;
+        for (;;) {
+            c = x.nextClean();
+            switch (c) {
+            case 0:
+                throw x.syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                this.end = x.bytePosition();
+                return;
+            default:
+                x.back();
+                key = x.nextKey();
+            }
+
+            c = x.nextClean();
+            if (c == '=') {
+                if (x.next() != '>') {
+                    x.back();
+                }
+            } else if (c != ':') {
+                throw x.syntaxError("Expected a ':' after a key");
+            }
+
+            x.nextClean();
+            x.back();
+            int valueStart = x.bytePosition();
+            x.skipValue();
+            int valueEnd = x.bytePosition();
+            while (valueEnd > valueStart && (utf8[valueEnd - 1] & 0xFF) <= ' ') {
+                valueEnd--;
+            }
+            if (super.opt(key) != null) {
+                throw new SimpleException("PutOnce rejected because there is a duplicate key (%s)", key);
+            }
+            super.put(key, new Slice(valueStart, valueEnd));
+
+            switch (x.nextClean()) {
+            case ';':
+            case ',':
+                if (x.nextClean() == '}') {
+                    this.end = x.bytePosition();
+                    return;
+                }
+                x.back();
+                break;
+            case '}':
+                this.end = x.bytePosition();
+                return;
+            default:
+                throw x.syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+
+    /**
+     * Read the whole of a UTF-8 encoded file into memory and index the
+     * object in it.  The members are decoded only as they are used.
+     */
+    public static LazyJSONObject readFromFile(File inFile) {
+        if (!inFile.exists()) {
+            throw new SimpleException("File for JSON objects does not exist: %s", inFile.getAbsolutePath());
+        }
+        try {
+            return new LazyJSONObject(Files.readAllBytes(inFile.toPath()));
+        }
+        catch (Exception e) {
+            throw new SimpleException("Unable to read JSON objects from file: %s", e, inFile.getAbsolutePath());
+        }
+    }
+
+
+    /**
+     * Get the value associated with a key, decoding it from the
+     * source bytes if this is the first time it has been used.
+     */
+    @Override
+    public Object opt(String key) {
+        Object value = super.opt(key);
+        if (value instanceof Slice) {
+            Slice slice = (Slice) value;
+            value = this.decode(slice);
+            super.put(key, value);
+        }
+        return value;
+    }
+
+
+    private Object decode(Slice slice) {
+        if (this.source[slice.start] == '{') {
+            return new LazyJSONObject(this.source, slice.start, slice.end - slice.start);
+        }
+        return new UTF8JSONTokener(this.source, slice.start, slice.end - slice.start).nextValue();
+    }
+
+
+    @Override
+    public JSONObject put(String key, Object value) {
+        this.modified = true;
+        return super.put(key, value);
+    }
+
+
+    @Override
+    public Object remove(String key) {
+        Object value = this.opt(key);
+        if (value != null) {
+            this.modified = true;
+        }
+        super.remove(key);
+        return value;
+    }
+
+
+    /**
+     * Tell whether this object is still exactly what was parsed.  A member that
+     * has been decoded into a JSONArray might have been changed through that
+     * array, so it is counted as a change.
+     * @return true if the original bytes still represent this object
+     */
+    public boolean isUnchanged() {
+        if (this.modified) {
+            return false;
+        }
+        for (String key : this.keySet()) {
+            Object value = super.opt(key);
+            if (value instanceof JSONArray) {
+                return false;
+            }
+            if (value instanceof LazyJSONObject && !((LazyJSONObject) value).isUnchanged()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Write the object as UTF-8 to the stream, copying the original bytes for
+     * every part that has not been changed or decoded into an array.  If nothing
+     * has changed, the output is exactly the original text of the object.  Where
+     * something has changed, the members are written in sorted order without
+     * indentation, and unchanged member values are copied as they were.
+     */
+    public void writeOriginal(OutputStream out) {
+        try {
+            if (this.isUnchanged()) {
+                out.write(this.source, this.start, this.end - this.start);
+                return;
+            }
+            boolean commanate = false;
+            out.write('{');
+            for (String key : this.sortedKeySet()) {
+                if (commanate) {
+                    out.write(',');
+                }
+                out.write(quote(key).getBytes(StandardCharsets.UTF_8));
+                out.write(':');
+                Object value = super.opt(key);
+                if (value instanceof Slice) {
+                    Slice slice = (Slice) value;
+                    out.write(this.source, slice.start, slice.end - slice.start);
+                }
+                else if (value instanceof LazyJSONObject) {
+                    ((LazyJSONObject) value).writeOriginal(out);
+                }
+                else {
+                    out.write(valueToString(value).getBytes(StandardCharsets.UTF_8));
+                }
+                commanate = true;
+            }
+            out.write('}');
+        }
+        catch (IOException e) {
+            throw new SimpleException("Unable to write the original bytes of a LazyJSONObject", e);
+        }
+    }
+}
@@ -396,6 +396,17 @@ public class LockableJSONFile {
      * You must lock the file before calling this.
      */
     public JSONObject readTarget() throws Exception {
+        return readTarget(null);
+    }
+
+    /**
+     * Read and return only the parts of the file named by the projection.
+     * This is much faster than reading the whole file when only a few
+     * values are needed from a large file.  A null projection reads
+     * the whole file.
+     * You must lock the file before calling this.
+     */
+    public JSONObject readTarget(JSONProjection projection) throws Exception {
         //consistency check
         if (!isLocked()) {
             throw new Exception("File was not locked before calling readTarget: "+target);
@@ -407,7 +418,13 @@ public class LockableJSONFile {
         while (retryCount++ < 5) {
             try {
                 waitUntilItExists();
-                JSONObject result = JSONObject.readFromFile(target);
+                JSONObject result;
+                if (projection == null) {
+                    result = JSONObject.readFromFile(target);
+                }
+                else {
+                    result = projection.readFromFile(target);
+                }
                 //getSecondLock();
                 return result;
             }
@@ -481,4 +498,18 @@ public class LockableJSONFile {
         }
     }
 
+    /**
+     * Same as lockReadUnlock, but builds only the parts of the file
+     * named by the projection.
+     */
+    public synchronized JSONObject lockReadUnlock(JSONProjection projection) throws Exception {
+        try {
+            lock();
+            return readTarget(projection);
+        }
+        finally {
+            unlock();
+        }
+    }
+
 }
@@ -0,0 +1,353 @@
+package com.purplehillsbooks.json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * <p>Reads newline delimited JSON using many threads at once.  The input is
+ * read in large chunks that are split at the last line end, so every chunk
+ * holds only whole records, and the chunks are parsed in parallel on a
+ * fork join pool.  The records are passed to a consumer as they become
+ * available.</p>
+ *
+ * <pre>
+ * NDJSONParallelReader loader = new NDJSONParallelReader();
+ * loader.setOrdered(false);
+ * long count = loader.readFile(file, record -&gt; {
+ *     ...
+ * });
+ * </pre>
+ *
+ * <p>The consumer is always called on the thread that called read, one record
+ * at a time, so it does not need to be thread safe.  When ordered (the default)
+ * the records arrive in the same order they are in the input.  When unordered,
+ * each chunk is delivered as soon as it is parsed, which keeps all the threads
+ * busy even when one chunk is slow, but records from different chunks are
+ * mixed.  Records within a chunk are always in order.</p>
+ *
+ * <p>Memory is bounded by the queue depth: at most that many chunks are being
+ * parsed or waiting to be delivered at one time, and reading of the input
+ * stops until the consumer catches up.  Splitting at line ends is safe because
+ * a line end can not appear inside a JSON string (it must be escaped) nor
+ * inside a multi-byte UTF-8 character.</p>
+ *
+ * <p>If a record fails to parse, read throws an exception that tells the byte
+ * offset of the chunk within the input, after delivering all the records of the
+ * chunks before it when ordered.  The chunks still waiting to be parsed are
+ * then cancelled, so the pool does not go on parsing input that nobody will
+ * see.  A single NDJSONParallelReader should be used by one thread at a time,
+ * but can read any number of inputs.</p>
+ */
+public class NDJSONParallelReader {
+
+    /**
+     * Default number of bytes of input in each chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final ForkJoinPool pool;
+    private int     chunkSize = DEFAULT_CHUNK_SIZE;
+    private int     queueDepth;
+    private boolean ordered = true;
+    private boolean useBigNumbers;
+
+
+    /**
+     * Parse on the common fork join pool.
+     */
+    public NDJSONParallelReader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Parse on the specified pool.  The default queue depth is twice the
+     * parallelism of the pool.
+     */
+    public NDJSONParallelReader(ForkJoinPool pool) {
+        this.pool = pool;
+        this.queueDepth = Math.max(2, pool.getParallelism() * 2);
+    }
+
+
+    /**
+     * Set the number of bytes of input read for each chunk.  A record longer
+     * than this still works, the chunk is made larger to hold it.
+     */
+    public void setChunkSize(int bytes) {
+        this.chunkSize = Math.max(bytes, 64);
+    }
+
+
+    /**
+     * Set the most chunks that will be held in memory at one time, either
+     * being parsed or waiting to be delivered.
+     */
+    public void setQueueDepth(int chunks) {
+        this.queueDepth = Math.max(chunks, 1);
+    }
+
+
+    /**
+     * Set whether the records must be delivered in the order of the input.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+
+    /**
+     * Set whether numbers are read as BigInteger and BigDecimal, see
+     * JSONTokener.setUseBigNumbers.
+     */
+    public void setUseBigNumbers(boolean useBigNumbers) {
+        this.useBigNumbers = useBigNumbers;
+    }
+
+
+    /**
+     * Read all the records from a UTF-8 encoded file.
+     * @return the number of records read
+     */
+    public long readFile(File inFile, Consumer<JSONObject> consumer) {
+        if (!inFile.exists()) {
+            throw new SimpleException("File for NDJSON records does not exist: %s", inFile.getAbsolutePath());
+        }
+        try {
+            FileInputStream fis = new FileInputStream(inFile);
+            try {
+                return this.read(fis, consumer);
+            }
+            finally {
+                fis.close();
+            }
+        }
+        catch (Exception e) {
+            throw new SimpleException("Unable to read NDJSON records from file: %s", e, inFile.getAbsolutePath());
+        }
+    }
+
+
+    /**
+     * Read all the records from a stream of UTF-8 bytes.  The stream is not closed.
+     * @return the number of records read
+     */
+    public long read(InputStream is, Consumer<JSONObject> consumer) throws Exception {
+        Delivery delivery = this.ordered ? new OrderedDelivery() : new UnorderedDelivery();
+        boolean finished = false;
+        try {
+            long count = this.read(is, consumer, delivery);
+            finished = true;
+            return count;
+        }
+        finally {
+            if (!finished) {
+                //a failed chunk, the consumer, or the input threw
+                delivery.cancelAll();
+            }
+        }
+    }
+
+
+    private long read(InputStream is, Consumer<JSONObject> consumer, Delivery delivery) throws Exception {
+        long count = 0;
+        long offset = 0;
+        byte[] buf = new byte[this.chunkSize];
+        int filled = 0;
+        boolean eof = false;
+        while (!eof) {
+            while (filled < buf.length) {
+                int n = is.read(buf, filled, buf.length - filled);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                filled += n;
+            }
+            int end = filled;
+            if (!eof) {
+                end = lastLineEnd(buf, filled);
+                if (end == 0) {
+                    //no line end, the record is longer than the buffer
+                    byte[] larger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, larger, 0, filled);
+                    buf = larger;
+                    continue;
+                }
+            }
+            if (end > 0) {
+                if (delivery.pending() >= this.queueDepth) {
+                    count += delivery.deliverOne(consumer);
+                }
+                ChunkTask task = new ChunkTask(buf, end, offset, this.useBigNumbers, delivery.doneQueue());
+                delivery.add(task);
+                this.pool.execute(task);
+                offset += end;
+            }
+            byte[] next = new byte[Math.max(this.chunkSize, filled - end)];
+            System.arraycopy(buf, end, next, 0, filled - end);
+            buf = next;
+            filled = filled - end;
+        }
+        while (delivery.pending() > 0) {
+            count += delivery.deliverOne(consumer);
+        }
+        return count;
+    }
+
+
+    /**
+     * @return the position just after the last line end, or 0 if there is none
+     */
+    private static int lastLineEnd(byte[] buf, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (buf[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * Parses one chunk of complete lines into a list of records.  A failure
+     * is held and reported when the chunk is delivered.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] buf;
+        private final int len;
+        private final long offset;
+        private final boolean useBigNumbers;
+        private final LinkedBlockingQueue<ChunkTask> done;
+        List<JSONObject> records;
+        Throwable error;
+
+        ChunkTask(byte[] buf, int len, long offset, boolean useBigNumbers, LinkedBlockingQueue<ChunkTask> done) {
+            this.buf = buf;
+            this.len = len;
+            this.offset = offset;
+            this.useBigNumbers = useBigNumbers;
+            this.done = done;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                UTF8JSONTokener x = new UTF8JSONTokener(this.buf, 0, this.len);
+                x.setSymbolTable(SymbolTable.forThread());
+                x.setUseBigNumbers(this.useBigNumbers);
+                NDJSONReader reader = new NDJSONReader(x);
+                List<JSONObject> list = new ArrayList<JSONObject>();
+                while (reader.hasNext()) {
+                    list.add(reader.next());
+                }
+                this.records = list;
+            }
+            catch (Throwable e) {
+                //including a StackOverflowError from a record nested too deep
+                this.error = e;
+            }
+            finally {
+                if (this.done != null) {
+                    this.done.add(this);
+                }
+            }
+        }
+
+        long deliver(Consumer<JSONObject> consumer) {
+            if (this.error != null) {
+                throw new SimpleException("Unable to parse the NDJSON records in the chunk starting at byte %d",
+                        this.error, this.offset);
+            }
+            for (JSONObject record : this.records) {
+                consumer.accept(record);
+            }
+            return this.records.size();
+        }
+    }
+
+
+    /**
+     * Keeps track of the chunks in flight, and hands back the next one to
+     * be delivered.
+     */
+    private interface Delivery {
+        LinkedBlockingQueue<ChunkTask> doneQueue();
+        void add(ChunkTask task);
+        int pending();
+        long deliverOne(Consumer<JSONObject> consumer) throws Exception;
+        void cancelAll();
+    }
+
+
+    /**
+     * Delivers the chunks in the order they were read, waiting for each in turn.
+     */
+    private static class OrderedDelivery implements Delivery {
+        private final ArrayDeque<ChunkTask> queue = new ArrayDeque<ChunkTask>();
+
+        public LinkedBlockingQueue<ChunkTask> doneQueue() {
+            return null;
+        }
+        public void add(ChunkTask task) {
+            this.queue.add(task);
+        }
+        public int pending() {
+            return this.queue.size();
+        }
+        public long deliverOne(Consumer<JSONObject> consumer) {
+            ChunkTask task = this.queue.remove();
+            task.join();
+            return task.deliver(consumer);
+        }
+        public void cancelAll() {
+            for (ChunkTask task : this.queue) {
+                task.cancel(false);
+            }
+            this.queue.clear();
+        }
+    }
+
+
+    /**
+     * Delivers whichever chunk finishes first.
+     */
+    private static class UnorderedDelivery implements Delivery {
+        private final LinkedBlockingQueue<ChunkTask> done = new LinkedBlockingQueue<ChunkTask>();
+        private final Set<ChunkTask> inFlight = Collections.newSetFromMap(new IdentityHashMap<ChunkTask, Boolean>());
+
+        public LinkedBlockingQueue<ChunkTask> doneQueue() {
+            return this.done;
+        }
+        public void add(ChunkTask task) {
+            this.inFlight.add(task);
+        }
+        public int pending() {
+            return this.inFlight.size();
+        }
+        public long deliverOne(Consumer<JSONObject> consumer) throws Exception {
+            ChunkTask task = this.done.take();
+            this.inFlight.remove(task);
+            return task.deliver(consumer);
+        }
+        public void cancelAll() {
+            for (ChunkTask task : this.inFlight) {
+                task.cancel(false);
+            }
+            this.inFlight.clear();
+        }
+    }
+}
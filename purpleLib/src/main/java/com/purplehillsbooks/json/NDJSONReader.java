@@ -0,0 +1,216 @@
+package com.purplehillsbooks.json;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>Reads newline delimited JSON (also known as JSON Lines or NDJSON), where
+ * each line of the input is a complete JSON object.  The records are parsed
+ * one at a time as they are asked for, so a file of any size can be read
+ * while holding only one record in memory.</p>
+ *
+ * <pre>
+ * NDJSONReader reader = new NDJSONReader(file);
+ * try {
+ *     for (JSONObject record : reader) {
+ *         ...
+ *     }
+ * }
+ * finally {
+ *     reader.close();
+ * }
+ * </pre>
+ *
+ * <p>or as a stream:</p>
+ *
+ * <pre>
+ * long count = reader.stream().filter(r -&gt; r.optBoolean("active")).count();
+ * </pre>
+ *
+ * <p>Blank lines are ignored.  Each record must start and end on the same
+ * line, with nothing but spaces or tabs after it on that line, so that two
+ * records on one line, or a record printed over several lines, are errors
+ * here just as they are for NDJSONParallelReader, which splits the input at
+ * line ends.  The same symbol table is used for all of
+ * the records, so the keys that repeat from record to record share a
+ * single String.  A syntax error reports the line number within the whole
+ * input, and ends the reading since it is not possible to be sure where
+ * the next record starts.</p>
+ */
+public class NDJSONReader implements Iterator<JSONObject>, Iterable<JSONObject>, Closeable {
+
+    private final JSONTokener x;
+    private final Closeable   source;
+    private long              recordCount;
+
+
+    /**
+     * Read records from a tokener.  The tokener can be configured first,
+     * for example with setUseBigNumbers or setDedupStringLength.
+     */
+    public NDJSONReader(JSONTokener x) {
+        this.x = x;
+        this.source = null;
+    }
+
+
+    /**
+     * Read records from a stream of UTF-8 bytes.
+     */
+    public NDJSONReader(InputStream is) {
+        this.x = new UTF8JSONTokener(is);
+        this.source = is;
+    }
+
+
+    /**
+     * Read records from a Reader.
+     */
+    public NDJSONReader(Reader r) {
+        this.x = new JSONTokener(r);
+        this.source = r;
+    }
+
+
+    /**
+     * Read records from a UTF-8 encoded file.  The file stays open until
+     * this reader is closed.
+     */
+    public NDJSONReader(File inFile) throws Exception {
+        this(new FileInputStream(inFile));
+    }
+
+
+    /**
+     * @return true if there is another record to read
+     */
+    @Override
+    public boolean hasNext() {
+        if (this.x.nextClean() == 0) {
+            return false;
+        }
+        this.x.back();
+        return true;
+    }
+
+
+    /**
+     * Read the next record.
+     * @throws NoSuchElementException if there are no more records
+     * @throws SimpleException if a record is not a valid JSON object
+     */
+    @Override
+    public JSONObject next() {
+        char c = this.x.nextClean();
+        if (c == 0) {
+            throw new NoSuchElementException("There are no more records in the NDJSON input");
+        }
+        if (c != '{') {
+            throw this.x.syntaxError("Each line of NDJSON must be a JSON object");
+        }
+        this.x.back();
+        long startLine = this.x.line;
+        JSONObject record = new JSONObject(this.x);
+        if (this.x.line != startLine) {
+            throw this.x.syntaxError("The NDJSON record starting on line " + startLine
+                    + " must end on the same line");
+        }
+        this.endOfLine();
+        this.recordCount++;
+        return record;
+    }
+
+
+    /**
+     * Consume the rest of the line after a record, which may only hold
+     * spaces or tabs.
+     */
+    private void endOfLine() {
+        for (;;) {
+            char c = this.x.next();
+            if (c == 0 || c == '\n' || c == '\r') {
+                return;
+            }
+            if (c != ' ' && c != '\t') {
+                throw this.x.syntaxError("Each line of NDJSON must hold only one JSON object");
+            }
+        }
+    }
+
+
+    /**
+     * Read the next record, or return null if there are no more.
+     */
+    public JSONObject readRecord() {
+        if (!this.hasNext()) {
+            return null;
+        }
+        return this.next();
+    }
+
+
+    /**
+     * @return the number of records read so far
+     */
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+
+    /**
+     * This reader is its own iterator, so it can be used in a for loop,
+     * but only once.
+     */
+    @Override
+    public Iterator<JSONObject> iterator() {
+        return this;
+    }
+
+
+    /**
+     * @return a sequential stream of the remaining records.  Closing the
+     *         stream closes this reader.
+     */
+    public Stream<JSONObject> stream() {
+        Spliterator<JSONObject> split = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(split, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                NDJSONReader.this.closeQuietly();
+            }
+        });
+    }
+
+
+    /**
+     * Close the stream, reader, or file that this was constructed with.
+     * A tokener passed in is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.source != null) {
+            this.source.close();
+        }
+    }
+
+
+    private void closeQuietly() {
+        try {
+            this.close();
+        }
+        catch (IOException e) {
+            throw new SimpleException("Unable to close NDJSON input", e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.purplehillsbooks.json;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * <p>Writes newline delimited JSON (also known as JSON Lines or NDJSON), one
+ * JSON object per line.  Records can be appended to the end of an existing
+ * file, so a collection of records never needs to be in memory all at once,
+ * the way it would be if it were written as one large JSONArray.</p>
+ *
+ * <pre>
+ * NDJSONWriter writer = new NDJSONWriter(file, true);    //append
+ * try {
+ *     writer.setFlushEvery(1);
+ *     writer.write(record);
+ * }
+ * finally {
+ *     writer.close();
+ * }
+ * </pre>
+ *
+ * <p>Each record is written without indentation, with its keys sorted as
+ * usual, and followed by a single newline.  Newlines inside string values
+ * are always escaped, so a record can never span lines.</p>
+ *
+ * <p>Output is buffered once, in the same buffer that a JSONObject writes
+ * into, and to a stream or file it is encoded as UTF-8 bytes as it is
+ * written, without an OutputStreamWriter.  The flush policy is a single setting: setFlushEvery(n)
+ * flushes after every n records, so 1 means every record reaches the destination
+ * as soon as it is written.  The default of 0 flushes only when the buffer is
+ * full, when flush is called, and on close, which is much faster for bulk output.</p>
+ */
+public class NDJSONWriter implements Closeable, Flushable {
+
+    private final JSONOutput out;
+    private int          flushEvery;
+    private int          sinceFlush;
+    private long         recordCount;
+
+
+    /**
+     * Write records to a Writer.
+     */
+    public NDJSONWriter(Writer w) {
+        this.out = JSONOutput.over(w);
+    }
+
+
+    /**
+     * Write records to a stream in UTF-8.
+     */
+    public NDJSONWriter(OutputStream os) {
+        this.out = JSONOutput.over(os);
+    }
+
+
+    /**
+     * Write records to a file in UTF-8.
+     * @param append true to add records to the end of an existing file,
+     *        false to replace the file
+     */
+    public NDJSONWriter(File outFile, boolean append) throws Exception {
+        this(new FileOutputStream(outFile, append));
+    }
+
+
+    /**
+     * Set the flush policy.
+     * @param records flush after this many records, or 0 to flush only when
+     *        the buffer fills, when flush is called, and on close
+     */
+    public void setFlushEvery(int records) {
+        this.flushEvery = records;
+    }
+
+
+    /**
+     * Write one record as a single line.
+     */
+    public void write(JSONObject record) {
+        try {
+            record.write(this.out, 0, 0);
+            this.out.write('\n');
+            this.recordCount++;
+            if (this.flushEvery > 0 && ++this.sinceFlush >= this.flushEvery) {
+                this.flush();
+            }
+        }
+        catch (IOException e) {
+            throw new SimpleException("Unable to write NDJSON record number %d", e, this.recordCount);
+        }
+    }
+
+
+    /**
+     * Write each of the objects in an array as a record.
+     */
+    public void writeAll(JSONArray records) {
+        for (int i = 0; i < records.length(); i++) {
+            this.write(records.getJSONObject(i));
+        }
+    }
+
+
+    /**
+     * @return the number of records written so far
+     */
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+        this.sinceFlush = 0;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.out.close();
+        }
+        finally {
+            this.out.release();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.purplehillsbooks.json;
+
+/**
+ * <p>The UTF-8 bytes that a frozen JSONObject or JSONArray writes, kept so
+ * that writing it again is a copy of the bytes.  Since a frozen object can
+ * never change, the bytes can never be out of date, and nothing has to be
+ * told when something changes: a change is always made on a mutableCopy,
+ * which has no cache, while every frozen part that was not touched keeps its
+ * cache and is still shared by the new tree.</p>
+ *
+ * <p>The bytes depend on the indent factor, on how far the object is
+ * indented, and on whether keys are sorted, so a few forms are kept, the
+ * oldest being dropped when there are more.  Text that is short is not
+ * worth keeping, as writing it is about as fast as copying it, so for such
+ * a form only the fact that it is too small is kept, and it is written each
+ * time.  This is decided form by form: the compact text of an object can be
+ * short while its indented text is well worth keeping.</p>
+ *
+ * <p>A cache is shared by all the threads that write the tree.  Two threads
+ * writing a form at the same time may both make it, and one of them is kept.</p>
+ */
+final class OutputCache {
+
+    /**
+     * Text shorter than this is written each time instead.
+     */
+    static final int MIN_SIZE = 512;
+
+    private static final int MAX_FORMS = 4;
+
+    /**
+     * Returned by get for a form that was found to be too short to keep.
+     */
+    static final byte[] TOO_SMALL = new byte[0];
+
+    private static final class Form {
+        final int     indentFactor;
+        final int     indent;
+        final boolean sortKeys;
+        final byte[]  bytes;
+
+        Form(int indentFactor, int indent, boolean sortKeys, byte[] bytes) {
+            this.indentFactor = indentFactor;
+            this.indent = indent;
+            this.sortKeys = sortKeys;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Replaced, never changed, so that readers need no lock.
+     */
+    private volatile Form[] forms = new Form[0];
+
+
+    /**
+     * @return the bytes for the form, TOO_SMALL if the form is not worth
+     * keeping, or null if nothing is known about the form yet
+     */
+    byte[] get(int indentFactor, int indent, boolean sortKeys) {
+        for (Form f : this.forms) {
+            if (f.indentFactor == indentFactor && f.indent == indent && f.sortKeys == sortKeys) {
+                return f.bytes;
+            }
+        }
+        return null;
+    }
+
+
+    void put(int indentFactor, int indent, boolean sortKeys, byte[] bytes) {
+        if (bytes.length < MIN_SIZE) {
+            bytes = TOO_SMALL;
+        }
+        Form[] old = this.forms;
+        int keep = Math.min(old.length, MAX_FORMS - 1);
+        Form[] res = new Form[keep + 1];
+        System.arraycopy(old, old.length - keep, res, 0, keep);
+        res[keep] = new Form(indentFactor, indent, sortKeys, bytes);
+        this.forms = res;
+    }
+}
@@ -0,0 +1,166 @@
+package com.purplehillsbooks.json;
+
+
+/**
+ * <p>A SymbolTable holds one canonical String for each distinct key seen
+ * while parsing.  A document that is a large array of records repeats the
+ * same few keys over and over, and with a symbol table every occurrence of
+ * a key shares a single String, instead of each one holding its own copy
+ * for as long as the document is in memory.  The lookup works directly on
+ * the characters in the tokener, so no String is created when the key
+ * has been seen before.</p>
+ *
+ * <p>Every JSONTokener uses a new symbol table for each parse unless it is
+ * given one.  To share the keys across many parses on the same thread, for
+ * example when reading many small files of the same shape, use the table
+ * for the current thread:</p>
+ *
+ * <pre>
+ * JSONTokener jt = new UTF8JSONTokener( inputStream );
+ * jt.setSymbolTable( SymbolTable.forThread() );
+ * JSONObject jo = new JSONObject( jt );
+ * </pre>
+ *
+ * <p>A symbol table is not thread safe.  It holds at most a fixed number
+ * of entries, and when that is reached it is emptied and starts again, so
+ * a document with an unbounded number of distinct keys will not cause it to
+ * grow without limit.</p>
+ */
+public class SymbolTable {
+
+    /**
+     * The number of entries held before the table is emptied and started again.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    private static final ThreadLocal<SymbolTable> PER_THREAD = new ThreadLocal<SymbolTable>() {
+        @Override
+        protected SymbolTable initialValue() {
+            return new SymbolTable();
+        }
+    };
+
+    private final int maxEntries;
+    private String[]  symbols;
+    private int[]     hashes;
+    private int       count;
+
+
+    public SymbolTable() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+
+    /**
+     * @param maxEntries the number of entries held before the table is
+     *        emptied and started again
+     */
+    public SymbolTable(int maxEntries) {
+        this.maxEntries = Math.max(maxEntries, 16);
+        this.symbols = new String[64];
+        this.hashes = new int[64];
+    }
+
+
+    /**
+     * @return the symbol table belonging to the current thread, which lasts
+     *         as long as the thread does
+     */
+    public static SymbolTable forThread() {
+        return PER_THREAD.get();
+    }
+
+
+    /**
+     * Find the canonical String with the specified characters, adding one
+     * if there is not one already.
+     */
+    public String lookup(char[] buf, int offset, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + buf[offset + i];
+        }
+        String[] table = this.symbols;
+        int mask = table.length - 1;
+        int idx = spread(h) & mask;
+        String sym = table[idx];
+        while (sym != null) {
+            if (this.hashes[idx] == h && matches(sym, buf, offset, len)) {
+                return sym;
+            }
+            idx = (idx + 1) & mask;
+            sym = table[idx];
+        }
+        sym = new String(buf, offset, len);
+        if (this.count >= this.maxEntries) {
+            this.clear();
+        }
+        else if (this.count * 2 >= table.length) {
+            this.grow();
+        }
+        this.insert(sym, h);
+        return sym;
+    }
+
+
+    /**
+     * @return the number of distinct strings currently held
+     */
+    public int size() {
+        return this.count;
+    }
+
+
+    /**
+     * Forget all of the strings held.
+     */
+    public void clear() {
+        this.symbols = new String[64];
+        this.hashes = new int[64];
+        this.count = 0;
+    }
+
+
+    private void insert(String sym, int h) {
+        int mask = this.symbols.length - 1;
+        int idx = spread(h) & mask;
+        while (this.symbols[idx] != null) {
+            idx = (idx + 1) & mask;
+        }
+        this.symbols[idx] = sym;
+        this.hashes[idx] = h;
+        this.count++;
+    }
+
+
+    private void grow() {
+        String[] oldSymbols = this.symbols;
+        int[] oldHashes = this.hashes;
+        this.symbols = new String[oldSymbols.length * 2];
+        this.hashes = new int[oldSymbols.length * 2];
+        this.count = 0;
+        for (int i = 0; i < oldSymbols.length; i++) {
+            if (oldSymbols[i] != null) {
+                this.insert(oldSymbols[i], oldHashes[i]);
+            }
+        }
+    }
+
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+
+    private static boolean matches(String sym, char[] buf, int offset, int len) {
+        if (sym.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (sym.charAt(i) != buf[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
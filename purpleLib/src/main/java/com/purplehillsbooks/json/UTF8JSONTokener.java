@@ -0,0 +1,502 @@
+package com.purplehillsbooks.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>A JSONTokener that reads UTF-8 encoded bytes directly, without first
+ * decoding the entire input into characters with an InputStreamReader.</p>
+ *
+ * <pre>
+ * JSONObject jo = new JSONObject( new UTF8JSONTokener( inputStream ) );
+ * JSONObject jo = new JSONObject( new UTF8JSONTokener( byteArray ) );
+ * JSONObject jo = new JSONObject( new UTF8JSONTokener( byteBuffer ) );
+ * </pre>
+ *
+ * <p>All of the structural characters of JSON are ASCII, so whitespace,
+ * braces, brackets, colons and commas are handled as bytes.  Only the
+ * contents of string literals (and the rare unquoted value with non-ASCII
+ * characters in it) are ever decoded, and that is done in a tight loop
+ * straight into the scratch buffer of the tokener.</p>
+ *
+ * <p>Positions reported in syntax errors are counted in characters, exactly
+ * as they would be for the same text read through a Reader.  Malformed UTF-8
+ * byte sequences are replaced with the U+FFFD replacement character.</p>
+ */
+public class UTF8JSONTokener extends JSONTokener {
+
+    /**
+     * Size of the byte window used when reading from an InputStream
+     * or a direct ByteBuffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 32768;
+
+    /**
+     * Files at least this large are memory mapped by forChannel.
+     */
+    public static final long DEFAULT_MAP_THRESHOLD = 256 * 1024;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private InputStream in;
+    private ByteBuffer  source;
+
+    /**
+     * The window of bytes.  Bytes from bpos up to blimit have not been
+     * consumed yet.  When reading from a byte array or heap buffer, the
+     * window is the caller's array and is never refilled.
+     */
+    private byte[]  bytes;
+    private int     bpos;
+    private int     blimit;
+    private int     bmark = -1;
+
+    /**
+     * A character outside the basic plane is decoded into two chars, and the
+     * second (low surrogate) is held here until the next read.
+     */
+    private int     pendingLow = -1;
+    private int     markPendingLow = -1;
+
+
+    /**
+     * Construct a tokener reading UTF-8 bytes from a stream.  The stream
+     * is read in large blocks, so there is no reason to buffer it.
+     */
+    public UTF8JSONTokener(InputStream source) {
+        this(source, DEFAULT_BUFFER_SIZE);
+    }
+
+
+    /**
+     * Construct a tokener reading UTF-8 bytes from a stream in blocks
+     * of the specified size.
+     */
+    public UTF8JSONTokener(InputStream source, int bufferSize) {
+        super();
+        this.in = source;
+        this.bytes = new byte[Math.max(bufferSize, 16)];
+    }
+
+
+    /**
+     * Construct a tokener that scans a byte array of UTF-8 directly.
+     * The array is not copied, so it must not change during the parse.
+     */
+    public UTF8JSONTokener(byte[] source) {
+        this(source, 0, source.length);
+    }
+
+
+    /**
+     * Construct a tokener that scans a range of a byte array of UTF-8 directly.
+     * The array is not copied, so it must not change during the parse.
+     */
+    public UTF8JSONTokener(byte[] source, int offset, int length) {
+        super();
+        this.bytes = source;
+        this.bpos = offset;
+        this.blimit = offset + length;
+    }
+
+
+    /**
+     * Construct a tokener that reads the remaining bytes of a buffer.
+     * A heap buffer is scanned in place.  A direct or mapped buffer is
+     * read in blocks into a small window.  The position of the buffer
+     * is not changed.
+     */
+    public UTF8JSONTokener(ByteBuffer source) {
+        super();
+        if (source.hasArray()) {
+            this.bytes = source.array();
+            this.bpos = source.arrayOffset() + source.position();
+            this.blimit = source.arrayOffset() + source.limit();
+        }
+        else {
+            this.source = source.duplicate();
+            this.bytes = new byte[Math.min(DEFAULT_BUFFER_SIZE, Math.max(source.remaining(), 16))];
+        }
+    }
+
+
+    /**
+     * Construct a tokener that reads an entire open file.  A file of at least
+     * DEFAULT_MAP_THRESHOLD bytes is memory mapped, and the mapped pages are
+     * copied in blocks into the byte window without going through a stream
+     * or making any read calls.  A smaller file is
+     * read as a stream, because setting up a mapping costs more than reading a
+     * few blocks.  The channel must stay open until the parse is done.
+     */
+    public static UTF8JSONTokener forChannel(FileChannel channel) throws IOException {
+        return forChannel(channel, DEFAULT_MAP_THRESHOLD);
+    }
+
+
+    /**
+     * Construct a tokener that reads an entire open file, mapping it when it
+     * is at least mapThreshold bytes.  A file too large for a single mapping
+     * (2GB) is always read as a stream.
+     */
+    public static UTF8JSONTokener forChannel(FileChannel channel, long mapThreshold) throws IOException {
+        long size = channel.size();
+        if (size >= mapThreshold && size <= Integer.MAX_VALUE) {
+            return new UTF8JSONTokener(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+        return new UTF8JSONTokener(Channels.newInputStream(channel));
+    }
+
+
+    /**
+     * Slide the unread (or marked) part of the window to the front and
+     * read more bytes after it.
+     * @return true if more bytes are available
+     */
+    private boolean fillBytes() {
+        if (this.in == null && this.source == null) {
+            return false;
+        }
+        int keep = this.bmark >= 0 ? this.bmark : this.bpos;
+        if (keep > 0) {
+            System.arraycopy(this.bytes, keep, this.bytes, 0, this.blimit - keep);
+            this.blimit -= keep;
+            this.bpos -= keep;
+            if (this.bmark >= 0) {
+                this.bmark = 0;
+            }
+        }
+        if (this.blimit == this.bytes.length) {
+            byte[] newBytes = new byte[this.bytes.length * 2];
+            System.arraycopy(this.bytes, 0, newBytes, 0, this.blimit);
+            this.bytes = newBytes;
+        }
+        int room = this.bytes.length - this.blimit;
+        if (this.source != null) {
+            int n = Math.min(room, this.source.remaining());
+            if (n == 0) {
+                return false;
+            }
+            this.source.get(this.bytes, this.blimit, n);
+            this.blimit += n;
+            return true;
+        }
+        try {
+            int n = 0;
+            while (n == 0) {
+                n = this.in.read(this.bytes, this.blimit, room);
+            }
+            if (n < 0) {
+                return false;
+            }
+            this.blimit += n;
+            return true;
+        } catch (IOException exception) {
+            throw new SimpleException("Error while reading a character from input", exception);
+        }
+    }
+
+
+    /**
+     * @return the next byte as 0-255, or -1 at the end of the source
+     */
+    private int readByte() {
+        if (this.bpos >= this.blimit && !this.fillBytes()) {
+            return -1;
+        }
+        return this.bytes[this.bpos++] & 0xFF;
+    }
+
+
+    /**
+     * Read the next continuation byte of a multibyte sequence without consuming
+     * anything that is not a continuation byte.
+     * @return the six payload bits, or -1 if the next byte is not a continuation
+     */
+    private int continuation() {
+        if (this.bpos >= this.blimit && !this.fillBytes()) {
+            return -1;
+        }
+        int b = this.bytes[this.bpos];
+        if ((b & 0xC0) != 0x80) {
+            return -1;
+        }
+        this.bpos++;
+        return b & 0x3F;
+    }
+
+
+    @Override
+    int read() {
+        if (this.pendingLow >= 0) {
+            int c = this.pendingLow;
+            this.pendingLow = -1;
+            return c;
+        }
+        int b = this.readByte();
+        if (b < 0x80) {
+            return b;
+        }
+        return this.decode(b);
+    }
+
+
+    /**
+     * Decode a multibyte sequence whose lead byte has been consumed.
+     * A character outside the basic plane returns the high surrogate
+     * and leaves the low surrogate pending.
+     */
+    private int decode(int b) {
+        if (b >= 0xC2 && b <= 0xDF) {
+            int c1 = this.continuation();
+            if (c1 < 0) {
+                return REPLACEMENT;
+            }
+            return ((b & 0x1F) << 6) | c1;
+        }
+        if (b >= 0xE0 && b <= 0xEF) {
+            int c1 = this.continuation();
+            if (c1 < 0) {
+                return REPLACEMENT;
+            }
+            int c2 = this.continuation();
+            if (c2 < 0) {
+                return REPLACEMENT;
+            }
+            int ch = ((b & 0x0F) << 12) | (c1 << 6) | c2;
+            if (ch < 0x800 || (ch >= 0xD800 && ch <= 0xDFFF)) {
+                return REPLACEMENT;
+            }
+            return ch;
+        }
+        if (b >= 0xF0 && b <= 0xF4) {
+            int c1 = this.continuation();
+            if (c1 < 0) {
+                return REPLACEMENT;
+            }
+            int c2 = this.continuation();
+            if (c2 < 0) {
+                return REPLACEMENT;
+            }
+            int c3 = this.continuation();
+            if (c3 < 0) {
+                return REPLACEMENT;
+            }
+            int cp = ((b & 0x07) << 18) | (c1 << 12) | (c2 << 6) | c3;
+            if (cp < 0x10000 || cp > 0x10FFFF) {
+                return REPLACEMENT;
+            }
+            this.pendingLow = Character.lowSurrogate(cp);
+            return Character.highSurrogate(cp);
+        }
+        return REPLACEMENT;
+    }
+
+
+    /**
+     * The offset in the byte array of the next character to be read, taking
+     * into account a character that was stepped back over.  This is only
+     * meaningful when reading from a byte array or heap buffer, where the
+     * window is never moved, and only for well formed UTF-8.
+     */
+    int bytePosition() {
+        if (!this.usePrevious) {
+            return this.bpos;
+        }
+        char c = this.previous;
+        if (c == 0) {
+            return this.bpos;
+        }
+        if (c < 0x80) {
+            return this.bpos - 1;
+        }
+        if (c < 0x800) {
+            return this.bpos - 2;
+        }
+        if (Character.isHighSurrogate(c)) {
+            return this.bpos - 4;
+        }
+        if (Character.isLowSurrogate(c)) {
+            return this.bpos;
+        }
+        return this.bpos - 3;
+    }
+
+
+    @Override
+    void markSource() {
+        this.bmark = this.bpos;
+        this.markPendingLow = this.pendingLow;
+    }
+
+
+    @Override
+    void resetSource() {
+        this.bpos = this.bmark;
+        this.pendingLow = this.markPendingLow;
+        this.bmark = -1;
+    }
+
+
+    @Override
+    void unmarkSource() {
+        this.bmark = -1;
+    }
+
+
+    @Override
+    int whitespaceRun() {
+        if (this.usePrevious || this.previous == '\r' || this.pendingLow >= 0) {
+            return -1;
+        }
+        byte[] b = this.bytes;
+        int start = this.bpos;
+        int p = start;
+        int lim = this.blimit;
+        while (p < lim) {
+            int c = b[p];
+            if (c > ' ') {
+                //an ASCII character, the sign bit makes all multibyte leads negative
+                this.bpos = p + 1;
+                this.counted(p + 1 - start, (char) c);
+                return c;
+            }
+            if (c != ' ' && c != '\t') {
+                break;
+            }
+            p++;
+        }
+        if (p > start) {
+            this.bpos = p;
+            this.counted(p - start, (char) b[p - 1]);
+        }
+        return -1;
+    }
+
+
+    @Override
+    int stringRun(char quote, int len) {
+        if (this.usePrevious || this.previous == '\r' || this.pendingLow >= 0) {
+            return len;
+        }
+        byte[] b = this.bytes;
+        int p = this.bpos;
+        int lim = this.blimit;
+        char[] sb = this.sbuf;
+        int start = len;
+        while (p < lim) {
+            if (len >= sb.length - 1) {
+                sb = this.growScratch(len + 2);
+            }
+            int c = b[p];
+            if (c >= 0) {
+                if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                    break;
+                }
+                sb[len++] = (char) c;
+                p++;
+            }
+            else if ((c & 0xE0) == 0xC0 && p + 1 < lim && (c & 0xFF) >= 0xC2
+                    && (b[p + 1] & 0xC0) == 0x80) {
+                sb[len++] = (char) (((c & 0x1F) << 6) | (b[p + 1] & 0x3F));
+                p += 2;
+            }
+            else if ((c & 0xF0) == 0xE0 && p + 2 < lim
+                    && (b[p + 1] & 0xC0) == 0x80 && (b[p + 2] & 0xC0) == 0x80) {
+                int ch = ((c & 0x0F) << 12) | ((b[p + 1] & 0x3F) << 6) | (b[p + 2] & 0x3F);
+                if (ch < 0x800 || (ch >= 0xD800 && ch <= 0xDFFF)) {
+                    break;
+                }
+                sb[len++] = (char) ch;
+                p += 3;
+            }
+            else {
+                //four byte sequences, malformed input, and sequences split
+                //across the end of the window all go through read()
+                break;
+            }
+        }
+        if (len > start) {
+            this.bpos = p;
+            this.counted(len - start, sb[len - 1]);
+        }
+        return len;
+    }
+
+
+    @Override
+    void skipStringRun(char quote) {
+        if (this.usePrevious || this.previous == '\r' || this.pendingLow >= 0) {
+            return;
+        }
+        byte[] b = this.bytes;
+        int p = this.bpos;
+        int lim = this.blimit;
+        int n = 0;
+        char last = 0;
+        while (p < lim) {
+            int c = b[p];
+            if (c >= 0) {
+                if (c == quote || c == '\\' || c == '\n' || c == '\r' || c == 0) {
+                    break;
+                }
+                last = (char) c;
+                p++;
+            }
+            else if ((c & 0xE0) == 0xC0 && p + 1 < lim && (c & 0xFF) >= 0xC2
+                    && (b[p + 1] & 0xC0) == 0x80) {
+                last = (char) (((c & 0x1F) << 6) | (b[p + 1] & 0x3F));
+                p += 2;
+            }
+            else if ((c & 0xF0) == 0xE0 && p + 2 < lim
+                    && (b[p + 1] & 0xC0) == 0x80 && (b[p + 2] & 0xC0) == 0x80) {
+                int ch = ((c & 0x0F) << 12) | ((b[p + 1] & 0x3F) << 6) | (b[p + 2] & 0x3F);
+                if (ch < 0x800 || (ch >= 0xD800 && ch <= 0xDFFF)) {
+                    break;
+                }
+                last = (char) ch;
+                p += 3;
+            }
+            else {
+                break;
+            }
+            n++;
+        }
+        if (n > 0) {
+            this.bpos = p;
+            this.counted(n, last);
+        }
+    }
+
+
+    @Override
+    int unquotedRun(int len) {
+        if (this.usePrevious || this.pendingLow >= 0) {
+            return len;
+        }
+        byte[] b = this.bytes;
+        int start = this.bpos;
+        int p = start;
+        int lim = this.blimit;
+        while (p < lim) {
+            int c = b[p];
+            if (c < ' ' || !isUnquotedChar((char) c)) {
+                //includes every non-ASCII byte, which are decoded by read()
+                break;
+            }
+            p++;
+        }
+        int n = p - start;
+        if (n > 0) {
+            char[] sb = this.growScratch(len + n);
+            for (int i = start; i < p; i++) {
+                sb[len++] = (char) b[i];
+            }
+            this.bpos = p;
+            this.counted(n, (char) b[p - 1]);
+        }
+        return len;
+    }
+}
@@ -0,0 +1,506 @@
+package com.purplehillsbooks.json;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * <p>The list that holds the elements of a JSONArray.  An array whose elements
+ * are all Integer, all Long, or all Double is held in an int[], long[] or
+ * double[], which takes a fraction of the memory of the same numbers boxed
+ * in an ArrayList, and lets them be read in bulk without any boxing.  Any
+ * other array is held in an Object[] just as an ArrayList would.</p>
+ *
+ * <p>The form is chosen by the first element added, and the moment an element
+ * of any other type is added or set, all of the elements are boxed into the
+ * Object[] form, which is kept until the list is empty again.  Elements are
+ * always returned with exactly the type that they were added with, so the form
+ * is never visible except as a difference in memory and speed.  Mixing types,
+ * even Integer with Double, means the Object[] form.</p>
+ *
+ * <p>A frozen list shares the storage of the list it was made from, which
+ * is then dropped, and refuses every change.</p>
+ */
+class ValueList extends AbstractList<Object> implements RandomAccess {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * An int[], long[], double[] or Object[], with the elements from 0 up to size.
+     */
+    private Object store = EMPTY;
+    private int    size;
+
+
+    ValueList() {
+    }
+
+
+    /**
+     * Take over the elements of another list, which must not be used after.
+     */
+    private ValueList(ValueList from) {
+        this.store = from.store;
+        this.size = from.size;
+    }
+
+
+    /**
+     * Construct a list holding a copy of a primitive array.
+     */
+    ValueList(int[] values) {
+        this.store = values.clone();
+        this.size = values.length;
+    }
+
+    ValueList(long[] values) {
+        this.store = values.clone();
+        this.size = values.length;
+    }
+
+    ValueList(double[] values) {
+        this.store = values.clone();
+        this.size = values.length;
+    }
+
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+
+    @Override
+    public Object get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + this.size);
+        }
+        Object s = this.store;
+        if (s instanceof Object[]) {
+            return ((Object[]) s)[index];
+        }
+        if (s instanceof int[]) {
+            return Integer.valueOf(((int[]) s)[index]);
+        }
+        if (s instanceof long[]) {
+            return Long.valueOf(((long[]) s)[index]);
+        }
+        return Double.valueOf(((double[]) s)[index]);
+    }
+
+
+    @Override
+    public Object set(int index, Object value) {
+        Object old = this.get(index);
+        if (!this.fits(value)) {
+            this.box(this.size);
+        }
+        this.store(index, value);
+        return old;
+    }
+
+
+    @Override
+    public boolean add(Object value) {
+        this.add(this.size, value);
+        return true;
+    }
+
+
+    @Override
+    public void add(int index, Object value) {
+        if (index < 0 || index > this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + this.size);
+        }
+        if (this.size == 0) {
+            this.store = newStore(value, 10);
+        }
+        else if (!this.fits(value)) {
+            this.box(this.size + 1);
+        }
+        int capacity = this.capacity();
+        if (this.size == capacity) {
+            this.grow(capacity + (capacity >> 1) + 1);
+        }
+        if (index < this.size) {
+            System.arraycopy(this.store, index, this.store, index + 1, this.size - index);
+        }
+        this.size++;
+        this.store(index, value);
+        this.modCount++;
+    }
+
+
+    @Override
+    public Object remove(int index) {
+        Object old = this.get(index);
+        int moved = this.size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(this.store, index + 1, this.store, index, moved);
+        }
+        this.size--;
+        if (this.store instanceof Object[]) {
+            ((Object[]) this.store)[this.size] = null;
+        }
+        this.modCount++;
+        return old;
+    }
+
+
+    @Override
+    public void clear() {
+        this.store = EMPTY;
+        this.size = 0;
+        this.modCount++;
+    }
+
+
+    /**
+     * @return a new list, that can be changed, holding the same elements
+     */
+    ValueList copy() {
+        ValueList res = new ValueList(this);
+        res.grow(this.size);
+        return res;
+    }
+
+
+    /**
+     * @return a list that holds the same elements and can not be changed.
+     *         This list must not be used after.
+     */
+    ValueList frozen() {
+        return new Frozen(this);
+    }
+
+
+    boolean isFrozen() {
+        return false;
+    }
+
+
+    /**
+     * @return the kept output of a frozen list, or null if it has none
+     */
+    OutputCache outputCache() {
+        return null;
+    }
+
+
+    /**
+     * Start keeping the output of a frozen list.
+     * @return false if the list is not frozen
+     */
+    boolean keepOutput() {
+        return false;
+    }
+
+
+    /**
+     * @return the structural hash kept with a frozen list, or null
+     */
+    byte[] keptHash() {
+        return null;
+    }
+
+
+    /**
+     * Keep the structural hash, if this list is frozen and so can not change.
+     */
+    void keepHash(byte[] hash) {
+    }
+
+
+    /**
+     * A list that can not be changed.  Every change to an AbstractList,
+     * including through its iterators and sort, comes down to one of these.
+     */
+    private static final class Frozen extends ValueList {
+        private volatile OutputCache outputCache;
+        private volatile byte[] hash;
+
+        Frozen(ValueList from) {
+            super(from);
+        }
+
+        @Override
+        ValueList frozen() {
+            return this;
+        }
+
+        @Override
+        boolean isFrozen() {
+            return true;
+        }
+
+        @Override
+        OutputCache outputCache() {
+            return this.outputCache;
+        }
+
+        @Override
+        boolean keepOutput() {
+            if (this.outputCache == null) {
+                this.outputCache = new OutputCache();
+            }
+            return true;
+        }
+
+        @Override
+        byte[] keptHash() {
+            return this.hash;
+        }
+
+        @Override
+        void keepHash(byte[] hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public Object set(int index, Object value) {
+            throw frozenException();
+        }
+
+        @Override
+        public void add(int index, Object value) {
+            throw frozenException();
+        }
+
+        @Override
+        public Object remove(int index) {
+            throw frozenException();
+        }
+
+        @Override
+        public void clear() {
+            throw frozenException();
+        }
+
+        private static SimpleException frozenException() {
+            return new SimpleException("This JSONArray is frozen and can not be changed, use mutableCopy to get one that can be.");
+        }
+    }
+
+
+    /**
+     * @return true if the elements are held unboxed
+     */
+    boolean isPrimitive() {
+        return !(this.store instanceof Object[]);
+    }
+
+
+    /**
+     * Read an element as a number without boxing.  Only for the primitive
+     * form, and an index already checked.
+     */
+    double doubleAt(int index) {
+        Object s = this.store;
+        if (s instanceof double[]) {
+            return ((double[]) s)[index];
+        }
+        if (s instanceof int[]) {
+            return ((int[]) s)[index];
+        }
+        return ((long[]) s)[index];
+    }
+
+    long longAt(int index) {
+        Object s = this.store;
+        if (s instanceof long[]) {
+            return ((long[]) s)[index];
+        }
+        if (s instanceof int[]) {
+            return ((int[]) s)[index];
+        }
+        return (long) ((double[]) s)[index];
+    }
+
+    int intAt(int index) {
+        Object s = this.store;
+        if (s instanceof int[]) {
+            return ((int[]) s)[index];
+        }
+        if (s instanceof long[]) {
+            return (int) ((long[]) s)[index];
+        }
+        return (int) ((double[]) s)[index];
+    }
+
+
+    /**
+     * @return the elements as doubles if held in primitive form, otherwise null
+     */
+    double[] primitiveDoubles() {
+        Object s = this.store;
+        double[] res = new double[this.size];
+        if (s instanceof double[]) {
+            System.arraycopy(s, 0, res, 0, this.size);
+        }
+        else if (s instanceof int[]) {
+            int[] ints = (int[]) s;
+            for (int i = 0; i < this.size; i++) {
+                res[i] = ints[i];
+            }
+        }
+        else if (s instanceof long[]) {
+            long[] longs = (long[]) s;
+            for (int i = 0; i < this.size; i++) {
+                res[i] = longs[i];
+            }
+        }
+        else {
+            return null;
+        }
+        return res;
+    }
+
+
+    /**
+     * @return the elements as longs if held in primitive form, otherwise null
+     */
+    long[] primitiveLongs() {
+        Object s = this.store;
+        long[] res = new long[this.size];
+        if (s instanceof long[]) {
+            System.arraycopy(s, 0, res, 0, this.size);
+        }
+        else if (s instanceof int[]) {
+            int[] ints = (int[]) s;
+            for (int i = 0; i < this.size; i++) {
+                res[i] = ints[i];
+            }
+        }
+        else if (s instanceof double[]) {
+            double[] doubles = (double[]) s;
+            for (int i = 0; i < this.size; i++) {
+                res[i] = (long) doubles[i];
+            }
+        }
+        else {
+            return null;
+        }
+        return res;
+    }
+
+
+    /**
+     * @return the elements as ints if held in primitive form, otherwise null
+     */
+    int[] primitiveInts() {
+        Object s = this.store;
+        int[] res = new int[this.size];
+        if (s instanceof int[]) {
+            System.arraycopy(s, 0, res, 0, this.size);
+        }
+        else if (s instanceof long[]) {
+            long[] longs = (long[]) s;
+            for (int i = 0; i < this.size; i++) {
+                res[i] = (int) longs[i];
+            }
+        }
+        else if (s instanceof double[]) {
+            double[] doubles = (double[]) s;
+            for (int i = 0; i < this.size; i++) {
+                res[i] = (int) doubles[i];
+            }
+        }
+        else {
+            return null;
+        }
+        return res;
+    }
+
+
+    /**
+     * An empty store of the form that suits the value.
+     */
+    private static Object newStore(Object value, int capacity) {
+        if (value instanceof Integer) {
+            return new int[capacity];
+        }
+        if (value instanceof Long) {
+            return new long[capacity];
+        }
+        if (value instanceof Double) {
+            return new double[capacity];
+        }
+        return new Object[capacity];
+    }
+
+
+    /**
+     * @return true if the value can be held in the current form
+     */
+    private boolean fits(Object value) {
+        Object s = this.store;
+        return s instanceof Object[]
+                || (s instanceof int[] && value instanceof Integer)
+                || (s instanceof long[] && value instanceof Long)
+                || (s instanceof double[] && value instanceof Double);
+    }
+
+
+    /**
+     * Place a value that fits the current form, with the room already there.
+     */
+    private void store(int index, Object value) {
+        Object s = this.store;
+        if (s instanceof Object[]) {
+            ((Object[]) s)[index] = value;
+        }
+        else if (s instanceof int[]) {
+            ((int[]) s)[index] = ((Integer) value).intValue();
+        }
+        else if (s instanceof long[]) {
+            ((long[]) s)[index] = ((Long) value).longValue();
+        }
+        else {
+            ((double[]) s)[index] = ((Double) value).doubleValue();
+        }
+    }
+
+
+    /**
+     * Convert to the Object[] form, with room for at least the capacity.
+     */
+    private void box(int capacity) {
+        Object[] boxed = new Object[Math.max(capacity, this.size + (this.size >> 1) + 1)];
+        for (int i = 0; i < this.size; i++) {
+            boxed[i] = this.get(i);
+        }
+        this.store = boxed;
+    }
+
+
+    private int capacity() {
+        Object s = this.store;
+        if (s instanceof Object[]) {
+            return ((Object[]) s).length;
+        }
+        if (s instanceof int[]) {
+            return ((int[]) s).length;
+        }
+        if (s instanceof long[]) {
+            return ((long[]) s).length;
+        }
+        return ((double[]) s).length;
+    }
+
+
+    private void grow(int capacity) {
+        Object s = this.store;
+        if (s instanceof Object[]) {
+            this.store = Arrays.copyOf((Object[]) s, capacity);
+        }
+        else if (s instanceof int[]) {
+            this.store = Arrays.copyOf((int[]) s, capacity);
+        }
+        else if (s instanceof long[]) {
+            this.store = Arrays.copyOf((long[]) s, capacity);
+        }
+        else {
+            this.store = Arrays.copyOf((double[]) s, capacity);
+        }
+    }
+}
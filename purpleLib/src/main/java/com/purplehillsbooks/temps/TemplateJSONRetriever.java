@@ -7,6 +7,7 @@ import java.util.Hashtable;
 
 import com.purplehillsbooks.json.JSONArray;
 import com.purplehillsbooks.json.JSONObject;
+import com.purplehillsbooks.json.JSONPath;
 
 /**
 * <p>
@@ -46,6 +47,10 @@ import com.purplehillsbooks.json.JSONObject;
  * If the expression ends at an object or an array, it will write nothing.
  * If the expression addresses a member that does not exist, it writes nothing.
  * </p>
+ * <p>
+ * Each expression is compiled into a JSONPath the first time it is seen,
+ * so rendering a template again does not split the expressions again.
+ * </p>
  */
 public class TemplateJSONRetriever implements TemplateTokenRetriever {
     JSONObject data;
@@ -115,11 +120,11 @@ public class TemplateJSONRetriever implements TemplateTokenRetriever {
 
 
     private Object getValueFromContext(String token) throws Exception {
-        ArrayList<String> tokens = splitDots(token);
-        if (tokens.size()==0) {
+        JSONPath tokens = JSONPath.compile(token);
+        if (tokens.length()==0) {
             throw new Exception("Strange, the token value passed yeilded no tokens: "+token);
         }
-        String firstToken = tokens.get(0);
+        String firstToken = tokens.key(0);
         JSONArray itArray = loopArray.get(firstToken);
         Object val = null;
 
@@ -128,7 +133,7 @@ public class TemplateJSONRetriever implements TemplateTokenRetriever {
             if (o==null) {
                 throw new Exception("Problem that loop have been initiated, but the setIteration has not been called");
             }
-            if (tokens.size()<=1) {
+            if (tokens.length()<=1) {
                 val = o;
             }
             else if (o instanceof JSONArray) {
@@ -151,7 +156,7 @@ public class TemplateJSONRetriever implements TemplateTokenRetriever {
     public int initLoop(String id, String token) throws Exception {
         //find the array that the token refers to
         //and set up to handle as a loop
-        ArrayList<String> tokens = splitDots(token);
+        JSONPath tokens = JSONPath.compile(token);
         Object o = getValuefromObject(tokens, 0, data);
 
         if (o instanceof JSONArray) {
@@ -214,8 +219,8 @@ public class TemplateJSONRetriever implements TemplateTokenRetriever {
     }
 
 
-    private static Object getValuefromObject(ArrayList<String> tokens, int index, JSONObject d) throws Exception {
-        String thisToken = tokens.get(index);
+    private static Object getValuefromObject(JSONPath tokens, int index, JSONObject d) throws Exception {
+        String thisToken = tokens.key(index);
         if (!d.has(thisToken)) {
             //no member by this name, so return no value, keep it silent
             return "";
@@ -224,7 +229,7 @@ public class TemplateJSONRetriever implements TemplateTokenRetriever {
         //not at the end, so we need to be somewhat fancier
         Object o = d.get(thisToken);
 
-        if (index == tokens.size() - 1) {
+        if (index == tokens.length() - 1) {
             //in this case we actually need to get a string
             return o;
         }
@@ -241,9 +246,11 @@ public class TemplateJSONRetriever implements TemplateTokenRetriever {
         return o;
     }
 
-    private static Object getValuefromArray(ArrayList<String> tokens, int index, JSONArray ja) throws Exception {
-        String thisToken = tokens.get(index);
-        int intIndex = safeConvertInt(thisToken);
+    private static Object getValuefromArray(JSONPath tokens, int index, JSONArray ja) throws Exception {
+        int intIndex = tokens.index(index);
+        if (intIndex < 0) {
+            intIndex = safeConvertInt(tokens.key(index));
+        }
         if (intIndex >= ja.length()) {
             //exceeded the length of the array, so return a empty string
             return "";
@@ -252,7 +259,7 @@ public class TemplateJSONRetriever implements TemplateTokenRetriever {
         //not at the end, so we need to be somewhat fancier
         Object o = ja.get(intIndex);
 
-        if (index == tokens.size() - 1) {
+        if (index == tokens.length() - 1) {
             //in this case we actually need to get a string
             return o;
         }
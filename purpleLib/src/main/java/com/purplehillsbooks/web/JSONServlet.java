@@ -109,7 +109,7 @@ public abstract class JSONServlet extends jakarta.servlet.http.HttpServlet {
                 return;
             }
 
-            wr = new WebRequest(req, resp, resp.getWriter());
+            wr = new WebRequest(req, resp);
             rh = constructHandler(wr);
         }
         catch (Exception nonReturnable) {
@@ -135,8 +135,7 @@ public abstract class JSONServlet extends jakarta.servlet.http.HttpServlet {
             else {
                 JSONObject outObj = rh.handleRequest();
                 if (outObj!=null) {
-                    outObj.write(wr.w,2,0);
-                    wr.w.flush();
+                    wr.streamJSON(outObj);
                 }
             }
         }
@@ -150,6 +149,15 @@ public abstract class JSONServlet extends jakarta.servlet.http.HttpServlet {
             //things worse.   But then, if things are really so bad, who cares?
             wr.streamException(e, smgr);
         }
+        finally {
+            //a handler that returns null may have written to wr.w without flushing
+            try {
+                wr.w.flush();
+            }
+            catch (Exception e) {
+                JSONException.traceException(e, "RestServlet.service flushing the response");
+            }
+        }
         long endTime = System.currentTimeMillis();
         long dur = endTime - startTime;
         System.out.println("AA-"+req.getMethod()+","+startTime+","+dur+","+wr.requestURL);
@@ -6,6 +6,7 @@ import jakarta.servlet.ServletContext;
 import jakarta.servlet.http.HttpSessionEvent;
 import jakarta.servlet.http.HttpSessionListener;
 
+import com.purplehillsbooks.json.ConcurrentJSONObject;
 import com.purplehillsbooks.json.JSONException;
 import com.purplehillsbooks.json.JSONObject;
 import com.purplehillsbooks.json.SimpleException;
@@ -33,7 +34,7 @@ public class SessionManager implements HttpSessionListener {
 
 	ServletContext sc;
 	File appDataFolder;
-	JSONObject config;
+	volatile JSONObject config;
 
     private SessionManager(ServletContext _sc) {
         try {
@@ -151,7 +152,9 @@ public class SessionManager implements HttpSessionListener {
 	    if (!appConfigFile.exists()) {
 	        throw new SimpleException("Config File (%s) does not exist!", appConfigFile.getAbsoluteFile());
 	    }
-	    config = JSONObject.readFromFile(appConfigFile);
+	    //shared by all request threads, so held where they can read and
+	    //change settings without any locking
+	    config = new ConcurrentJSONObject(JSONObject.readFromFile(appConfigFile));
 	    return config;
 	}
 
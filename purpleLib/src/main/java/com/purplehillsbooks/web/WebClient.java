@@ -4,14 +4,16 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 import com.purplehillsbooks.json.JSONException;
 import com.purplehillsbooks.json.JSONObject;
 import com.purplehillsbooks.json.JSONTokener;
 import com.purplehillsbooks.json.SimpleException;
+import com.purplehillsbooks.json.UTF8JSONTokener;
 
 public class WebClient {
 
@@ -77,7 +79,7 @@ public class WebClient {
     private JSONObject sendRequestToRemote(URL url, Object msg, String method, String auth, String contentType) throws Exception {
         HttpURLConnection httpCon = null;
         InputStream is = null;
-        OutputStreamWriter osw = null;
+        OutputStream os = null;
         try {
             httpCon = (HttpURLConnection) url.openConnection();
             httpCon.setDoOutput(true);
@@ -92,19 +94,19 @@ public class WebClient {
             httpCon.setRequestMethod(method);
             httpCon.connect();
             if (!"GET".equals(method) && !"DELETE".equals(method)) {
-                osw = new OutputStreamWriter(httpCon.getOutputStream(), "UTF-8");
+                os = httpCon.getOutputStream();
                 if(msg instanceof JSONObject) {
-                    ((JSONObject)msg).write(osw, 2, 0);
+                    ((JSONObject)msg).write(os, 2, 0);
                 } else {
-                    osw.write(""+msg);
+                    os.write((""+msg).getBytes(StandardCharsets.UTF_8));
                 }
-                osw.flush();
-                osw.close();
+                os.flush();
+                os.close();
             }
 
             is = httpCon.getInputStream();
 
-            JSONTokener jt = new JSONTokener(is);
+            JSONTokener jt = new UTF8JSONTokener(is);
             JSONObject resp = new JSONObject(jt);
 
             return resp;
@@ -135,9 +137,9 @@ public class WebClient {
                     SimpleException.traceException(ioe, "WebClient encountered an error when closing input stream for url " + url);
                 }
             }
-            if(osw != null) {
+            if(os != null) {
                 try {
-                    osw.close();
+                    os.close();
                 } catch (IOException ioe2) {
                     SimpleException.traceException(ioe2, "WebClient encountered an error when closing output stream for url " + url);
                 }
@@ -1,11 +1,13 @@
 package com.purplehillsbooks.web;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 import jakarta.servlet.http.HttpServletRequest;
@@ -16,6 +18,7 @@ import com.purplehillsbooks.json.JSONArray;
 import com.purplehillsbooks.json.JSONException;
 import com.purplehillsbooks.json.JSONObject;
 import com.purplehillsbooks.json.JSONTokener;
+import com.purplehillsbooks.json.UTF8JSONTokener;
 import com.purplehillsbooks.streams.StreamHelper;
 import com.purplehillsbooks.streams.WriterUTF8OutputStream;
 
@@ -73,6 +76,25 @@ public class WebRequest {
         request.setAttribute("wrappedRequest", this);
     }
 
+    /**
+     * This constructor is used by a servlet, before anything has been gotten
+     * from the Response object.  Nothing is gotten from the Response until it
+     * is needed.  The Writer w gets the writer of the Response the first time
+     * something is written to it, so a handler can use either w or the writer
+     * of the Response.  streamJSON gets the output stream and writes the JSON
+     * to it as UTF-8 bytes directly, but only when no writer has been gotten
+     * by then, and otherwise writes to the writer.
+     */
+    public WebRequest (HttpServletRequest _req, HttpServletResponse _resp) throws Exception {
+        request = _req;
+        response = _resp;
+        session = request.getSession();
+        setUpForCrossBrowser();
+        parsePath();
+        w = new ResponseWriter();
+        request.setAttribute("wrappedRequest", this);
+    }
+
     /**
      * This factory method is used within a JSP file where the Writer has already been grabbed from the
      * Response object which only allows the writer to be gotten once.  Later attempts fail
@@ -181,7 +203,7 @@ public class WebRequest {
         }
         try {
             InputStream is = request.getInputStream();
-            JSONTokener jt = new JSONTokener(is);
+            JSONTokener jt = new UTF8JSONTokener(is);
             postedObject = new JSONObject(jt);
             is.close();
             return postedObject;
@@ -202,10 +224,46 @@ public class WebRequest {
     }
 
     public void streamJSON(JSONObject jo) throws Exception {
+        OutputStream os = openOutputStream();
+        if (os != null) {
+            //anything already written to the writer has to go out first
+            w.flush();
+            jo.write(os,2,0);
+            os.flush();
+            return;
+        }
         jo.write(w,2,0);
         w.flush();
     }
 
+    /**
+     * Get the output stream of the Response, if it has not been gotten already.
+     * This is only possible when constructed for a servlet, and only as long as
+     * nobody has gotten the writer of the Response, because the Response will
+     * not give out both.
+     * @return the output stream, or null if it is not available
+     */
+    private OutputStream openOutputStream() throws IOException {
+        if (outStream == null && w instanceof ResponseWriter && !((ResponseWriter) w).isOpen()) {
+            try {
+                outStream = response.getOutputStream();
+            }
+            catch (IllegalStateException e) {
+                //the handler got the writer of the Response itself
+            }
+        }
+        return outStream;
+    }
+
+    private OutputStream requireOutputStream() throws Exception {
+        OutputStream os = openOutputStream();
+        if (os == null) {
+            throw new Exception("Program Logic Error: the output stream is not available because the writer of the response has already been used: "+requestURL);
+        }
+        w.flush();
+        return os;
+    }
+
     public void streamException(Throwable e, SessionManager score) {
         try {
             //all exceptions are delayed by 3 seconds if the duration of the
@@ -284,7 +342,7 @@ public class WebRequest {
 
         //It seems that there is no way to get the length of the file
         //from the API.  It really should include in the response header.
-        StreamHelper.copyFileToOutput(fullPath, outStream);
+        StreamHelper.copyFileToOutput(fullPath, requireOutputStream());
     }
 
     public void streamAttachment(String attachmentName, InputStream content) throws Exception {
@@ -296,7 +354,7 @@ public class WebRequest {
             //tells the receiver to put the contents into a file without displaying
             response.setContentType("application/octet-stream");
         }
-        StreamHelper.copyInputToOutput(content, outStream);
+        StreamHelper.copyInputToOutput(content, requireOutputStream());
     }
 
 
@@ -333,4 +391,60 @@ public class WebRequest {
         return smgr.getConfigSetting(name);
     }
 
+
+    /**
+     * The Writer w when constructed for a servlet.  It gets the writer of the
+     * Response only when something is written.  If streamJSON has already
+     * gotten the output stream by then, the Response will not give out a
+     * writer, so it writes UTF-8 to that stream instead.
+     */
+    private class ResponseWriter extends Writer {
+        private Writer target;
+
+        boolean isOpen() {
+            return target != null;
+        }
+
+        private Writer target() throws IOException {
+            if (target == null) {
+                if (outStream != null) {
+                    target = new OutputStreamWriter(outStream, StandardCharsets.UTF_8);
+                }
+                else {
+                    target = response.getWriter();
+                }
+            }
+            return target;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            target().write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            target().write(str, off, len);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            target().write(c);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (target != null) {
+                target.close();
+            }
+        }
+    }
+
 }
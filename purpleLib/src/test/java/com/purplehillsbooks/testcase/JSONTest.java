@@ -16,22 +16,69 @@
 
 package com.purplehillsbooks.testcase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import com.purplehillsbooks.json.ConcurrentJSONObject;
 import com.purplehillsbooks.json.JSONArray;
+import com.purplehillsbooks.json.JSONArrayIndex;
+import com.purplehillsbooks.json.JSONBinder;
 import com.purplehillsbooks.json.JSONObject;
+import com.purplehillsbooks.json.JSONPath;
+import com.purplehillsbooks.json.JSONProjection;
+import com.purplehillsbooks.json.JSONPullParser;
 import com.purplehillsbooks.json.JSONTokener;
+import com.purplehillsbooks.json.JSONWriter;
+import com.purplehillsbooks.json.LazyJSONObject;
+import com.purplehillsbooks.json.NDJSONParallelReader;
+import com.purplehillsbooks.json.NDJSONReader;
+import com.purplehillsbooks.json.NDJSONWriter;
+import com.purplehillsbooks.json.SimpleException;
+import com.purplehillsbooks.json.SymbolTable;
+import com.purplehillsbooks.json.UTF8JSONTokener;
 import com.purplehillsbooks.json.YAMLSupport;
 import com.purplehillsbooks.streams.MemFile;
 import com.purplehillsbooks.testframe.TestRecorder;
 import com.purplehillsbooks.testframe.TestRecorderText;
 import com.purplehillsbooks.testframe.TestSet;
+import com.purplehillsbooks.web.JSONHandler;
+import com.purplehillsbooks.web.JSONServlet;
+import com.purplehillsbooks.web.SessionManager;
+import com.purplehillsbooks.web.WebRequest;
+
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
 
 /*
  *
@@ -55,6 +102,34 @@ public class JSONTest extends TestAbstract implements TestSet {
         testLongValues();
         testSorting();
         testYMLReading();
+        testTokenizerWindow();
+        testUTF8Tokenizer();
+        testSyntaxErrorPositions();
+        testPullParser();
+        testProjection();
+        testLazyObject();
+        testNumberParsing();
+        testSymbolTable();
+        testNDJSON();
+        testNDJSONParallel();
+        testMappedRead();
+        testCompactFootprint();
+        testKeyOrder();
+        testNumericArrays();
+        testFrozenTrees();
+        testConcurrentObject();
+        testJSONPath();
+        testArrayIndex();
+        testBeanConversion();
+        testBinder();
+        testBufferedOutput();
+        testByteOutput();
+        testServletOutput();
+        testOutputCache();
+        testDoubleFormat();
+        testJSONWriterStreaming();
+        testCanonicalHash();
+        testCanonicalNumberModes();
 
     }
 
@@ -457,4 +532,1900 @@ public class JSONTest extends TestAbstract implements TestSet {
     }
 
 
+    /*
+     * Every JSON file in the test data is parsed from a string (whole text in the
+     * window) and from a reader with a tiny window, so that strings and values
+     * are split across window refills.  Both must produce the same tree.
+     */
+    private void testTokenizerWindow() throws Exception {
+        for (File child : sourceDataFolder.listFiles()) {
+            String name = child.getName();
+            if (!name.endsWith(".json")) {
+                continue;
+            }
+            String testId = "Tokenizer window: "+name;
+            try {
+                MemFile mf = new MemFile();
+                mf.fillWithFile(child);
+                String fromString = new JSONObject(new JSONTokener(mf.toString())).toString(2);
+                String fromReader = new JSONObject(new JSONTokener(new StringReader(mf.toString()), 16)).toString(2);
+                String fromStream = JSONObject.readFromFile(child).toString(2);
+                if (!fromString.equals(fromReader)) {
+                    tr.markFailed(testId, "reading with a small window produced a different result");
+                }
+                else if (!fromString.equals(fromStream)) {
+                    tr.markFailed(testId, "reading from a file produced a different result");
+                }
+                else {
+                    tr.markPassed(testId);
+                }
+            }
+            catch (Exception e) {
+                tr.markFailed(testId, e.toString());
+            }
+        }
+    }
+
+    private void testUTF8Tokenizer() throws Exception {
+        for (File child : sourceDataFolder.listFiles()) {
+            String name = child.getName();
+            if (name.endsWith(".json")) {
+                MemFile mf = new MemFile();
+                mf.fillWithFile(child);
+                compareUTF8Parse("UTF-8 tokenizer: "+name, mf.toString());
+            }
+        }
+        //two, three, and four byte characters, with some of them straddling the window boundary
+        compareUTF8Parse("UTF-8 tokenizer: multibyte",
+                "{\"\u00fcber\":\"caf\u00e9 \u4e2d\u6587 \ud83d\ude00\ud83d\ude01\", \"euro\":[\"\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\u20ac\", \u00e9t\u00e9, \"\\u00e9\"]}");
+    }
+
+    private void compareUTF8Parse(String testId, String source) throws Exception {
+        try {
+            byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes);
+            direct.flip();
+            String fromString = new JSONObject(new JSONTokener(source)).toString(2);
+            String fromBytes = new JSONObject(new UTF8JSONTokener(bytes)).toString(2);
+            String fromStream = new JSONObject(new UTF8JSONTokener(new ByteArrayInputStream(bytes), 16)).toString(2);
+            String fromBuffer = new JSONObject(new UTF8JSONTokener(direct)).toString(2);
+            if (!fromString.equals(fromBytes)) {
+                tr.markFailed(testId, "reading from a byte array produced a different result");
+            }
+            else if (!fromString.equals(fromStream)) {
+                tr.markFailed(testId, "reading from a stream with a small window produced a different result");
+            }
+            else if (!fromString.equals(fromBuffer)) {
+                tr.markFailed(testId, "reading from a direct buffer produced a different result");
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+        catch (Exception e) {
+            tr.markFailed(testId, e.toString());
+        }
+    }
+
+    private void testSyntaxErrorPositions() throws Exception {
+        testOneSyntaxError("{\"a\":1,\n  \"b\" 2}", "Expected a ':' after a key at 15 [character 7 line 2]");
+        testOneSyntaxError("{\"a\":\"line\none\"}", "Unterminated string at 11 [character 0 line 2]");
+        testOneSyntaxError("[1,2,\r\n3,]x", "ok");
+        testOneSyntaxError("{\"a\":[1,2\r\n\r\n   3]}", "Expected a ',' or ']' at 17 [character 4 line 4]");
+    }
+
+    private void testOneSyntaxError(String source, String expected) throws Exception {
+        for (int windowSize : new int[] {16, 1000}) {
+            String testId = "Syntax error position ("+windowSize+"): "+expected;
+            String actual = "ok";
+            try {
+                new JSONTokener(new StringReader(source), windowSize).nextValue();
+            }
+            catch (Exception e) {
+                actual = e.getMessage();
+            }
+            if (expected.equals(actual)) {
+                tr.markPassed(testId);
+            }
+            else {
+                tr.markFailed(testId, "Expected '"+expected+"' but got '"+actual+"' instead.");
+            }
+            testId = "Pull parser error position ("+windowSize+"): "+expected;
+            actual = "ok";
+            try {
+                JSONPullParser pp = new JSONPullParser(new JSONTokener(new StringReader(source), windowSize));
+                while (pp.hasNext()) {
+                    pp.next();
+                }
+            }
+            catch (Exception e) {
+                actual = e.getMessage();
+            }
+            if (expected.equals(actual)) {
+                tr.markPassed(testId);
+            }
+            else {
+                tr.markFailed(testId, "Expected '"+expected+"' but got '"+actual+"' instead.");
+            }
+        }
+    }
+
+    private void testPullParser() throws Exception {
+        for (File child : sourceDataFolder.listFiles()) {
+            String name = child.getName();
+            if (!name.endsWith(".json")) {
+                continue;
+            }
+            String testId = "Pull parser events: "+name;
+            try {
+                MemFile mf = new MemFile();
+                mf.fillWithFile(child);
+                String expected = new JSONObject(new JSONTokener(mf.toString())).toString(2);
+                JSONPullParser pp = new JSONPullParser(new JSONTokener(new StringReader(mf.toString()), 16));
+                if (pp.next() != JSONPullParser.Event.START_OBJECT) {
+                    tr.markFailed(testId, "first event was "+pp.getEvent());
+                    continue;
+                }
+                String actual = ((JSONObject)buildFromEvents(pp)).toString(2);
+                if (pp.hasNext() || pp.next() != JSONPullParser.Event.END_DOCUMENT) {
+                    tr.markFailed(testId, "document did not end after the outermost object");
+                }
+                else if (!expected.equals(actual)) {
+                    tr.markFailed(testId, "building from events produced a different result");
+                }
+                else {
+                    tr.markPassed(testId);
+                }
+            }
+            catch (Exception e) {
+                tr.markFailed(testId, e.toString());
+            }
+        }
+
+        //stream a list of records, materializing one at a time, and skipping the rest
+        StringBuilder sb = new StringBuilder("{\"header\":{\"skip\":[1,2,{\"a\":[]}]},\"records\":[");
+        for (int i=0; i<1000; i++) {
+            sb.append("{\"id\":").append(i).append(",\"tags\":[\"x\",\"y\"],\"name\":\"rec").append(i).append("\"},\n");
+        }
+        sb.append("],\"count\":1000}");
+        String testId = "Pull parser streaming records";
+        try {
+            JSONPullParser pp = new JSONPullParser(new JSONTokener(new StringReader(sb.toString()), 64));
+            int total = 0;
+            int records = 0;
+            Object count = null;
+            pp.next();
+            while (pp.next() == JSONPullParser.Event.KEY) {
+                String key = pp.getKey();
+                JSONPullParser.Event event = pp.next();
+                if ("records".equals(key)) {
+                    while (pp.next() == JSONPullParser.Event.START_OBJECT) {
+                        JSONObject rec = pp.readObject();
+                        total += rec.getInt("id");
+                        records++;
+                    }
+                }
+                else if (event == JSONPullParser.Event.VALUE) {
+                    count = pp.getValue();
+                }
+                else {
+                    pp.skipChildren();
+                }
+            }
+            if (records != 1000 || total != 499500 || !Integer.valueOf(1000).equals(count)) {
+                tr.markFailed(testId, "got "+records+" records with total "+total+" and count "+count);
+            }
+            else if (pp.getEvent() != JSONPullParser.Event.END_OBJECT || pp.hasNext()) {
+                tr.markFailed(testId, "did not end on the outermost object, last event "+pp.getEvent());
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+        catch (Exception e) {
+            tr.markFailed(testId, e.toString());
+        }
+    }
+
+    /**
+     * Build the container that was just started, using only the events.
+     */
+    private Object buildFromEvents(JSONPullParser pp) throws Exception {
+        if (pp.getEvent() == JSONPullParser.Event.START_OBJECT) {
+            JSONObject jo = new JSONObject();
+            while (pp.next() == JSONPullParser.Event.KEY) {
+                String key = pp.getKey();
+                JSONPullParser.Event event = pp.next();
+                jo.put(key, event == JSONPullParser.Event.VALUE ? pp.getValue() : buildFromEvents(pp));
+            }
+            return jo;
+        }
+        JSONArray ja = new JSONArray();
+        while (pp.next() != JSONPullParser.Event.END_ARRAY) {
+            ja.put(pp.getEvent() == JSONPullParser.Event.VALUE ? pp.getValue() : buildFromEvents(pp));
+        }
+        return ja;
+    }
+
+    private void testProjection() throws Exception {
+        for (File child : sourceDataFolder.listFiles()) {
+            String name = child.getName();
+            if (!name.endsWith(".json")) {
+                continue;
+            }
+            String testId = "Projection: "+name;
+            try {
+                JSONObject full = JSONObject.readFromFile(child);
+                String wildcard = new JSONProjection("*").readFromFile(child).toString(2);
+                JSONObject nothing = new JSONProjection("no.such.path", "/no/such/pointer").readFromFile(child);
+                if (!full.toString(2).equals(wildcard)) {
+                    tr.markFailed(testId, "projecting every member produced a different result");
+                }
+                else if (nothing.length()!=0) {
+                    tr.markFailed(testId, "projecting a path that does not exist produced "+nothing.toString());
+                }
+                else {
+                    tr.markPassed(testId);
+                }
+            }
+            catch (Exception e) {
+                tr.markFailed(testId, e.toString());
+            }
+        }
+
+        String source = "{\"header\":{\"title\":\"Big\",\"skip\":[1,{\"x\":\"\\u00e9\\n\"},true]},"
+                +"\"records\":[{\"id\":1,\"name\":\"a\"},{\"id\":2},{\"id\":3,\"name\":\"c\"},],"
+                +"\"a/b\":{\"c~d\":[5,6]},unquoted:null}";
+        testOneProjection(source, new String[] {"header.title"},
+                "{\"header\":{\"title\":\"Big\"}}");
+        testOneProjection(source, new String[] {"/records/1/id", "records.0.name"},
+                "{\"records\":[{\"name\":\"a\"},{\"id\":2}]}");
+        testOneProjection(source, new String[] {"records.*.name"},
+                "{\"records\":[{\"name\":\"a\"},null,{\"name\":\"c\"}]}");
+        testOneProjection(source, new String[] {"/a~1b/c~0d/1", "unquoted", "header.title.deeper"},
+                "{\n\"a/b\":{\"c~d\":[null,6]},\n\"unquoted\":null\n}");
+        testOneProjection(source, new String[] {"/header", "header.title"},
+                "{\"header\":{\"title\":\"Big\",\"skip\":[1,{\"x\":\"\\u00e9\\n\"},true]}}");
+    }
+
+    private void testOneProjection(String source, String[] paths, String expected) throws Exception {
+        String testId = "Projection of "+String.join(", ", paths);
+        try {
+            String actual = new JSONProjection(paths).parse(new JSONTokener(source)).toString();
+            String actualBytes = new JSONProjection(paths).parse(new UTF8JSONTokener(source.getBytes(StandardCharsets.UTF_8))).toString();
+            String expectedCanonical = new JSONObject(expected).toString();
+            if (!expectedCanonical.equals(actual)) {
+                tr.markFailed(testId, "Expected '"+expectedCanonical+"' but got '"+actual+"' instead.");
+            }
+            else if (!actual.equals(actualBytes)) {
+                tr.markFailed(testId, "Reading from bytes produced '"+actualBytes+"' instead.");
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+        catch (Exception e) {
+            tr.markFailed(testId, e.toString());
+        }
+    }
+
+    private void testLazyObject() throws Exception {
+        for (File child : sourceDataFolder.listFiles()) {
+            String name = child.getName();
+            if (!name.endsWith(".json")) {
+                continue;
+            }
+            String testId = "Lazy object: "+name;
+            try {
+                MemFile mf = new MemFile();
+                mf.fillWithFile(child);
+                String original = mf.toString().trim();
+                JSONObject full = JSONObject.readFromFile(child);
+
+                LazyJSONObject lazy = LazyJSONObject.readFromFile(child);
+                ByteArrayOutputStream untouched = new ByteArrayOutputStream();
+                lazy.writeOriginal(untouched);
+                String decodedAll = lazy.toString(2);
+                ByteArrayOutputStream afterRead = new ByteArrayOutputStream();
+                lazy.writeOriginal(afterRead);
+
+                LazyJSONObject changed = LazyJSONObject.readFromFile(child);
+                changed.put("lazyTestMarker", "changed");
+                full.put("lazyTestMarker", "changed");
+                ByteArrayOutputStream afterChange = new ByteArrayOutputStream();
+                changed.writeOriginal(afterChange);
+                String reparsed = new JSONObject(afterChange.toString("UTF-8")).toString(2);
+
+                if (!original.equals(untouched.toString("UTF-8"))) {
+                    tr.markFailed(testId, "writing an untouched object did not reproduce the original text");
+                }
+                else if (!JSONObject.readFromFile(child).toString(2).equals(decodedAll)) {
+                    tr.markFailed(testId, "decoding every member produced a different result");
+                }
+                else if (!changed.isUnchanged() && !full.toString(2).equals(reparsed)) {
+                    tr.markFailed(testId, "writing a changed object produced a different result");
+                }
+                else if (!full.toString(2).equals(changed.toString(2))) {
+                    tr.markFailed(testId, "changing a member produced a different result");
+                }
+                else if (afterRead.size() == 0) {
+                    tr.markFailed(testId, "writing after reading every member produced nothing");
+                }
+                else {
+                    tr.markPassed(testId);
+                }
+            }
+            catch (Exception e) {
+                tr.markFailed(testId, e.toString());
+            }
+        }
+
+        String testId = "Lazy object: nested change";
+        try {
+            String source = "{ \"keep\" : [1,   2.50, \"\\u00e9\"],\n  \"inner\": {\"a\": 1 , \"b\" : {\"c\":  true}},\n  \"last\": caf\u00e9 }";
+            LazyJSONObject lazy = new LazyJSONObject(source.getBytes(StandardCharsets.UTF_8));
+            lazy.getJSONObject("inner").getJSONObject("b").put("c", false);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            lazy.writeOriginal(out);
+            String expected = "{\"inner\":{\"a\":1,\"b\":{\"c\":false}},\"keep\":[1,   2.50, \"\\u00e9\"],\"last\":caf\u00e9}";
+            String actual = out.toString("UTF-8");
+            if (!expected.equals(actual)) {
+                tr.markFailed(testId, "Expected '"+expected+"' but got '"+actual+"' instead.");
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+        catch (Exception e) {
+            tr.markFailed(testId, e.toString());
+        }
+    }
+
+    private void testNumberParsing() throws Exception {
+        String[] samples = {"0", "-0", "+7", "007", "-0.0", "1.", ".5", "-.5", ".", "-", "1e", "1e5", "1E+5",
+                "2.5e-22", "2.5e22", "12345e-30", "1e400", "0.1", "0.30000000000000004", "-123.456",
+                "2147483647", "2147483648", "-2147483648", "-2147483649", "9223372036854775807",
+                "9223372036854775808", "9007199254740993.0", "123456789.123456789", "1.5d", "0x10",
+                "1 2", "1.2.3", "TRUE", "nUlL", "False", "truex", "abc"};
+        for (String sample : samples) {
+            String testId = "Number parsing: "+sample;
+            Object expected = JSONObject.stringToValue(sample);
+            Object actual = new JSONTokener(sample).nextValue();
+            if (!expected.getClass().equals(actual.getClass()) || !expected.equals(actual)) {
+                tr.markFailed(testId, "Expected "+expected.getClass().getSimpleName()+" "+expected
+                        +" but got "+actual.getClass().getSimpleName()+" "+actual);
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+
+        String testId = "Number parsing: big numbers";
+        JSONTokener x = new JSONTokener("[0.1, 12, 9223372036854775807, 123456789012345678901234567890, 1e400, 1.50, abc]");
+        x.setUseBigNumbers(true);
+        JSONArray ja = new JSONArray(x);
+        if (!new BigDecimal("0.1").equals(ja.get(0))) {
+            tr.markFailed(testId, "decimal was read as "+ja.get(0).getClass().getSimpleName());
+        }
+        else if (!Integer.valueOf(12).equals(ja.get(1)) || !Long.valueOf(Long.MAX_VALUE).equals(ja.get(2))) {
+            tr.markFailed(testId, "integers that fit were not read as Integer and Long");
+        }
+        else if (!new BigInteger("123456789012345678901234567890").equals(ja.get(3))) {
+            tr.markFailed(testId, "large integer was read as "+ja.get(3).getClass().getSimpleName());
+        }
+        else if (!new BigDecimal("1e400").equals(ja.get(4)) || !new BigDecimal("1.50").equals(ja.get(5))) {
+            tr.markFailed(testId, "decimals were not read exactly");
+        }
+        else if (!"abc".equals(ja.get(6))) {
+            tr.markFailed(testId, "a string was read as "+ja.get(6));
+        }
+        else {
+            tr.markPassed(testId);
+        }
+    }
+
+    private void testSymbolTable() throws Exception {
+        String source = "[{\"name\":\"active\",\"id\":1},{\"name\":\"active\",\"id\":2},{'name':\"a longer value\",\"id\":3}]";
+
+        String testId = "Symbol table: keys shared within a parse";
+        JSONArray ja = new JSONArray(new JSONTokener(source));
+        String key0 = ja.getJSONObject(0).keySet().iterator().next();
+        String key1 = ja.getJSONObject(1).keySet().iterator().next();
+        if (key0 != key1 || !key0.equals(ja.getJSONObject(2).keySet().iterator().next())) {
+            tr.markFailed(testId, "the same key read twice did not give the same String");
+        }
+        else if (ja.getJSONObject(0).getString("name") == ja.getJSONObject(1).getString("name")) {
+            tr.markFailed(testId, "values were shared without asking for it");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Symbol table: short values shared on request";
+        JSONTokener x = new JSONTokener(source);
+        x.setDedupStringLength(8);
+        ja = new JSONArray(x);
+        if (ja.getJSONObject(0).getString("name") != ja.getJSONObject(1).getString("name")) {
+            tr.markFailed(testId, "short values were not shared");
+        }
+        else if (!"a longer value".equals(ja.getJSONObject(2).getString("name"))) {
+            tr.markFailed(testId, "long value was changed");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Symbol table: shared across parses on a thread";
+        JSONTokener x1 = new JSONTokener("{\"shared\":1}");
+        x1.setSymbolTable(SymbolTable.forThread());
+        JSONTokener x2 = new UTF8JSONTokener("{\"shared\":2}".getBytes(StandardCharsets.UTF_8));
+        x2.setSymbolTable(SymbolTable.forThread());
+        String k1 = new JSONObject(x1).keySet().iterator().next();
+        String k2 = new JSONObject(x2).keySet().iterator().next();
+        if (k1 != k2) {
+            tr.markFailed(testId, "the key was not shared between two parses");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Symbol table: bounded size";
+        SymbolTable table = new SymbolTable(100);
+        for (int i=0; i<1000; i++) {
+            char[] chars = ("key"+i).toCharArray();
+            table.lookup(chars, 0, chars.length);
+        }
+        if (table.size() > 100) {
+            tr.markFailed(testId, "table grew to "+table.size()+" entries");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+    }
+
+    private void testNDJSON() throws Exception {
+        String testId = "NDJSON: records written one per line";
+        StringWriter sw = new StringWriter();
+        NDJSONWriter writer = new NDJSONWriter(sw);
+        for (int i=0; i<3; i++) {
+            JSONObject rec = new JSONObject();
+            rec.put("id", i);
+            rec.put("text", "line\nbreak "+i);
+            rec.put("list", new JSONArray().put(i).put("x"));
+            writer.write(rec);
+        }
+        writer.close();
+        String output = sw.toString();
+        String expected = "{\"id\":0,\"list\":[0,\"x\"],\"text\":\"line\\nbreak 0\"}\n"
+                + "{\"id\":1,\"list\":[1,\"x\"],\"text\":\"line\\nbreak 1\"}\n"
+                + "{\"id\":2,\"list\":[2,\"x\"],\"text\":\"line\\nbreak 2\"}\n";
+        if (!expected.equals(output)) {
+            tr.markFailed(testId, "output was: "+output);
+        }
+        else if (writer.getRecordCount() != 3) {
+            tr.markFailed(testId, "record count was "+writer.getRecordCount());
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "NDJSON: read back from a stream, skipping blank lines";
+        byte[] bytes = ("\n" + output + "\n  \r\n{\"id\":3}").getBytes(StandardCharsets.UTF_8);
+        NDJSONReader reader = new NDJSONReader(new ByteArrayInputStream(bytes));
+        int count = 0;
+        boolean allMatch = true;
+        for (JSONObject rec : reader) {
+            if (rec.getInt("id") != count) {
+                allMatch = false;
+            }
+            count++;
+        }
+        reader.close();
+        if (count != 4 || !allMatch || reader.getRecordCount() != 4) {
+            tr.markFailed(testId, "read "+count+" records, ids in order: "+allMatch);
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "NDJSON: read as a stream from a Reader";
+        reader = new NDJSONReader(new StringReader(output));
+        long withBreak = reader.stream().filter(r -> r.getString("text").contains("\n")).count();
+        if (withBreak != 3) {
+            tr.markFailed(testId, "found "+withBreak+" records with a newline in the text");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "NDJSON: a line that is not an object reports its line";
+        reader = new NDJSONReader(new StringReader("{\"a\":1}\n\n[1,2]\n"));
+        try {
+            reader.next();
+            reader.next();
+            tr.markFailed(testId, "an array was accepted as a record");
+        }
+        catch (Exception e) {
+            String msg = e.toString();
+            if (!msg.contains("must be a JSON object") || !msg.contains("line 3")) {
+                tr.markFailed(testId, "error message was: "+msg);
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+
+        testId = "NDJSON: flush policy";
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writer = new NDJSONWriter(baos);
+        writer.setFlushEvery(2);
+        writer.write(new JSONObject().put("n", 1));
+        int afterOne = baos.size();
+        writer.write(new JSONObject().put("n", 2));
+        int afterTwo = baos.size();
+        writer.close();
+        if (afterOne != 0 || afterTwo != 16) {
+            tr.markFailed(testId, "bytes out after one record "+afterOne+", after two "+afterTwo);
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "NDJSON: both readers take exactly one record per line";
+        StringBuilder many = new StringBuilder();
+        for (int i=0; i<200; i++) {
+            many.append("{\"id\":").append(i).append(", \"name\":\"n").append(i).append("\"}\n");
+        }
+        String[] accepted = {"{\"a\":1}  \t\r\n\n   {\"a\":2}\t\n{\"a\":3}", many.toString()};
+        long[] acceptedCounts = {3, 200};
+        for (int i=0; i<accepted.length; i++) {
+            long serial = readAllSerial(accepted[i]);
+            long parallel = readAllParallel(accepted[i]);
+            if (serial != acceptedCounts[i] || parallel != acceptedCounts[i]) {
+                tr.markFailed(testId, "case "+i+" read "+serial+" and "+parallel+" records");
+                return;
+            }
+        }
+        String[] rejected = {many + "{\"x\":1} {\"y\":2}\n" + many, "{\"x\":1}\n{\"y\":\n2}\n" + many,
+                many + "{\"x\":1} ,\n"};
+        for (int i=0; i<rejected.length; i++) {
+            if (readAllSerial(rejected[i]) >= 0 || readAllParallel(rejected[i]) >= 0) {
+                tr.markFailed(testId, "rejected case "+i+" was read by one of the readers");
+                return;
+            }
+        }
+        try {
+            readAll(new NDJSONReader(new StringReader("{\"x\":1}\n{\"y\":\n2}\n")));
+            tr.markFailed(testId, "a record over two lines was read");
+            return;
+        }
+        catch (Exception e) {
+            if (!e.toString().contains("starting on line 2")) {
+                tr.markFailed(testId, "error message was: "+e);
+                return;
+            }
+        }
+        tr.markPassed(testId);
+    }
+
+    private static long readAll(NDJSONReader reader) {
+        long count = 0;
+        while (reader.hasNext()) {
+            reader.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of records, or -1 if the input was rejected
+     */
+    private static long readAllSerial(String text) {
+        try {
+            return readAll(new NDJSONReader(new StringReader(text)));
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the number of records, or -1 if the input was rejected
+     */
+    private static long readAllParallel(String text) {
+        NDJSONParallelReader loader = new NDJSONParallelReader();
+        loader.setChunkSize(100);
+        try {
+            return loader.read(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), record -> { });
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private void testNDJSONParallel() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        NDJSONWriter writer = new NDJSONWriter(baos);
+        for (int i=0; i<5000; i++) {
+            JSONObject rec = new JSONObject();
+            rec.put("id", i);
+            rec.put("name", "record \u00e9\u4e2d "+i);
+            if (i % 100 == 0) {
+                rec.put("padding", new String(new char[3000]).replace('\0', 'x'));
+            }
+            writer.write(rec);
+        }
+        writer.close();
+        byte[] bytes = baos.toByteArray();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        String testId = "NDJSON parallel: ordered delivery";
+        NDJSONParallelReader loader = new NDJSONParallelReader(pool);
+        loader.setChunkSize(1000);
+        loader.setQueueDepth(3);
+        final List<JSONObject> received = new ArrayList<JSONObject>();
+        long count = loader.read(new ByteArrayInputStream(bytes), record -> received.add(record));
+        boolean inOrder = received.size() == 5000;
+        for (int i=0; inOrder && i<received.size(); i++) {
+            inOrder = received.get(i).getInt("id") == i
+                    && received.get(i).getString("name").equals("record \u00e9\u4e2d "+i);
+        }
+        if (count != 5000 || !inOrder) {
+            tr.markFailed(testId, "received "+count+" records, in order: "+inOrder);
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "NDJSON parallel: unordered delivery";
+        loader.setOrdered(false);
+        final boolean[] seen = new boolean[5000];
+        count = loader.read(new ByteArrayInputStream(bytes), record -> seen[record.getInt("id")] = true);
+        boolean allSeen = true;
+        for (boolean b : seen) {
+            allSeen = allSeen && b;
+        }
+        if (count != 5000 || !allSeen) {
+            tr.markFailed(testId, "received "+count+" records, all seen: "+allSeen);
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "NDJSON parallel: error reports the chunk";
+        byte[] bad = "{\"a\":1}\n{\"b\":2}\n{\"c\" 3}\n{\"d\":4}\n".getBytes(StandardCharsets.UTF_8);
+        loader = new NDJSONParallelReader(pool);
+        loader.setChunkSize(64);
+        try {
+            loader.read(new ByteArrayInputStream(bad), record -> {});
+            tr.markFailed(testId, "a bad record was accepted");
+        }
+        catch (Exception e) {
+            if (!e.getMessage().contains("chunk starting at byte 0")) {
+                tr.markFailed(testId, "error message was: "+e.getMessage());
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+
+        testId = "NDJSON parallel: an Error in a chunk is reported, not lost";
+        StringBuilder deep = new StringBuilder("{\"a\":1}\n{\"deep\":");
+        for (int i=0; i<200000; i++) {
+            deep.append('[');
+        }
+        deep.append("\n");
+        loader = new NDJSONParallelReader(pool);
+        loader.setChunkSize(64);
+        loader.setOrdered(false);
+        try {
+            loader.read(new ByteArrayInputStream(deep.toString().getBytes(StandardCharsets.UTF_8)), record -> {});
+            tr.markFailed(testId, "a record nested too deep was accepted");
+        }
+        catch (SimpleException e) {
+            if (!e.getMessage().contains("chunk starting at byte")) {
+                tr.markFailed(testId, "error message was: "+e.getMessage());
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+        catch (Throwable e) {
+            tr.markFailed(testId, "failed with "+e);
+        }
+        pool.shutdown();
+    }
+
+    private void testMappedRead() throws Exception {
+        String testId = "Mapped read: large file same as stream read";
+        JSONObject big = new JSONObject();
+        JSONArray list = new JSONArray();
+        for (int i=0; i<5000; i++) {
+            list.put(new JSONObject().put("id", i).put("name", "caf\u00e9 \ud83d\ude00 "+i));
+        }
+        big.put("list", list);
+        File bigFile = new File(tr.getProperty("testoutput", null), "mappedRead.json");
+        big.writeToFile(bigFile);
+        if (bigFile.length() < UTF8JSONTokener.DEFAULT_MAP_THRESHOLD) {
+            tr.markFailed(testId, "test file is too small to be mapped: "+bigFile.length());
+        }
+        else {
+            JSONObject mapped = JSONObject.readFromFile(bigFile, true);
+            JSONObject streamed = JSONObject.readFromFile(bigFile);
+            if (!mapped.toString().equals(streamed.toString())) {
+                tr.markFailed(testId, "mapped read gave a different result");
+            }
+            else {
+                tr.markPassed(testId);
+            }
+        }
+
+        testId = "Mapped read: small file falls back to stream";
+        File smallFile = new File(tr.getProperty("testoutput", null), "mappedReadSmall.json");
+        new JSONObject().put("small", true).writeToFile(smallFile);
+        if (!JSONObject.readFromFile(smallFile, true).getBoolean("small")) {
+            tr.markFailed(testId, "small file was not read correctly");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+    }
+
+    private void testCompactFootprint() throws Exception {
+        String testId = "Compact objects: same behavior past the compact size";
+        JSONObject grow = new JSONObject();
+        HashMap<String,Object> check = new HashMap<String,Object>();
+        for (int i=0; i<20; i++) {
+            grow.put("key"+(i*7%20), i);
+            check.put("key"+(i*7%20), i);
+            if (i % 3 == 0) {
+                grow.remove("key"+i);
+                check.remove("key"+i);
+            }
+        }
+        if (!new ArrayList<String>(grow.keySet()).equals(new ArrayList<String>(check.keySet()))) {
+            tr.markFailed(testId, "keys differ: "+grow.keySet()+" vs "+check.keySet());
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Compact objects: slots per parsed record";
+        JSONObject record = new JSONObject(new JSONTokener("{\"id\":1,\"ok\":true,\"kind\":\"a\"}"));
+        int held = compactSlots(record);
+        JSONObject full = new JSONObject();
+        for (int i=0; i<8; i++) {
+            full.put("key"+i, i);
+        }
+        if (held != 6) {
+            tr.markFailed(testId, "a parsed record with three members holds "+held+" slots, not 6");
+        }
+        else if (compactSlots(full) != 16) {
+            tr.markFailed(testId, "an object with eight members holds "+compactSlots(full)+" slots, not 16");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        //the heap taken depends on the JVM and the collector, so it is
+        //reported for comparison but not checked
+        int count = 100000;
+        StringBuilder sb = new StringBuilder("[");
+        for (int i=0; i<count; i++) {
+            sb.append(i==0 ? "" : ",").append("{\"id\":").append(i%100).append(",\"ok\":true,\"kind\":\"a\"}");
+        }
+        sb.append("]");
+        String source = sb.toString();
+
+        long before = usedHeap();
+        JSONArray records = new JSONArray(new JSONTokener(source));
+        long compactBytes = usedHeap() - before;
+
+        List<HashMap<String,Object>> maps = new ArrayList<HashMap<String,Object>>(count);
+        before = usedHeap();
+        for (int i=0; i<count; i++) {
+            JSONObject rec = records.getJSONObject(i);
+            HashMap<String,Object> hm = new HashMap<String,Object>();
+            for (String key : rec.keySet()) {
+                hm.put(key, rec.get(key));
+            }
+            maps.add(hm);
+        }
+        long hashBytes = usedHeap() - before;
+        tr.log("Compact objects: parsed records took about "+(compactBytes/count)
+                +" bytes each, HashMaps of "+maps.size()+" of them alone "+(hashBytes/count));
+    }
+
+    /**
+     * The length of the slot array that a compact JSONObject holds its
+     * members in.  It is not visible outside the package, so it is read
+     * by reflection.
+     */
+    private static int compactSlots(JSONObject jo) throws Exception {
+        java.lang.reflect.Field mapField = JSONObject.class.getDeclaredField("map");
+        mapField.setAccessible(true);
+        Object map = mapField.get(jo);
+        java.lang.reflect.Field slotsField = Class.forName("com.purplehillsbooks.json.CompactMap").getDeclaredField("slots");
+        slotsField.setAccessible(true);
+        return ((Object[]) slotsField.get(map)).length;
+    }
+
+    private long usedHeap() throws Exception {
+        Runtime rt = Runtime.getRuntime();
+        for (int i=0; i<4; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private void testKeyOrder() throws Exception {
+        String testId = "Key order: sorted keys follow changes";
+        JSONObject jo = new JSONObject();
+        jo.put("m", 1);
+        jo.put("c", 2);
+        String first = jo.toString(0);
+        jo.put("a", 3);
+        jo.keySet().remove("m");
+        String second = jo.toString(0);
+        List<String> keys = jo.sortedKeySet();
+        keys.add("z");
+        if (!"{\"c\":2,\"m\":1}".equals(first) || !"{\"a\":3,\"c\":2}".equals(second)) {
+            tr.markFailed(testId, "wrote "+first+" then "+second);
+        }
+        else if (jo.sortedKeySet().size() != 2) {
+            tr.markFailed(testId, "changing the returned key list changed the object");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Key order: insertion ordered object written unsorted";
+        JSONObject ordered = JSONObject.newInsertionOrdered();
+        for (int i=0; i<12; i++) {
+            ordered.put("k"+(11-i), i);
+        }
+        ordered.put("k5", "replaced");
+        StringWriter sw = new StringWriter();
+        ordered.write(sw, 0, 0, false);
+        StringBuilder expected = new StringBuilder("{");
+        for (int i=0; i<12; i++) {
+            expected.append(i==0 ? "" : ",").append("\"k").append(11-i).append("\":");
+            expected.append(i==6 ? "\"replaced\"" : Integer.toString(i));
+        }
+        expected.append("}");
+        if (!expected.toString().equals(sw.toString())) {
+            tr.markFailed(testId, "wrote "+sw.toString());
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Key order: parsed order kept through a round trip";
+        String source = "{\"zeta\":1,\"alpha\":{\"y\":true,\"b\":null},\"list\":[{\"q\":1,\"p\":2}],\"mid\":\"x\"}";
+        JSONTokener x = new JSONTokener(source);
+        x.setKeepKeyOrder(true);
+        sw = new StringWriter();
+        new JSONObject(x).write(sw, 0, 0, false);
+        String sorted = new JSONObject(new JSONTokener(source)).toString(0);
+        if (!source.equals(sw.toString())) {
+            tr.markFailed(testId, "wrote "+sw.toString());
+        }
+        else if (!sorted.startsWith("{\"alpha\":{\"b\":null,\"y\":true},\"list\":[{\"p\":2,\"q\":1}]")) {
+            tr.markFailed(testId, "sorted output was "+sorted);
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Key order: unsorted write has the same members";
+        JSONObject plain = new JSONObject(new JSONTokener(source));
+        sw = new StringWriter();
+        plain.write(sw, 2, 0, false);
+        if (!plain.toString(0).equals(new JSONObject(new JSONTokener(sw.toString())).toString(0))) {
+            tr.markFailed(testId, "unsorted output read back differently: "+sw.toString());
+        }
+        else {
+            tr.markPassed(testId);
+        }
+    }
+
+    private void testNumericArrays() throws Exception {
+        String testId = "Numeric arrays: bulk read of parsed numbers";
+        JSONObject jo = new JSONObject(new JSONTokener(
+                "{\"t\":[1700000000000,1700000001000],\"v\":[1.5,-2.25,3e2],\"n\":[3,1,2],\"mix\":[1,\"2\",3.5]}"));
+        double[] v = jo.getJSONArray("v").toDoubleArray();
+        long[] t = jo.getJSONArray("t").toLongArray();
+        int[] n = jo.getJSONArray("n").toIntArray();
+        double[] mix = jo.getJSONArray("mix").toDoubleArray();
+        if (v.length != 3 || v[0] != 1.5 || v[1] != -2.25 || v[2] != 300.0) {
+            tr.markFailed(testId, "doubles read wrong");
+        }
+        else if (t.length != 2 || t[1] != 1700000001000L || n.length != 3 || n[0] != 3 || n[2] != 2) {
+            tr.markFailed(testId, "longs or ints read wrong");
+        }
+        else if (mix.length != 3 || mix[1] != 2.0 || mix[2] != 3.5) {
+            tr.markFailed(testId, "mixed array read wrong");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Numeric arrays: element types unchanged";
+        JSONArray longs = jo.getJSONArray("t");
+        JSONArray doubles = jo.getJSONArray("v");
+        if (!(longs.get(0) instanceof Long) || !(doubles.get(0) instanceof Double)
+                || !(jo.getJSONArray("n").get(0) instanceof Integer)) {
+            tr.markFailed(testId, "element types changed: "+longs.get(0).getClass()+" "+doubles.get(0).getClass());
+        }
+        else if (longs.getInt(0) != (int) 1700000000000L || doubles.getLong(1) != -2L) {
+            tr.markFailed(testId, "typed getters gave different results");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Numeric arrays: other values convert the array";
+        JSONArray ja = new JSONArray();
+        ja.put(1).put(2).put(3);
+        ja.put(1, "two");
+        ja.put(2.5);
+        ja.put(6, true);
+        String expected = "[1,\"two\",3,2.5,null,null,true]";
+        if (!expected.equals(ja.toString())) {
+            tr.markFailed(testId, "array became "+ja.toString());
+        }
+        else if (!(ja.get(0) instanceof Integer) || !(ja.get(3) instanceof Double)) {
+            tr.markFailed(testId, "boxed element types changed");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Numeric arrays: built from primitive arrays";
+        JSONArray fromDoubles = new JSONArray(new double[] {0.5, 1.0, -7.125});
+        JSONArray fromInts = new JSONArray(new int[] {4, 5});
+        fromInts.remove(0);
+        fromInts.put(9);
+        if (!"[0.5,1,-7.125]".equals(fromDoubles.toString()) || !"[5,9]".equals(fromInts.toString())) {
+            tr.markFailed(testId, "wrote "+fromDoubles.toString()+" and "+fromInts.toString());
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Numeric arrays: bulk read of a non-number fails";
+        try {
+            new JSONArray("[1,2,\"x\"]").toLongArray();
+            tr.markFailed(testId, "a string was read as a number");
+        }
+        catch (Exception e) {
+            tr.markPassed(testId);
+        }
+    }
+
+    private void testFrozenTrees() throws Exception {
+        String testId = "Frozen trees: changes are refused";
+        JSONObject config = new JSONObject(new JSONTokener(
+                "{\"server\":{\"host\":\"a\",\"port\":80},\"users\":[{\"name\":\"x\"},[1,2]],\"limits\":{\"max\":5}}"));
+        String original = config.toString();
+        config.freeze();
+        int refused = 0;
+        try {
+            config.put("new", 1);
+        }
+        catch (Exception e) {
+            refused++;
+        }
+        try {
+            config.getJSONObject("server").remove("host");
+        }
+        catch (Exception e) {
+            refused++;
+        }
+        try {
+            config.getJSONArray("users").put(3);
+        }
+        catch (Exception e) {
+            refused++;
+        }
+        try {
+            config.getJSONArray("users").getJSONArray(1).put(0, 7);
+        }
+        catch (Exception e) {
+            refused++;
+        }
+        try {
+            config.keySet().clear();
+        }
+        catch (Exception e) {
+            refused++;
+        }
+        if (refused != 5) {
+            tr.markFailed(testId, "only "+refused+" of 5 changes were refused");
+        }
+        else if (!original.equals(config.toString()) || !config.getJSONObject("limits").isFrozen()) {
+            tr.markFailed(testId, "frozen tree is different: "+config.toString());
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Frozen trees: edit copies only the path";
+        JSONObject next = config.mutableCopy();
+        next.editJSONObject("server").put("port", 8080);
+        next.editJSONArray("users").editJSONObject(0).put("name", "y");
+        next.freeze();
+        if (!original.equals(config.toString())) {
+            tr.markFailed(testId, "original was changed: "+config.toString());
+        }
+        else if (next.getJSONObject("server").getInt("port") != 8080
+                || !"y".equals(next.getJSONArray("users").getJSONObject(0).getString("name"))) {
+            tr.markFailed(testId, "edits missing: "+next.toString());
+        }
+        else if (next.getJSONObject("limits") != config.getJSONObject("limits")
+                || next.getJSONArray("users").getJSONArray(1) != config.getJSONArray("users").getJSONArray(1)) {
+            tr.markFailed(testId, "unchanged parts were copied");
+        }
+        else if (next.getJSONObject("server") == config.getJSONObject("server") || !next.isFrozen()) {
+            tr.markFailed(testId, "changed part was not copied, or the copy not frozen");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Frozen trees: lazy objects are decoded";
+        LazyJSONObject lazy = new LazyJSONObject("{\"a\":{\"b\":[1,{\"c\":true}]}}".getBytes("UTF-8"));
+        lazy.freeze();
+        if (!lazy.getJSONObject("a").getJSONArray("b").getJSONObject(1).isFrozen()
+                || !"{\"a\":{\"b\":[1,{\"c\":true}]}}".equals(lazy.toString())) {
+            tr.markFailed(testId, "lazy object not fully frozen: "+lazy.toString());
+        }
+        else {
+            tr.markPassed(testId);
+        }
+    }
+
+    private void testConcurrentObject() throws Exception {
+        String testId = "Concurrent object: atomic updates from many threads";
+        final ConcurrentJSONObject stats = new ConcurrentJSONObject();
+        final StringBuilder writeErrors = new StringBuilder();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String user = "user" + (t % 2);
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        stats.increment("requests");
+                        stats.add("bytes", 10);
+                        stats.requireJSONObject("byUser").increment(user);
+                        stats.put("last"+(i % 20), i);
+                        stats.remove("last"+((i + 10) % 20));
+                        if (i % 500 == 0) {
+                            try {
+                                new JSONObject(stats.toString());
+                            }
+                            catch (Exception e) {
+                                synchronized (writeErrors) {
+                                    writeErrors.append(e.toString());
+                                }
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (stats.getInt("requests") != 20000 || stats.getLong("bytes") != 200000) {
+            tr.markFailed(testId, "counts were lost: "+stats.toString());
+        }
+        else if (stats.getJSONObject("byUser").getInt("user0") != 10000
+                || !(stats.getJSONObject("byUser") instanceof ConcurrentJSONObject)) {
+            tr.markFailed(testId, "nested counts were lost: "+stats.getJSONObject("byUser").toString());
+        }
+        else if (writeErrors.length() > 0) {
+            tr.markFailed(testId, "writing while changing failed: "+writeErrors);
+        }
+        else {
+            tr.markPassed(testId);
+        }
+
+        testId = "Concurrent object: compute, merge and same output";
+        ConcurrentJSONObject co = new ConcurrentJSONObject(new JSONObject("{\"b\":2,\"a\":[1],\"c\":{\"d\":\"e\"}}"));
+        co.merge("tags", "x", (old, given) -> old + "," + given);
+        co.merge("tags", "y", (old, given) -> old + "," + given);
+        co.compute("b", (k, old) -> ((Integer) old) * 10);
+        co.compute("gone", (k, old) -> null);
+        boolean refused = false;
+        try {
+            co.putOnce("a", 5);
+        }
+        catch (Exception e) {
+            refused = true;
+        }
+        String expected = "{\"a\":[1],\"b\":20,\"c\":{\"d\":\"e\"},\"tags\":\"x,y\"}";
+        if (!expected.equals(co.toString()) || !co.toString(2).equals(new JSONObject(expected).toString(2))) {
+            tr.markFailed(testId, "wrote "+co.toString());
+        }
+        else if (!refused || co.has("gone") || co.putIfAbsent("b", 3) == null) {
+            tr.markFailed(testId, "conditional changes did not behave");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+    }
+
+    private void testJSONPath() throws Exception {
+        String testId = "JSONPath: dot paths and pointers";
+        JSONObject data = new JSONObject("{\"cust\":[{\"name\":\"Jones\"},{\"name\":\"Smith\","
+                +"\"address\":{\"city\":\"Highland Park\",\"a/b\":1,\"7\":\"seven\"}}]}");
+        JSONPath city = JSONPath.compile("cust.1.address.city");
+        if (!"Highland Park".equals(city.opt(data))
+                || !"Smith".equals(JSONPath.compile("/cust/1/name").get(data))
+                || !Integer.valueOf(1).equals(JSONPath.compile("/cust/1/address/a~1b").opt(data))
+                || !"seven".equals(JSONPath.compile(" cust . 1 . address . 7 ").opt(data))
+                || JSONPath.compile("").opt(data) != data) {
+            tr.markFailed(testId, "a path found the wrong value");
+        }
+        else if (JSONPath.compile("cust.2.name").opt(data) != null
+                || JSONPath.compile("cust.x").opt(data) != null
+                || JSONPath.compile("cust.0.name.first").opt(data) != null
+                || !"none".equals(JSONPath.compile("missing").optString(data, "none"))) {
+            tr.markFailed(testId, "a missing value was found");
+        }
+        else if (JSONPath.compile("cust.1.address.city") != city
+                || !"Highland Park".equals(city.opt(JSONPath.compile("cust.1").getJSONObject(data), 2))) {
+            tr.markFailed(testId, "the compiled path was not reused");
+        }
+        else {
+            tr.markPassed(testId);
+        }
+    }
+
+    private void testArrayIndex() throws Exception {
+        String testId = "Array index: finds and follows changes";
+        JSONArray users = new JSONArray();
+        for (int i = 0; i < 1000; i++) {
+            users.put(new JSONObject().put("id", "u" + i).put("num", i));
+        }
+        JSONArrayIndex byId = users.index("id");
+        JSONArrayIndex byNum = users.index("num");
+        boolean ok = users.index("id") == byId
+                && byId.find("u500").getInt("num") == 500
+                && byNum.indexOf("999") == 999
+                && byId.find("u1000") == null;
+        users.put(new JSONObject().put("id", "u1000"));
+        users.remove(0);
+        users.put(3, new JSONObject().put("id", "u500"));
+        ok = ok && byId.indexOf("u1000") == 999
+                && byId.find("u0") == null
+                && byId.find("u4") == null
+                && byId.findAll("u500").size() == 2
+                && byId.indexOf("u500") == 3
+                && byId.lastIndexOf("u500") == 499;
+        users.getJSONObject(10).put("id", "changed");
+        ok = ok && byId.find("u11") == null;
+        byId.reindex();
+        ok = ok && byId.indexOf("changed") == 10;
+        users.sortMembers((a, b) -> ((JSONObject) b).optInt("num") - ((JSONObject) a).optInt("num"));
+        ok = ok && byNum.find("999") == users.get(0);
+        if (!ok) {
+            tr.markFailed(testId, "index lookups did not match the array");
+            return;
+        }
+
+        //a member with few values gives long lists of positions
+        JSONArray orders = new JSONArray();
+        for (int i = 0; i < 100000; i++) {
+            orders.put(new JSONObject().put("status", i % 2 == 0 ? "open" : "closed"));
+        }
+        long start = System.currentTimeMillis();
+        JSONArrayIndex byStatus = orders.index("status");
+        for (int i = 0; i < 1000; i++) {
+            orders.put(new JSONObject().put("status", "open"));
+        }
+        orders.put(1, new JSONObject().put("status", "open"));
+        orders.put(4, new JSONObject().put("status", "closed"));
+        tr.log("indexed 100000 elements with two values and added 1000 more in "+(System.currentTimeMillis() - start)+" ms");
+        List<JSONObject> open = byStatus.findAll("open");
+        List<JSONObject> closed = byStatus.findAll("closed");
+        if (open.size() != 51000 || closed.size() != 50000 || open.get(1) != orders.get(1)
+                || closed.get(0) != orders.get(3) || closed.get(1) != orders.get(4)
+                || byStatus.lastIndexOf("open") != 100999 || byStatus.indexOf("closed") != 3) {
+            tr.markFailed(testId, "positions of a member with few values were wrong, found "+open.size()+" and "+closed.size());
+            return;
+        }
+        tr.markPassed(testId);
+    }
+
+    /**
+     * A bean for testing conversion with JSONObject(Object bean).
+     */
+    public static class SampleBean {
+        private final int n;
+        public SampleBean(int n) {
+            this.n = n;
+        }
+        public String getName() {
+            return "bean" + n;
+        }
+        public int getCount() {
+            return n;
+        }
+        public boolean isEven() {
+            return n % 2 == 0;
+        }
+        public String getURL() {
+            return "http://x/" + n;
+        }
+        public String getBroken() {
+            throw new RuntimeException("not available");
+        }
+        public String getMissing() {
+            return null;
+        }
+        public String getWithArg(int x) {
+            return "no";
+        }
+        String getHidden() {
+            return "no";
+        }
+    }
+
+    private void testBeanConversion() throws Exception {
+        String testId = "Bean conversion: getters become members";
+        String expected = "{\"URL\":\"http://x/4\",\"count\":4,\"even\":true,\"name\":\"bean4\"}";
+        String first = new JSONObject(new SampleBean(4)).toString();
+        String second = new JSONObject(new SampleBean(4)).toString();
+        JSONObject other = new JSONObject(new SampleBean(7));
+        if (!expected.equals(first) || !expected.equals(second)) {
+            tr.markFailed(testId, "bean converted to "+first+" then "+second);
+        }
+        else if (other.getInt("count") != 7 || other.getBoolean("even")) {
+            tr.markFailed(testId, "second bean converted to "+other.toString());
+        }
+        else {
+            tr.markPassed(testId);
+        }
+    }
+
+    /**
+     * A class for testing JSONBinder, with setters, public fields and nested values.
+     */
+    public static class Order {
+        public String id;
+        public int quantity;
+        public List<Line> lines;
+        public Map<String, Integer> counts;
+        public Set<String> tags;
+        public long[] stamps;
+        private double price;
+        private TimeUnit unit;
+        private boolean priceSetterUsed;
+        public void setPrice(double price) {
+            this.price = price;
+            this.priceSetterUsed = true;
+        }
+        public void setUnit(TimeUnit unit) {
+            this.unit = unit;
+        }
+    }
+    public static class Line {
+        public String sku;
+        public BigDecimal amount;
+    }
+
+    /**
+     * A class for testing JSONBinder that is not public.
+     */
+    static class Hidden {
+        private String name;
+        public int count;
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    private void testBinder() throws Exception {
+        String testId = "Binder: JSON to objects from a tree and from a stream";
+        String text = "{\"id\":\"A7\",\"quantity\":\"12\",\"price\":2.5,\"unit\":\"SECONDS\","
+                + "\"ignored\":{\"deep\":[1,2,{\"x\":null}]},"
+                + "\"lines\":[{\"sku\":\"s1\",\"amount\":1.10},{\"sku\":\"s2\",\"amount\":3}],"
+                + "\"counts\":{\"a\":1,\"b\":2},\"tags\":[\"x\",\"y\",\"x\"],\"stamps\":[5,6,7]}";
+        Order fromTree = JSONBinder.bind(new JSONObject(text), Order.class);
+        Order fromStream = JSONBinder.bind(new JSONTokener(text), Order.class);
+        Order fromBytes = JSONBinder.bind(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), Order.class);
+        for (Order o : new Order[] {fromTree, fromStream, fromBytes}) {
+            String got = o.id+"|"+o.quantity+"|"+o.price+"|"+o.priceSetterUsed+"|"+o.unit
+                    +"|"+o.lines.size()+"|"+o.lines.get(0).sku+"|"+o.lines.get(0).amount+"|"+o.lines.get(1).amount
+                    +"|"+o.counts+"|"+o.tags+"|"+o.stamps.length+"|"+o.stamps[2];
+            String expected = "A7|12|2.5|true|SECONDS|2|s1|1.1|3|{a=1, b=2}|[x, y]|3|7";
+            if (!expected.equals(got)) {
+                tr.markFailed(testId, "bound object was "+got);
+                return;
+            }
+        }
+        List<Line> lines = JSONBinder.bindList(new JSONTokener("[{\"sku\":\"q\"},{\"sku\":\"r\",\"amount\":null}]"), Line.class);
+        if (lines.size() != 2 || !"r".equals(lines.get(1).sku) || lines.get(1).amount != null) {
+            tr.markFailed(testId, "bound list was wrong");
+            return;
+        }
+        Order nulls = JSONBinder.bind(new JSONObject("{\"quantity\":null,\"price\":null}"), Order.class);
+        if (nulls.quantity != 0 || nulls.priceSetterUsed) {
+            tr.markFailed(testId, "null was set into a primitive");
+            return;
+        }
+        try {
+            JSONBinder.bind(new JSONObject("{\"lines\":[{\"amount\":\"lots\"}]}"), Order.class);
+            tr.markFailed(testId, "binding a word to a number did not fail");
+            return;
+        }
+        catch (Exception e) {
+            //expected
+        }
+        String[] outOfRange = {"{\"quantity\":3000000000}", "{\"quantity\":-2147483649}",
+                "{\"quantity\":\"3000000000\"}", "{\"quantity\":1e10}", "{\"stamps\":[9223372036854775808]}",
+                "{\"price\":\"1e400\"}"};
+        for (String big : outOfRange) {
+            try {
+                JSONBinder.bind(new JSONObject(big), Order.class);
+                tr.markFailed(testId, "binding "+big+" did not fail");
+                return;
+            }
+            catch (Exception e) {
+                //expected
+            }
+        }
+        Hidden hidden = JSONBinder.bind(new JSONObject("{\"name\":\"bob\",\"count\":3}"), Hidden.class);
+        Hidden hiddenStream = JSONBinder.bind(new JSONTokener("{\"name\":\"ann\",\"count\":4}"), Hidden.class);
+        if (!"bob".equals(hidden.name) || hidden.count != 3 || !"ann".equals(hiddenStream.name) || hiddenStream.count != 4) {
+            tr.markFailed(testId, "a class that is not public was bound as "+hidden.name+" "+hidden.count);
+            return;
+        }
+        Order edges = JSONBinder.bind(new JSONObject("{\"quantity\":-2147483648,\"stamps\":[9223372036854775807,-9223372036854775808]}"), Order.class);
+        if (edges.quantity != Integer.MIN_VALUE || edges.stamps[0] != Long.MAX_VALUE || edges.stamps[1] != Long.MIN_VALUE) {
+            tr.markFailed(testId, "the largest numbers that fit were not bound exactly");
+            return;
+        }
+        tr.markPassed(testId);
+    }
+
+    private void testBufferedOutput() throws Exception {
+        String testId = "Buffered output: escapes and large trees written exactly";
+        String[][] cases = {
+            {"", "\"\""},
+            {"plain text", "\"plain text\""},
+            {"a\"b\\c", "\"a\\\"b\\\\c\""},
+            {"</script> a/b", "\"<\\/script> a/b\""},
+            {"\b\t\n\f\r\u0001\u001f\u007f", "\"\\b\\t\\n\\f\\r\\u0001\\u001f\u007f\""},
+            {"\u0080\u009f\u00a0caf\u00e9\u2000\u20ac\u2100", "\"\\u0080\\u009f\u00a0caf\u00e9\\u2000\\u20ac\u2100\""},
+        };
+        for (String[] c : cases) {
+            StringWriter sw = new StringWriter();
+            JSONObject.quote(c[0], sw);
+            if (!c[1].equals(JSONObject.quote(c[0])) || !c[1].equals(sw.toString())) {
+                tr.markFailed(testId, "quote produced "+JSONObject.quote(c[0])+" expected "+c[1]);
+                return;
+            }
+        }
+        //bigger than the buffer, so that it is passed on in several blocks
+        JSONArray big = new JSONArray();
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++) {
+            big.put(new JSONObject().put("n", i).put("s", "</"+i+"\n"));
+            if (i > 0) {
+                expected.append(",");
+            }
+            expected.append("{\"n\":").append(i).append(",\"s\":\"<\\/").append(i).append("\\n\"}");
+        }
+        expected.append("]");
+        StringWriter sw = new StringWriter();
+        big.write(sw);
+        if (!expected.toString().equals(sw.toString()) || !expected.toString().equals(big.toString())) {
+            tr.markFailed(testId, "large array was not written exactly");
+            return;
+        }
+        tr.markPassed(testId);
+    }
+
+    private void testByteOutput() throws Exception {
+        String testId = "Byte output: UTF-8 written directly matches the text";
+        JSONObject jo = new JSONObject();
+        jo.put("plain", "abc");
+        jo.put("caf\u00e9", "\u4e2d\u6587 \ud83d\ude00 </b> \u2028");
+        jo.put("broken", "half \ud83d pair");
+        jo.put("list", new JSONArray().put(1).put(2.5).put(true).put(JSONObject.NULL));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            sb.append("\u00e9\u4e2d\ud83d\ude00x");
+        }
+        jo.put("long", sb.toString());
+        for (int indent = 0; indent < 3; indent += 2) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            Writer w = new OutputStreamWriter(expected, StandardCharsets.UTF_8);
+            jo.write(w, indent, 0);
+            w.close();
+            ByteArrayOutputStream got = new ByteArrayOutputStream();
+            jo.write(got, indent, 0);
+            ByteBuffer bb = ByteBuffer.allocate(expected.size());
+            jo.write(bb, indent);
+            if (!Arrays.equals(expected.toByteArray(), got.toByteArray())) {
+                tr.markFailed(testId, "stream bytes differ at indent "+indent);
+                return;
+            }
+            if (bb.position() != expected.size() || !Arrays.equals(expected.toByteArray(), bb.array())) {
+                tr.markFailed(testId, "buffer bytes differ at indent "+indent);
+                return;
+            }
+        }
+        try {
+            jo.write(ByteBuffer.allocate(10), 0);
+            tr.markFailed(testId, "a buffer that is too small did not fail");
+            return;
+        }
+        catch (BufferOverflowException e) {
+            //expected
+        }
+        tr.markPassed(testId);
+    }
+
+    /**
+     * A servlet for testing what reaches the client, the handler does what
+     * the last element of the path says.
+     */
+    @SuppressWarnings("serial")
+    public static class ModeServlet extends JSONServlet {
+        @Override
+        public JSONHandler constructHandler(WebRequest wr) throws Exception {
+            return new JSONHandler(wr, null) {
+                @Override
+                public JSONObject handleRequest() throws Exception {
+                    wr.consumePathToken();
+                    String mode = wr.consumePathToken();
+                    if ("text".equals(mode)) {
+                        wr.w.write("text from wr.w");
+                        return null;
+                    }
+                    if ("writer".equals(mode)) {
+                        wr.response.getWriter().write("text from the response writer, ");
+                        return new JSONObject().put("mode", mode);
+                    }
+                    return new JSONObject().put("mode", mode).put("name", "caf\u00e9");
+                }
+            };
+        }
+        @Override
+        public SessionManager constructSessionManager(ServletContext sc) throws Exception {
+            return null;
+        }
+    }
+
+    /**
+     * Stands in for the container's response, which gives out either its
+     * writer or its output stream, but not both.
+     */
+    private static class FakeResponse implements InvocationHandler {
+        StringWriter chars = new StringWriter();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean writerGotten;
+        boolean streamGotten;
+
+        public Object invoke(Object proxy, java.lang.reflect.Method m, Object[] args) {
+            if ("getWriter".equals(m.getName())) {
+                if (streamGotten) {
+                    throw new IllegalStateException("getOutputStream has already been called");
+                }
+                writerGotten = true;
+                return new PrintWriter(chars);
+            }
+            if ("getOutputStream".equals(m.getName())) {
+                if (writerGotten) {
+                    throw new IllegalStateException("getWriter has already been called");
+                }
+                streamGotten = true;
+                return new ServletOutputStream() {
+                    public void write(int b) {
+                        bytes.write(b);
+                    }
+                    public boolean isReady() {
+                        return true;
+                    }
+                    public void setWriteListener(WriteListener listener) {
+                    }
+                };
+            }
+            return null;
+        }
+
+        String sent() {
+            return chars.toString() + new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Object fake(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(JSONTest.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private FakeResponse serve(String mode) throws Exception {
+        final HttpSession session = (HttpSession) fake(HttpSession.class, (p, m, a) -> null);
+        final ServletContext context = (ServletContext) fake(ServletContext.class,
+                (p, m, a) -> "getRealPath".equals(m.getName()) ? System.getProperty("java.io.tmpdir") : null);
+        HttpServletRequest req = (HttpServletRequest) fake(HttpServletRequest.class, (p, m, a) -> {
+            switch (m.getName()) {
+                case "getSession":        return session;
+                case "getServletContext": return context;
+                case "getContextPath":    return "/app";
+                case "getRequestURL":     return new StringBuffer("http://localhost/app/api/"+mode);
+                case "getRequestURI":     return "/app/api/"+mode;
+                case "getMethod":         return "GET";
+                default:                  return null;
+            }
+        });
+        FakeResponse fr = new FakeResponse();
+        new ModeServlet().service(req, (HttpServletResponse) fake(HttpServletResponse.class, fr));
+        return fr;
+    }
+
+    private void testServletOutput() throws Exception {
+        String testId = "Servlet output: text from a handler, the response writer, and JSON bytes";
+        FakeResponse fr = serve("text");
+        if (!"text from wr.w".equals(fr.sent())) {
+            tr.markFailed(testId, "a handler that wrote text and returned null sent ("+fr.sent()+")");
+            return;
+        }
+        fr = serve("writer");
+        if (!fr.sent().startsWith("text from the response writer, {") || fr.streamGotten
+                || !"writer".equals(new JSONObject(fr.sent().substring(31)).getString("mode"))) {
+            tr.markFailed(testId, "a handler that used the response writer sent ("+fr.sent()+")");
+            return;
+        }
+        fr = serve("json");
+        if (!fr.streamGotten || fr.writerGotten
+                || !"caf\u00e9".equals(new JSONObject(fr.sent()).getString("name"))) {
+            tr.markFailed(testId, "the JSON was not written to the output stream as UTF-8 ("+fr.sent()+")");
+            return;
+        }
+        tr.markPassed(testId);
+    }
+
+    private void testOutputCache() throws Exception {
+        String testId = "Output cache: kept bytes match, and a copy shows its changes";
+        JSONObject jo = new JSONObject();
+        jo.put("name", "caf\u00e9");
+        jo.put("settings", new JSONObject().put("x", 1).put("y", "why"));
+        JSONArray big = new JSONArray();
+        for (int i = 0; i < 200; i++) {
+            big.put(new JSONObject().put("id", i).put("label", "item \u4e2d " + i));
+        }
+        jo.put("big", big);
+        jo.cacheOutput();
+        if (!jo.isFrozen() || !big.isFrozen()) {
+            tr.markFailed(testId, "cacheOutput did not freeze the tree");
+            return;
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int indent = 0; indent < 3; indent += 2) {
+                if (!Arrays.equals(utf8Through(jo, indent), utf8Direct(jo, indent))) {
+                    tr.markFailed(testId, "kept bytes differ at indent "+indent+" round "+round);
+                    return;
+                }
+            }
+        }
+        JSONObject next = jo.mutableCopy();
+        next.editJSONObject("settings").put("x", 2);
+        next.put("name", "changed");
+        next.cacheOutput();
+        if (next.getJSONArray("big") != big) {
+            tr.markFailed(testId, "the untouched array is not shared with the copy");
+            return;
+        }
+        for (int indent = 0; indent < 3; indent += 2) {
+            byte[] got = utf8Direct(next, indent);
+            if (!Arrays.equals(utf8Through(next, indent), got)) {
+                tr.markFailed(testId, "copy bytes differ at indent "+indent);
+                return;
+            }
+            JSONObject back = new JSONObject(new String(got, StandardCharsets.UTF_8));
+            if (back.getJSONObject("settings").getInt("x") != 2 || !"changed".equals(back.getString("name"))) {
+                tr.markFailed(testId, "copy output does not have the change");
+                return;
+            }
+        }
+        if (jo.getJSONObject("settings").getInt("x") != 1
+                || !Arrays.equals(utf8Through(jo, 2), utf8Direct(jo, 2))) {
+            tr.markFailed(testId, "the original changed along with the copy");
+            return;
+        }
+
+        //compact text too short to keep, indented text long enough
+        JSONObject narrow = new JSONObject();
+        for (int i = 0; i < 50; i++) {
+            narrow.put("k"+i, i);
+        }
+        narrow.cacheOutput();
+        byte[] compact = utf8Direct(narrow, 0);
+        byte[] indented = utf8Direct(narrow, 2);
+        if (compact.length >= 512 || indented.length < 512) {
+            tr.markFailed(testId, "the test object is "+compact.length+" and "+indented.length+" bytes");
+            return;
+        }
+        if (keptOutput(narrow, 0) != 0 || keptOutput(narrow, 2) != indented.length
+                || !Arrays.equals(indented, utf8Direct(narrow, 2)) || !Arrays.equals(compact, utf8Direct(narrow, 0))) {
+            tr.markFailed(testId, "a short compact form stopped the indented form from being kept");
+            return;
+        }
+        tr.markPassed(testId);
+    }
+
+    /**
+     * @return the length of the bytes kept for a sorted form of a frozen object,
+     * 0 when it is too short to keep, or -1 when nothing is kept
+     */
+    private static int keptOutput(JSONObject jo, int indentFactor) throws Exception {
+        java.lang.reflect.Field mapField = JSONObject.class.getDeclaredField("map");
+        mapField.setAccessible(true);
+        java.lang.reflect.Method outputCache = Class.forName("com.purplehillsbooks.json.CompactMap").getDeclaredMethod("outputCache");
+        outputCache.setAccessible(true);
+        Object cache = outputCache.invoke(mapField.get(jo));
+        java.lang.reflect.Method get = cache.getClass().getDeclaredMethod("get", int.class, int.class, boolean.class);
+        get.setAccessible(true);
+        byte[] kept = (byte[]) get.invoke(cache, indentFactor, 0, true);
+        return kept == null ? -1 : kept.length;
+    }
+
+    private static byte[] utf8Through(JSONObject jo, int indent) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer w = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        jo.write(w, indent, 0);
+        w.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] utf8Direct(JSONObject jo, int indent) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        jo.write(bytes, indent, 0);
+        return bytes.toByteArray();
+    }
+
+    private void testDoubleFormat() throws Exception {
+        String testId = "Double format: shortest text that reads back the same";
+        double[] values = {0.0, -0.0, 1.5, 100.0, -42.0, 1e7, 9999999.0, 0.001, 1e-4, 2e23,
+                0.1 + 0.2, 1234567.125, 123456789.0, Double.MAX_VALUE, Double.MIN_VALUE, 1e22};
+        String[] expected = {"0", "-0", "1.5", "100", "-42", "1.0E7", "9999999", "0.001", "1.0E-4", "2.0E23",
+                "0.30000000000000004", "1234567.125", "1.23456789E8", "1.7976931348623157E308", "4.9E-324", "1.0E22"};
+        for (int i = 0; i < values.length; i++) {
+            String got = JSONObject.doubleToString(values[i]);
+            if (!expected[i].equals(got)) {
+                tr.markFailed(testId, "expected "+expected[i]+" but got "+got);
+                return;
+            }
+            String inObject = new JSONObject().put("v", values[i]).toString(0);
+            if (!inObject.equals("{\"v\":"+expected[i]+"}")) {
+                tr.markFailed(testId, "object output was "+inObject);
+                return;
+            }
+        }
+        Random rand = new Random(23);
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < 10000; i++) {
+            double d = Double.longBitsToDouble(rand.nextLong());
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                continue;
+            }
+            String text = JSONObject.doubleToString(d);
+            if (Double.doubleToLongBits(Double.parseDouble(text)) != Double.doubleToLongBits(d)
+                    || text.length() > Double.toString(d).length()) {
+                tr.markFailed(testId, "double "+Double.toString(d)+" was written as "+text);
+                return;
+            }
+            list.put(d);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        list.write(bytes, 0, 0);
+        String text = list.toString(0);
+        if (!text.equals(new String(bytes.toByteArray(), StandardCharsets.UTF_8))) {
+            tr.markFailed(testId, "the stream output differs from the string output");
+            return;
+        }
+        JSONArray back = new JSONArray(text);
+        for (int i = 0; i < list.length(); i++) {
+            if (back.getDouble(i) != list.getDouble(i)) {
+                tr.markFailed(testId, "element "+i+" did not read back the same");
+                return;
+            }
+        }
+        try {
+            new JSONArray().put(Double.valueOf(Double.NaN)).toString(0);
+            tr.markFailed(testId, "NaN was written");
+            return;
+        }
+        catch (Exception e) {
+            //expected
+        }
+        tr.markPassed(testId);
+    }
+
+    private void testJSONWriterStreaming() throws Exception {
+        String testId = "JSONWriter: arrays streamed from a source to a stream";
+        List<JSONObject> rows = new ArrayList<JSONObject>();
+        JSONArray expectedRows = new JSONArray();
+        for (int i = 0; i < 3000; i++) {
+            JSONObject row = new JSONObject().put("id", i).put("name", "row \u00e9 " + i).put("score", i / 8.0);
+            rows.add(row);
+            expectedRows.put(row);
+        }
+        String expected = new JSONObject().put("rows", expectedRows).put("total", 3000).toString(0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new JSONWriter(bytes).object().key("rows").array(rows.iterator()).key("total").value(3000L).endObject();
+        if (!expected.equals(new String(bytes.toByteArray(), StandardCharsets.UTF_8))) {
+            tr.markFailed(testId, "stream output from an iterator does not match");
+            return;
+        }
+        StringWriter sw = new StringWriter();
+        new JSONWriter(sw).object().key("rows").array(rows.stream()).key("total").value(3000L).endObject();
+        if (!expected.equals(sw.toString())) {
+            tr.markFailed(testId, "writer output from a stream does not match");
+            return;
+        }
+
+        //with a threshold, text reaches the stream before the array is done
+        bytes = new ByteArrayOutputStream();
+        JSONWriter jw = new JSONWriter(bytes).setFlushThreshold(100);
+        jw.array();
+        for (int i = 0; i < 10; i++) {
+            jw.value(rows.get(i));
+        }
+        if (bytes.size() < 100) {
+            tr.markFailed(testId, "the flush threshold did not pass the text on");
+            return;
+        }
+        jw.endArray();
+        if (new JSONArray(new String(bytes.toByteArray(), StandardCharsets.UTF_8)).length() != 10) {
+            tr.markFailed(testId, "the flushed array did not read back");
+            return;
+        }
+
+        //nesting deeper than the old limit of 200
+        sw = new StringWriter();
+        jw = new JSONWriter(sw);
+        for (int i = 0; i < 500; i++) {
+            jw.array();
+        }
+        jw.value(1.5);
+        for (int i = 0; i < 500; i++) {
+            jw.endArray();
+        }
+        String deep = sw.toString();
+        if (deep.length() != 1003 || !deep.startsWith("[[[") || !deep.contains("[1.5]")) {
+            tr.markFailed(testId, "deep nesting was not written correctly");
+            return;
+        }
+        try {
+            new JSONWriter(new StringWriter()).object().key("a").value(1L).key("a");
+            tr.markFailed(testId, "a duplicate key was accepted");
+            return;
+        }
+        catch (Exception e) {
+            //expected
+        }
+        tr.markPassed(testId);
+    }
+
+    private void testCanonicalNumberModes() throws Exception {
+        String testId = "Canonical form: numbers parsed as doubles or as big numbers are the same";
+        String text = "{\"a\":1e-7,\"b\":1.5e30,\"c\":0.1,\"d\":-2.5E-300,\"e\":123.456,\"f\":1e20,"
+                + "\"g\":[0.001,1e7,9999999.5,-0.0005,3.14159265358979,-0.0,1.5E+300,7E-400]}";
+        JSONObject asDoubles = new JSONObject(new JSONTokener(text));
+        JSONTokener x = new JSONTokener(text);
+        x.setUseBigNumbers(true);
+        JSONObject asBig = new JSONObject(x);
+        if (!(asBig.get("a") instanceof BigDecimal) || !(asDoubles.get("a") instanceof Double)) {
+            tr.markFailed(testId, "the two parses did not give different number types");
+            return;
+        }
+        String expected = "{\"a\":1.0E-7,\"b\":1.5E30,\"c\":0.1,\"d\":-2.5E-300,\"e\":123.456,\"f\":1.0E20,"
+                + "\"g\":[0.001,10000000,9999999.5,-5.0E-4,3.14159265358979,0,1.5E300,0]}";
+        if (!expected.equals(asDoubles.toCanonicalString())) {
+            tr.markFailed(testId, "canonical text of doubles was "+asDoubles.toCanonicalString());
+            return;
+        }
+        //a double can not hold 7E-400, so that one is only the same within big numbers
+        asBig.getJSONArray("g").put(7, 0);
+        if (!expected.equals(asBig.toCanonicalString()) || !asDoubles.contentHash().equals(asBig.contentHash())) {
+            tr.markFailed(testId, "canonical text of big numbers was "+asBig.toCanonicalString());
+            return;
+        }
+        JSONArray beyond = new JSONArray().put(new BigDecimal("7E-400")).put(new BigDecimal("-123456789012345678901.5"))
+                .put(new BigInteger("100000000000000000001")).put(new BigDecimal("0.00012345678901234567890"));
+        String beyondExpected = "[7.0E-400,-1.234567890123456789015E20,1.00000000000000000001E20,1.234567890123456789E-4]";
+        if (!beyondExpected.equals(beyond.toCanonicalString())) {
+            tr.markFailed(testId, "numbers beyond a double were "+beyond.toCanonicalString());
+            return;
+        }
+        tr.markPassed(testId);
+    }
+
+    private void testCanonicalHash() throws Exception {
+        String testId = "Canonical form: same content gives the same text and hash";
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append("text \u00e9 ").append(i);
+        }
+        JSONObject a = new JSONObject();
+        a.put("b", 5);
+        a.put("a", new JSONArray().put(1.0).put(2.5).put("x"));
+        a.put("c", new JSONObject().put("z", true).put("y", JSONObject.NULL));
+        a.put("d", longText.toString());
+        JSONObject b = JSONObject.newInsertionOrdered();
+        b.put("d", longText.toString());
+        b.put("c", new JSONObject().put("y", JSONObject.NULL).put("z", true));
+        b.put("a", new JSONArray().put(1L).put(new BigDecimal("2.50")).put("x"));
+        b.put("b", new BigDecimal("5.00"));
+        String expected = "{\"a\":[1,2.5,\"x\"],\"b\":5,\"c\":{\"y\":null,\"z\":true},\"d\":"
+                + JSONObject.quote(longText.toString()) + "}";
+        if (!expected.equals(a.toCanonicalString()) || !expected.equals(b.toCanonicalString())) {
+            tr.markFailed(testId, "canonical text was "+a.toCanonicalString()+" and "+b.toCanonicalString());
+            return;
+        }
+        byte[] canonicalBytes = expected.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        b.writeCanonical(bytes);
+        if (!Arrays.equals(canonicalBytes, bytes.toByteArray())) {
+            tr.markFailed(testId, "canonical bytes differ from the canonical string");
+            return;
+        }
+        byte[] sha = MessageDigest.getInstance("SHA-256").digest(canonicalBytes);
+        if (!Arrays.equals(sha, a.digest("SHA-256")) || !Arrays.equals(sha, b.digest("SHA-256"))) {
+            tr.markFailed(testId, "streamed digest differs from the digest of the text");
+            return;
+        }
+        String hash = a.contentHash();
+        if (hash.length() != 64 || !hash.equals(b.contentHash())) {
+            tr.markFailed(testId, "content hashes differ for the same content");
+            return;
+        }
+
+        //kept bytes are not used for the canonical form
+        a.cacheOutput();
+        ByteArrayOutputStream normal = new ByteArrayOutputStream();
+        a.write(normal, 0, 0);
+        bytes = new ByteArrayOutputStream();
+        a.writeCanonical(bytes);
+        if (!Arrays.equals(canonicalBytes, bytes.toByteArray()) || !hash.equals(a.contentHash())) {
+            tr.markFailed(testId, "canonical output of a frozen, cached tree is wrong");
+            return;
+        }
+
+        JSONObject next = a.mutableCopy();
+        next.editJSONObject("c").put("z", false);
+        next.freeze();
+        String nextHash = next.contentHash();
+        if (nextHash.equals(hash) || !hash.equals(a.contentHash())) {
+            tr.markFailed(testId, "a change did not change the hash, or changed the original");
+            return;
+        }
+        if (!nextHash.equals(new JSONObject(next.toString()).contentHash())) {
+            tr.markFailed(testId, "a parsed copy has a different hash");
+            return;
+        }
+        if (new JSONArray().put(1).put(2).contentHash().equals(new JSONArray().put(2).put(1).contentHash())) {
+            tr.markFailed(testId, "array order did not change the hash");
+            return;
+        }
+        try {
+            a.digest("NO-SUCH-DIGEST");
+            tr.markFailed(testId, "an unknown digest algorithm did not fail");
+            return;
+        }
+        catch (Exception e) {
+            //expected
+        }
+        tr.markPassed(testId);
+    }
+
 }
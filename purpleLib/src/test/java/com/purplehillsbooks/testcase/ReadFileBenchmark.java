@@ -0,0 +1,108 @@
+package com.purplehillsbooks.testcase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.purplehillsbooks.json.JSONArray;
+import com.purplehillsbooks.json.JSONObject;
+import com.purplehillsbooks.json.UTF8JSONTokener;
+
+/**
+ * Compares reading a JSON file through a stream with reading it from a
+ * memory mapped buffer, for files of 1 KB, 1 MB and 100 MB.  This is not
+ * part of the test suite since it takes a while and the results depend on
+ * the machine.  Run it with the folder to write the test files into:
+ *
+ * java com.purplehillsbooks.testcase.ReadFileBenchmark /tmp
+ */
+public class ReadFileBenchmark {
+
+    public static void main(String args[]) {
+        try {
+            File folder = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+            runOne(folder, 1024, 20000);
+            runOne(folder, 1024 * 1024, 200);
+            runOne(folder, 100 * 1024 * 1024, 5);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void runOne(File folder, int size, int repeat) throws Exception {
+        File testFile = new File(folder, "ReadFileBenchmark-" + size + ".json");
+        makeFile(testFile, size);
+        try {
+            long fileSize = testFile.length();
+            //warm up both paths before timing
+            for (int i = 0; i < Math.min(repeat, 5); i++) {
+                readStream(testFile);
+                readMapped(testFile);
+            }
+            long streamNanos = Long.MAX_VALUE;
+            long mappedNanos = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < repeat; i++) {
+                    readStream(testFile);
+                }
+                long middle = System.nanoTime();
+                for (int i = 0; i < repeat; i++) {
+                    readMapped(testFile);
+                }
+                long end = System.nanoTime();
+                streamNanos = Math.min(streamNanos, middle - start);
+                mappedNanos = Math.min(mappedNanos, end - middle);
+            }
+            System.out.println(String.format("%10d bytes: stream %9.1f us/read %7.1f MB/s, mapped %9.1f us/read %7.1f MB/s",
+                    fileSize,
+                    streamNanos / 1000.0 / repeat, fileSize * 1000.0 * repeat / streamNanos,
+                    mappedNanos / 1000.0 / repeat, fileSize * 1000.0 * repeat / mappedNanos));
+        }
+        finally {
+            testFile.delete();
+        }
+    }
+
+    private static JSONObject readStream(File testFile) throws Exception {
+        FileInputStream fis = new FileInputStream(testFile);
+        try {
+            return new JSONObject(new UTF8JSONTokener(fis));
+        }
+        finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Always maps, whatever the size, to show the cost of mapping small files.
+     */
+    private static JSONObject readMapped(File testFile) throws Exception {
+        FileChannel channel = FileChannel.open(testFile.toPath(), StandardOpenOption.READ);
+        try {
+            return new JSONObject(UTF8JSONTokener.forChannel(channel, 0));
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private static void makeFile(File testFile, int size) throws Exception {
+        JSONArray records = new JSONArray();
+        JSONObject jo = new JSONObject();
+        jo.put("records", records);
+        int approx = 2;
+        for (int i = 0; approx < size; i++) {
+            JSONObject rec = new JSONObject();
+            rec.put("id", i);
+            rec.put("name", "Record number " + i);
+            rec.put("score", i * 1.25);
+            rec.put("active", i % 3 == 0);
+            records.put(rec);
+            approx += 106;
+        }
+        jo.writeToFile(testFile);
+    }
+}
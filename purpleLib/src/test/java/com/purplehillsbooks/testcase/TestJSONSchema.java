@@ -51,6 +51,29 @@ public class TestJSONSchema extends TestAbstract implements TestSet {
                 schemaTests("Schema validation "+testName, testName);
             }
         }
+
+        localReferenceTest("Schema validation with local references");
+    }
+
+
+    private void localReferenceTest(String testId) throws Exception {
+        JSONObject schema = new JSONObject("{\"type\":\"object\",\"properties\":{"
+                +"\"home\":{\"$ref\":\"#/definitions/address\"},"
+                +"\"work\":{\"$ref\":\"#/definitions/address\"}},"
+                +"\"definitions\":{\"address\":{\"type\":\"object\",\"properties\":{"
+                +"\"city\":{\"type\":\"string\"}}}}}");
+        JSONSchema validator = new JSONSchema();
+        boolean goodPasses = validator.checkSchema(
+                new JSONObject("{\"home\":{\"city\":\"Oslo\"},\"work\":{\"city\":\"Bergen\"}}"), schema);
+        validator = new JSONSchema();
+        boolean badPasses = validator.checkSchema(
+                new JSONObject("{\"home\":{\"city\":\"Oslo\"},\"work\":{\"city\":5}}"), schema);
+        if (!goodPasses || badPasses) {
+            tr.markFailed(testId, "local references were not followed: "+validator.getErrorList());
+        }
+        else {
+            tr.markPassed(testId);
+        }
     }
 
 